@@ -0,0 +1,461 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Frame;
+import java.awt.Rectangle;
+import java.awt.Window;
+import java.awt.geom.Area;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JInternalFrame;
+import javax.swing.SwingUtilities;
+
+import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+
+/**
+ * Runs the periodic refreshes of every live frame, so frames register a callback rather than
+ * each owning a polling thread.
+ *
+ * <p>Refreshes which fall due for the same data source are run together, and refreshes due soon
+ * after are pulled forward to join them, so their requests reach the source at once and can be
+ * merged. A source's next batch waits until its last has finished. Frames which are iconified,
+ * hidden or covered by other frames are skipped until they can be seen again, when they are
+ * refreshed at once. Whether frames can be seen is looked at on the event dispatch thread, once
+ * for all the refreshes due on each tick.
+ *
+ * <p>The scheduler wakes when the next refresh falls due rather than polling, so refreshes keep
+ * to their interval however short it is. Each is due one interval after the last was due.
+ *
+ * <p>Each registration backs off on its own: it is not refreshed again sooner than a few times
+ * its recent latency, and after a failure its interval doubles with each further failure.
+ *
+ * @author Tom Parker
+ */
+public final class RefreshScheduler {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RefreshScheduler.class);
+
+  /** how often due refreshes of frames which cannot be seen are looked at again, in ms. */
+  private static final long POLL = 250;
+
+  /** fraction of its interval by which a refresh may be pulled forward to join a batch. */
+  private static final double ALIGN = 0.25;
+
+  /** a refresh is not repeated sooner than this many times its recent latency. */
+  private static final int LATENCY_FACTOR = 4;
+
+  /** weight of the newest latency in the running average. */
+  private static final double LATENCY_WEIGHT = 0.3;
+
+  /** longest interval backoff after failures will stretch to, in milliseconds. */
+  private static final long MAX_BACKOFF = 5 * 60 * 1000;
+
+  /** most refreshes run at once. */
+  private static final int WORKERS = 8;
+
+  /** how long an idle worker waits before exiting, in seconds. */
+  private static final int KEEP_ALIVE = 30;
+
+  private static final RefreshScheduler INSTANCE = new RefreshScheduler();
+
+  /**
+   * A refresh run by the scheduler.
+   */
+  public interface Refreshable {
+    /**
+     * Refresh, on a scheduler thread. Return once the refresh is done, so its latency can be
+     * measured; an exception counts as a failure.
+     *
+     * @throws Exception if the refresh failed
+     */
+    void refresh() throws Exception;
+  }
+
+  private final ScheduledThreadPoolExecutor ticker;
+  private final ThreadPoolExecutor workers;
+  private final Runnable tickTask;
+
+  /** the rest are guarded by this scheduler. */
+  private final List<Registration> registrations;
+
+  /** batch keys with refreshes under way. */
+  private final Set<Object> busy;
+
+  /** next scheduled tick and when it is due, or null. */
+  private ScheduledFuture<?> wakeup;
+  private long wakeupAt;
+
+  private RefreshScheduler() {
+    registrations = new ArrayList<Registration>();
+    busy = new HashSet<Object>();
+
+    ticker = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "Refresh scheduler");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    ticker.setRemoveOnCancelPolicy(true);
+    workers = new ThreadPoolExecutor(WORKERS, WORKERS, KEEP_ALIVE, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          private int count;
+
+          public synchronized Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Refresh-" + count++);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+          }
+        });
+    workers.allowCoreThreadTimeOut(true);
+
+    tickTask = new Runnable() {
+      public void run() {
+        synchronized (RefreshScheduler.this) {
+          if (wakeup != null && wakeupAt <= System.currentTimeMillis()) {
+            wakeup = null;
+          }
+        }
+        try {
+          tick();
+        } catch (final RuntimeException e) {
+          LOGGER.error("Exception while scheduling refreshes", e);
+          wake(System.currentTimeMillis() + POLL);
+        }
+      }
+    };
+  }
+
+  public static RefreshScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Register a frame's refresh. The first refresh is due at once.
+   *
+   * @param frame frame whose visibility decides whether to refresh
+   * @param source data source the refresh reads, used to batch refreshes; may be null
+   * @param interval milliseconds between refreshes, 0 to pause
+   * @param refreshable the refresh
+   * @return registration, to change the interval or cancel
+   */
+  public Registration register(final JInternalFrame frame, final SeismicDataSource source,
+      final long interval, final Refreshable refreshable) {
+    final Registration registration = new Registration(frame, source, interval, refreshable);
+    synchronized (this) {
+      registrations.add(registration);
+      wake(registration.nextDue);
+    }
+    return registration;
+  }
+
+  /**
+   * Make sure the scheduler ticks no later than a given time.
+   *
+   * @param time when to tick, in milliseconds
+   */
+  private synchronized void wake(final long time) {
+    if (wakeup != null) {
+      if (wakeupAt <= time) {
+        return;
+      }
+      wakeup.cancel(false);
+    }
+    wakeupAt = time;
+    wakeup = ticker.schedule(tickTask, Math.max(0, time - System.currentTimeMillis()),
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Start batches for refreshes which are due.
+   */
+  private void tick() {
+    final long now = System.currentTimeMillis();
+
+    // refreshes due now or soon, by batch
+    final Map<Object, List<Registration>> candidates =
+        new LinkedHashMap<Object, List<Registration>>();
+    synchronized (this) {
+      for (final Registration r : registrations) {
+        if (r.running || r.interval <= 0 || busy.contains(r.key)) {
+          continue;
+        }
+        if (r.nextDue - now > ALIGN * r.interval) {
+          continue;
+        }
+        List<Registration> batch = candidates.get(r.key);
+        if (batch == null) {
+          batch = new ArrayList<Registration>();
+          candidates.put(r.key, batch);
+        }
+        batch.add(r);
+      }
+    }
+
+    final Set<JInternalFrame> showing = getShowing(candidates.values());
+    for (final Map.Entry<Object, List<Registration>> entry : candidates.entrySet()) {
+      final List<Registration> batch = new ArrayList<Registration>();
+      boolean due = false;
+      for (final Registration r : entry.getValue()) {
+        if (showing.contains(r.frame)) {
+          batch.add(r);
+          due |= r.nextDue <= now;
+        }
+      }
+      if (due) {
+        start(entry.getKey(), batch);
+      }
+    }
+
+    // sleep until the next refresh is due; busy sources wake the scheduler when done
+    synchronized (this) {
+      long next = Long.MAX_VALUE;
+      for (final Registration r : registrations) {
+        if (r.running || r.interval <= 0 || busy.contains(r.key)) {
+          continue;
+        }
+        next = Math.min(next, r.nextDue > now ? r.nextDue : now + POLL);
+      }
+      if (next < Long.MAX_VALUE) {
+        wake(next);
+      }
+    }
+  }
+
+  /**
+   * Run a batch of refreshes for one source.
+   */
+  private void start(final Object key, final List<Registration> batch) {
+    final List<Registration> started = new ArrayList<Registration>(batch.size());
+    synchronized (this) {
+      for (final Registration r : batch) {
+        if (!r.cancelled && !r.running) {
+          r.running = true;
+          started.add(r);
+        }
+      }
+      if (started.isEmpty()) {
+        return;
+      }
+      busy.add(key);
+    }
+
+    if (started.size() > 1) {
+      LOGGER.debug("refreshing {} frames together", started.size());
+    }
+    final int[] remaining = new int[] {started.size()};
+    for (final Registration r : started) {
+      workers.execute(new Runnable() {
+        public void run() {
+          try {
+            r.run();
+          } finally {
+            synchronized (RefreshScheduler.this) {
+              if (--remaining[0] == 0) {
+                busy.remove(key);
+                wake(System.currentTimeMillis());
+              }
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Find which of the frames of some refreshes can be seen, asking on the event dispatch thread.
+   *
+   * @param batches refreshes by batch
+   * @return frames which can be seen
+   */
+  private static Set<JInternalFrame> getShowing(final Iterable<List<Registration>> batches) {
+    final Set<JInternalFrame> frames = new HashSet<JInternalFrame>();
+    for (final List<Registration> batch : batches) {
+      for (final Registration r : batch) {
+        frames.add(r.frame);
+      }
+    }
+    final Set<JInternalFrame> showing = new HashSet<JInternalFrame>();
+    if (frames.isEmpty()) {
+      return showing;
+    }
+
+    try {
+      SwingUtilities.invokeAndWait(new Runnable() {
+        public void run() {
+          for (final JInternalFrame frame : frames) {
+            if (isShowing(frame)) {
+              showing.add(frame);
+            }
+          }
+        }
+      });
+    } catch (final InterruptedException e) {
+      // the check may still be running, so leave its set alone
+      Thread.currentThread().interrupt();
+      return new HashSet<JInternalFrame>();
+    } catch (final InvocationTargetException e) {
+      LOGGER.error("Exception while checking frames can be seen", e.getCause());
+      return new HashSet<JInternalFrame>();
+    }
+    return showing;
+  }
+
+  /**
+   * Can any of a frame be seen? Call on the event dispatch thread.
+   */
+  private static boolean isShowing(final JInternalFrame frame) {
+    if (frame.isClosed() || frame.isIcon() || !frame.isShowing()) {
+      return false;
+    }
+    final Window window = SwingUtilities.getWindowAncestor(frame);
+    if (window instanceof Frame && (((Frame) window).getExtendedState() & Frame.ICONIFIED) != 0) {
+      return false;
+    }
+    return !isOccluded(frame);
+  }
+
+  /**
+   * Is a frame wholly covered by frames in front of it, or outside its desktop? Call on the event
+   * dispatch thread.
+   */
+  private static boolean isOccluded(final JInternalFrame frame) {
+    final Container parent = frame.getParent();
+    if (parent == null) {
+      return false;
+    }
+
+    final Rectangle desktop = new Rectangle(0, 0, parent.getWidth(), parent.getHeight());
+    final Rectangle visible = frame.getBounds().intersection(desktop);
+    if (visible.isEmpty()) {
+      return true;
+    }
+
+    // components are in front to back order
+    final Area uncovered = new Area(visible);
+    for (final Component c : parent.getComponents()) {
+      if (c == frame) {
+        break;
+      }
+      if (c instanceof JInternalFrame && c.isVisible() && !((JInternalFrame) c).isIcon()) {
+        uncovered.subtract(new Area(c.getBounds()));
+        if (uncovered.isEmpty()) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A frame's registered refresh.
+   */
+  public final class Registration {
+    private final JInternalFrame frame;
+    private final Refreshable refreshable;
+
+    /** batch key: the source name, or this registration if there is no source. */
+    private final Object key;
+
+    /** the rest are guarded by the scheduler. */
+    private long interval;
+    private long nextDue;
+    private double latency;
+    private int failures;
+    private boolean running;
+    private boolean cancelled;
+
+    private Registration(final JInternalFrame frame, final SeismicDataSource source,
+        final long interval, final Refreshable refreshable) {
+      this.frame = frame;
+      this.refreshable = refreshable;
+      key = source == null ? this : source.getName();
+      this.interval = interval;
+      nextDue = System.currentTimeMillis();
+    }
+
+    /**
+     * Change the interval between refreshes. The next refresh is due one new interval after the
+     * last.
+     *
+     * @param ms milliseconds between refreshes, 0 to pause
+     */
+    public void setInterval(final long ms) {
+      synchronized (RefreshScheduler.this) {
+        nextDue += ms - interval;
+        interval = ms;
+        wake(nextDue);
+      }
+    }
+
+    /**
+     * Stop refreshing. A refresh under way is left to finish.
+     */
+    public void cancel() {
+      synchronized (RefreshScheduler.this) {
+        cancelled = true;
+        registrations.remove(this);
+      }
+    }
+
+    private void run() {
+      final long start = System.currentTimeMillis();
+      boolean failed = false;
+      try {
+        refreshable.refresh();
+      } catch (final Throwable e) {
+        failed = true;
+        LOGGER.warn("Refresh of {} failed: {}", frame.getTitle(), e.toString());
+      }
+      final long end = System.currentTimeMillis();
+
+      synchronized (RefreshScheduler.this) {
+        running = false;
+        latency = latency == 0 ? end - start
+            : latency + (end - start - latency) * LATENCY_WEIGHT;
+        failures = failed ? failures + 1 : 0;
+        final long backedOff = getBackedOffInterval();
+        if (backedOff > interval) {
+          nextDue = end + backedOff;
+        } else {
+          // keep to the interval from when the refresh was due, skipping any missed
+          nextDue = Math.max(nextDue + interval, end);
+        }
+      }
+    }
+
+    /**
+     * Get the interval stretched for latency and failures. Call while synchronized.
+     */
+    private long getBackedOffInterval() {
+      final long base = Math.max(interval, (long) (latency * LATENCY_FACTOR));
+      if (failures == 0) {
+        return base;
+      }
+      final long backoff = base << Math.min(failures, 16);
+      return Math.max(base, Math.min(backoff, MAX_BACKOFF));
+    }
+  }
+}
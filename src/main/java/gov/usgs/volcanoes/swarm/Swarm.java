@@ -12,6 +12,7 @@ import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.seedlink.SeedLinkServer;
 import gov.usgs.volcanoes.swarm.event.EventFrame;
 import gov.usgs.volcanoes.swarm.heli.HelicorderViewerFrame;
 import gov.usgs.volcanoes.swarm.internalFrame.InternalFrameListener;
@@ -147,7 +148,7 @@ public class Swarm extends JFrame implements InternalFrameListener {
 
       public void actionPerformed(final ActionEvent e) {
         if (cache != null) {
-          cache.output();
+          LOGGER.info(cache.getMetrics().toString());
         }
       }
     });
@@ -527,6 +528,9 @@ public class Swarm extends JFrame implements InternalFrameListener {
       configFile.writeToFile(config.configFilename);
     }
 
+    SeedLinkServer.saveAll();
+    cache.persist();
+
     waveClipboard.removeWaves();
     try {
       for (final JInternalFrame frame : SwarmInternalFrames.getFrames()) {
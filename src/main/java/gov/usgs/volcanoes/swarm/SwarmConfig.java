@@ -3,6 +3,7 @@ package gov.usgs.volcanoes.swarm;
 import gov.usgs.volcanoes.core.configfile.ConfigFile;
 import gov.usgs.volcanoes.core.util.StringUtils;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
+import gov.usgs.volcanoes.swarm.data.EvictionPolicy;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.map.NationalMapLayer;
 import gov.usgs.volcanoes.swarm.map.hypocenters.HypocenterSource;
@@ -122,6 +123,20 @@ public class SwarmConfig {
 
   public String fdsnDataselectURL;
   public String fdsnStationURL;
+
+  public EvictionPolicy cacheEvictionPolicy;
+  public String diskCacheDir;
+  public int diskCacheSize;
+  public boolean cacheCompression;
+
+  public int gulperThreads;
+  public int gulperSourceThreads;
+  public int gulpConcurrency;
+
+  public int serverConnections;
+  public int serverIdleTimeout;
+  public int serverStaleTimeout;
+  public int menuRefresh;
   
   public String user;
 
@@ -407,6 +422,24 @@ public class SwarmConfig {
     fdsnStationURL = StringUtils.stringToString(config.getString("fdsnStationURL"),
         "http://service.iris.edu/fdsnws/station/1/query");
 
+    final String policy =
+        StringUtils.stringToString(config.getString("cacheEvictionPolicy"), "LRU");
+    cacheEvictionPolicy = EvictionPolicy.parse(policy);
+    if (cacheEvictionPolicy == null) {
+      LOGGER.warn("Unknown cacheEvictionPolicy {}, using LRU", policy);
+      cacheEvictionPolicy = EvictionPolicy.LRU;
+    }
+    diskCacheDir = StringUtils.stringToString(config.getString("diskCacheDir"), "cache");
+    diskCacheSize = StringUtils.stringToInt(config.getString("diskCacheSize"), 1024);
+    cacheCompression = StringUtils.stringToBoolean(config.getString("cacheCompression"), false);
+    gulperThreads = StringUtils.stringToInt(config.getString("gulperThreads"), 4);
+    gulperSourceThreads = StringUtils.stringToInt(config.getString("gulperSourceThreads"), 4);
+    gulpConcurrency = StringUtils.stringToInt(config.getString("gulpConcurrency"), 2);
+    serverConnections = StringUtils.stringToInt(config.getString("serverConnections"), 4);
+    serverIdleTimeout = StringUtils.stringToInt(config.getString("serverIdleTimeout"), 60);
+    serverStaleTimeout = StringUtils.stringToInt(config.getString("serverStaleTimeout"), 30);
+    menuRefresh = StringUtils.stringToInt(config.getString("menuRefresh"), 120);
+
     sources = new HashMap<String, SeismicDataSource>();
     final List<String> servers = config.getList("server");
     if (servers != null && servers.size() > 0) {
@@ -472,7 +505,10 @@ public class SwarmConfig {
   }
 
   public void removeSource(final String key) {
-    sources.remove(key);
+    final SeismicDataSource source = sources.remove(key);
+    if (source != null) {
+      source.remove();
+    }
   }
 
   public double getDurationMagnitude(final double t) {
@@ -577,6 +613,18 @@ public class SwarmConfig {
     config.put("fdsnDataselectURL", fdsnDataselectURL);
     config.put("fdsnStationURL", fdsnStationURL);
 
+    config.put("cacheEvictionPolicy", cacheEvictionPolicy.name());
+    config.put("diskCacheDir", diskCacheDir);
+    config.put("diskCacheSize", Integer.toString(diskCacheSize));
+    config.put("cacheCompression", Boolean.toString(cacheCompression));
+    config.put("gulperThreads", Integer.toString(gulperThreads));
+    config.put("gulperSourceThreads", Integer.toString(gulperSourceThreads));
+    config.put("gulpConcurrency", Integer.toString(gulpConcurrency));
+    config.put("serverConnections", Integer.toString(serverConnections));
+    config.put("serverIdleTimeout", Integer.toString(serverIdleTimeout));
+    config.put("serverStaleTimeout", Integer.toString(serverStaleTimeout));
+    config.put("menuRefresh", Integer.toString(menuRefresh));
+
     final List<String> servers = new ArrayList<String>();
     for (final SeismicDataSource sds : sources.values()) {
       if (sds.isStoreInUserConfig()) {
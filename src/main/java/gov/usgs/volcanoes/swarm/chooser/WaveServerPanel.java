@@ -27,6 +27,9 @@ public class WaveServerPanel extends DataSourcePanel {
   private JTextField gulperDelay;
   private JComboBox<String> wsOffset;
 
+  /** gulp concurrency set for the source being edited, kept as it is. */
+  private String gulpConcurrency;
+
   public WaveServerPanel() {
     super("ws", "Earthworm Wave Server");
   }
@@ -54,6 +57,7 @@ public class WaveServerPanel extends DataSourcePanel {
     String gs = "30";
     String gd = "1.0";
     wsOffset.setSelectedItem("UTC");
+    gulpConcurrency = null;
 
     if (source != null && source.indexOf(";ws:") != -1) {
       String[] ss = source.substring(source.indexOf(";ws:") + 4).split(":");
@@ -65,6 +69,9 @@ public class WaveServerPanel extends DataSourcePanel {
       if (ss.length >= 6) {
         wsOffset.setSelectedItem(ss[5]);
       }
+      if (ss.length >= 7) {
+        gulpConcurrency = ss[6];
+      }
     }
     wsHost.setText(h);
     wsPort.setText(p);
@@ -157,6 +164,9 @@ public class WaveServerPanel extends DataSourcePanel {
     int gd = (int) (Double.parseDouble(gulperDelay.getText()) * 1000);
     String result = String.format("ws:%s:%s:%d:%d:%d:%s", wsHost.getText(), wsPort.getText(),
         timeout, gs, gd, wsOffset.getSelectedItem());
+    if (gulpConcurrency != null) {
+      result += ":" + gulpConcurrency;
+    }
     return result;
   }
 
@@ -45,6 +45,8 @@ public class WebServicesPanel extends DataSourcePanel {
   private JTextField wsStationUrlField;
   private JButton updateNetworkList;
   private String currentStationUrl = "";
+  /** gulp concurrency set for the source being edited, kept as it is. */
+  private String gulpConcurrency;
 
   /**
    * Create the Web Services server panel.
@@ -149,6 +151,9 @@ public class WebServicesPanel extends DataSourcePanel {
       gd = String.format("%.1f", Integer.parseInt(ss[ssIndex++]) / 1000.0);
       wsDataSelectUrl = ss[ssIndex++];
       wsStationUrl = ss[ssIndex++];
+      if (ss.length > ssIndex) {
+        gulpConcurrency = ss[ssIndex++];
+      }
     }
     selectNetwork(net);
     station.setText(sta);
@@ -169,6 +174,7 @@ public class WebServicesPanel extends DataSourcePanel {
   public void resetSource(String src) {
     if (src != null && (source == null || src.compareTo(source) != 0)) {
       source = src;
+      gulpConcurrency = null;
 
       String net = "IU";
       String sta = "";
@@ -193,6 +199,9 @@ public class WebServicesPanel extends DataSourcePanel {
         gd = String.format("%.1f", Integer.parseInt(ss[ssIndex++]) / 1000.0);
         wsDataSelectUrl = ss[ssIndex++];
         wsStationUrl = ss[ssIndex++];
+        if (ss.length > ssIndex) {
+          gulpConcurrency = ss[ssIndex++];
+        }
       }
       selectNetwork(net);
       station.setText(sta);
@@ -504,6 +513,9 @@ public class WebServicesPanel extends DataSourcePanel {
     String result = String.format(getCode() + ":" + WebServicesSource.PARAM_FMT_TEXT,
         getText(network), getText(station), getText(location), getText(channel), gs, gd,
         getText(wsDataselectUrlField), getText(wsStationUrlField));
+    if (gulpConcurrency != null) {
+      result += "|" + gulpConcurrency;
+    }
     SwarmConfig.getInstance().fdsnDataselectURL = getText(wsDataselectUrlField);
     SwarmConfig.getInstance().fdsnStationURL = getText(wsStationUrlField);
 
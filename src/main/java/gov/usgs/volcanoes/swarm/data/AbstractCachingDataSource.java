@@ -10,18 +10,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.swing.JFrame;
 
-import cern.colt.matrix.DoubleFactory2D;
-import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.Swarm;
 
 /**
@@ -30,6 +35,20 @@ import gov.usgs.volcanoes.swarm.Swarm;
  *
  * Mostly build with Dan's code pulled from CachedDataSource
  *
+ * <p>Each channel's index is its own lock, so threads working on different channels never
+ * contend. Size enforcement runs outside of any channel lock and takes each channel lock only
+ * briefly while removing entries.
+ *
+ * <p>When the cache grows past maxSize, single entries are evicted in the order chosen by the
+ * {@link EvictionPolicy} until it fits again. If a {@link DiskCache} is set, evicted waves and
+ * helicorders are written to it and read back on a later miss.
+ *
+ * <p>Every wave put in the cache is also folded into a per-channel {@link RsamStore}, so RSAM can
+ * be drawn for any source, not only those which serve it.
+ *
+ * <p>Waves returned by the cache may share their samples with it and must be treated as
+ * read-only. Copy a wave before modifying it.
+ *
  * @author Tom Parker
  */
 public abstract class AbstractCachingDataSource extends SeismicDataSource implements RsamSource {
@@ -38,17 +57,37 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   /** roughly max size of a single wave in bytes. Actually, (numSamples * 4) */
   private static final int MAX_WAVE_SIZE = 1000000;
 
+  /** fraction of a sample by which times may miss the sample grid through rounding. */
+  private static final double SAMPLE_SLOP = 1e-6;
+
   /** microsecond conversion. */
   protected static final long TO_USEC = (long) 1E6;
 
   /** microsecond conversion. */
   protected static final double FROM_USEC = 1E-6;
 
+  /** separates channel from period in RSAM cache keys. */
+  private static final char RSAM_PERIOD_SEPARATOR = '@';
+
+  /** fraction of maxSize to evict down to, so a full cache doesn't evict on every insert. */
+  private static final double EVICTION_LOW_WATER = 0.95;
+
   protected long maxSize;
-  protected Map<String, List<CachedHelicorder>> helicorderCache;
-  protected Map<String, List<CachedWave>> waveCache;
-  protected Map<String, List<CachedRsam>> rsamCache;
-  protected CachePurgeAction[] purgeActions;
+  protected ConcurrentMap<String, TimeIndex<CachedHelicorder>> helicorderCache;
+  protected ConcurrentMap<String, TimeIndex<CachedWave>> waveCache;
+  /** RSAM put in the cache, by channel and period; see {@link #getRsamKey(String, int)}. */
+  protected ConcurrentMap<String, TimeIndex<CachedRsam>> rsamCache;
+  protected ConcurrentMap<String, TimeIndex<StreamedRsam>> streamedRsamCache;
+  protected EvictionPolicy evictionPolicy;
+  protected DiskCache diskCache;
+  protected boolean compressWaves;
+  private final ReentrantLock purgeLock = new ReentrantLock();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong waveSize = new AtomicLong();
+  private final AtomicLong helicorderSize = new AtomicLong();
+  private final AtomicLong rsamSize = new AtomicLong();
   protected static Logger logger;
   protected static final JFrame applicationFrame = Swarm.getApplicationFrame();
 
@@ -56,11 +95,12 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * Constructor.
    */
   public AbstractCachingDataSource() {
-    helicorderCache = new HashMap<String, List<CachedHelicorder>>();
-    waveCache = new HashMap<String, List<CachedWave>>();
-    rsamCache = new HashMap<String, List<CachedRsam>>();
+    helicorderCache = new ConcurrentHashMap<String, TimeIndex<CachedHelicorder>>();
+    waveCache = new ConcurrentHashMap<String, TimeIndex<CachedWave>>();
+    rsamCache = new ConcurrentHashMap<String, TimeIndex<CachedRsam>>();
+    streamedRsamCache = new ConcurrentHashMap<String, TimeIndex<StreamedRsam>>();
     maxSize = Runtime.getRuntime().maxMemory() / 6;
-    createPurgeActions();
+    evictionPolicy = EvictionPolicy.LRU;
   }
 
   @Override
@@ -77,62 +117,123 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     System.gc();
   }
 
+  /**
+   * Remove every entry from a cache. Each index is emptied under its lock so the running size
+   * stays right.
+   */
+  private static <T extends CacheEntry> void clearCache(final Map<String, TimeIndex<T>> cache) {
+    for (final TimeIndex<T> index : cache.values()) {
+      synchronized (index) {
+        index.clear();
+      }
+    }
+    cache.clear();
+  }
+
   @Override
   public boolean isActiveSource() {
     return false;
   }
 
   /**
-   * Get total size of cache.
-   * @return
+   * Get total size of cache. This reads running counters and does not walk the cache.
+   * 
+   * @return size in bytes
    */
-  public synchronized long getSize() {
-    long size = getSize(waveCache);
-    size += getSize(helicorderCache);
-    size += getSize(rsamCache);
-    return size;
+  public long getSize() {
+    return waveSize.get() + helicorderSize.get() + rsamSize.get();
   }
 
-  private synchronized <T extends CacheEntry> long getSize(final Map<String, List<T>> cache) {
-    long size = 0;
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
+  /**
+   * Get a snapshot of cache usage, broken down by cache and by channel.
+   * 
+   * @return cache metrics
+   */
+  public CacheMetrics getMetrics() {
+    final SortedMap<String, CacheMetrics.ChannelMetrics> channels =
+        new TreeMap<String, CacheMetrics.ChannelMetrics>();
+
+    for (final Map.Entry<String, TimeIndex<CachedWave>> entry : waveCache.entrySet()) {
+      final CacheMetrics.ChannelMetrics cm = getChannelMetrics(channels, entry.getKey());
+      final TimeIndex<CachedWave> index = entry.getValue();
+      synchronized (index) {
+        cm.waveCount = index.size();
+        cm.waveSize = index.getMemorySize();
+      }
+    }
 
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
+    for (final Map.Entry<String, TimeIndex<CachedHelicorder>> entry : helicorderCache
+        .entrySet()) {
+      final CacheMetrics.ChannelMetrics cm = getChannelMetrics(channels, entry.getKey());
+      final TimeIndex<CachedHelicorder> index = entry.getValue();
+      synchronized (index) {
+        cm.helicorderCount = index.size();
+        cm.helicorderSize = index.getMemorySize();
       }
     }
-    return size;
-  }
 
-  /**
-   * Output cache size.
-   */
-  public void output() {
-    long size = outputCache("Wave", waveCache);
-    size += outputCache("Helicorder", helicorderCache);
-    System.out.println("Wave Last Access Order:");
-    final List<CacheEntry> wl = getEntriesByLastAccess(waveCache);
-    for (final CacheEntry ce : wl) {
-      System.out.println(ce.getInfoString());
+    for (final Map.Entry<String, TimeIndex<CachedRsam>> entry : rsamCache.entrySet()) {
+      final String key = entry.getKey();
+      final CacheMetrics.ChannelMetrics cm =
+          getChannelMetrics(channels, key.substring(0, key.lastIndexOf(RSAM_PERIOD_SEPARATOR)));
+      final TimeIndex<CachedRsam> index = entry.getValue();
+      synchronized (index) {
+        cm.rsamCount += index.size();
+        cm.rsamSize += index.getMemorySize();
+      }
     }
 
-    System.out.println("Helicorder Last Access Order:");
-    final List<CacheEntry> hl = getEntriesByLastAccess(helicorderCache);
-    for (final CacheEntry ce : hl) {
-      System.out.println(ce.getInfoString());
+    for (final Map.Entry<String, TimeIndex<StreamedRsam>> entry : streamedRsamCache.entrySet()) {
+      final CacheMetrics.ChannelMetrics cm = getChannelMetrics(channels, entry.getKey());
+      final TimeIndex<StreamedRsam> index = entry.getValue();
+      synchronized (index) {
+        cm.rsamCount += index.size();
+        cm.rsamSize += index.getMemorySize();
+      }
     }
 
-    System.out.println("Total size: " + size + " bytes");
+    return new CacheMetrics(maxSize, waveSize.get(), helicorderSize.get(), rsamSize.get(),
+        hits.get(), misses.get(), evictions.get(), evictionPolicy, channels);
+  }
+
+  private static CacheMetrics.ChannelMetrics getChannelMetrics(
+      final Map<String, CacheMetrics.ChannelMetrics> channels, final String channel) {
+    CacheMetrics.ChannelMetrics cm = channels.get(channel);
+    if (cm == null) {
+      cm = new CacheMetrics.ChannelMetrics();
+      channels.put(channel, cm);
+    }
+    return cm;
+  }
+
+  /**
+   * Get the index for a channel, creating it if needed.
+   *
+   * @param cache cache to search
+   * @param station channel
+   * @param size running size of the cache
+   * @return the channel's index
+   */
+  private static <T extends CacheEntry> TimeIndex<T> getIndex(
+      final ConcurrentMap<String, TimeIndex<T>> cache, final String station,
+      final AtomicLong size) {
+    TimeIndex<T> index = cache.get(station);
+    if (index == null) {
+      final TimeIndex<T> newIndex = new TimeIndex<T>(size);
+      index = cache.putIfAbsent(station, newIndex);
+      if (index == null) {
+        index = newIndex;
+      }
+    }
+    return index;
   }
 
-  private synchronized <T extends CacheEntry> List<CacheEntry> getEntriesByLastAccess(
-      final Map<String, List<T>> cache) {
+  private <T extends CacheEntry> List<CacheEntry> getEntries(
+      final Map<String, TimeIndex<T>> cache) {
     final List<CacheEntry> cl = new ArrayList<CacheEntry>();
-    for (final String key : cache.keySet()) {
-      final List<T> cwl = cache.get(key);
-      for (final T ce : cwl){
-        cl.add(ce);
+    for (final TimeIndex<T> cwl : cache.values()) {
+      synchronized (cwl) {
+        cl.addAll(cwl.values());
       }
     }
 
@@ -140,62 +241,200 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   }
 
   /**
-   * Create purge actions.
+   * Set the disk tier. Evicted waves and helicorders are written to it.
+   * 
+   * @param diskCache disk cache, or null for none
    */
-  public void createPurgeActions() {
-    purgeActions = new CachePurgeAction[] {
-        // purge anything that hasn't been hit in 5 minutes
-        new TimeLimitWavePurgeAction(waveCache, 5 * 60 * 1000),
-        new TimeLimitHelicorderPurgeAction(helicorderCache, 5 * 60 * 1000),
-        new TimeLimitRsamPurgeAction(rsamCache, 5 * 60 * 1000),
+  public void setDiskCache(final DiskCache diskCache) {
+    this.diskCache = diskCache;
+  }
 
-        // cut waves larger than 3 hours in half keeping latest half
-        new HalveLargeWavesPurgeAction(waveCache, 3 * 60 * 60),
+  /**
+   * Choose where new waves are stored. Compressed waves live off-heap and take about half the
+   * memory, at the cost of decoding them when read.
+   * 
+   * @param compressWaves if true new waves are compressed
+   */
+  public void setCompressWaves(final boolean compressWaves) {
+    this.compressWaves = compressWaves;
+  }
 
-        // cut waves larger than 1 hour in half
-        new HalveLargeWavesPurgeAction(waveCache, 60 * 60),
+  /**
+   * Write every cached wave and helicorder to the disk tier so they survive a restart. Call once
+   * at shutdown; the disk tier accepts no writes afterwards.
+   */
+  public void persist() {
+    if (diskCache == null) {
+      return;
+    }
 
-        // getting to the last resort, purge wave cache
-        new CompleteWavePurgeAction(waveCache),
+    for (final CacheEntry ce : getEntries(helicorderCache)) {
+      ce.spill(diskCache);
+    }
+    for (final CacheEntry ce : getEntries(waveCache)) {
+      ce.spill(diskCache);
+    }
+    diskCache.close();
+  }
 
-        // should halve large helis
+  /**
+   * Move any waves held on disk for a time span into memory.
+   */
+  private void loadWaves(final String station, final double t1, final double t2) {
+    if (diskCache == null) {
+      return;
+    }
+    for (final Wave wave : diskCache.takeWaves(station, t1, t2)) {
+      putWave(station, wave);
+    }
+  }
 
-        // nothing left to do, purge helicorder cache
-        new CompleteHelicorderPurgeAction(helicorderCache)};
+  /**
+   * Move any helicorders held on disk for a time span into memory.
+   */
+  private void loadHelicorders(final String station, final double t1, final double t2) {
+    if (diskCache == null) {
+      return;
+    }
+    for (final HelicorderData hd : diskCache.takeHelicorders(station, t1, t2)) {
+      putHelicorder(station, hd);
+    }
   }
 
-  /** TODO: maybe this should be an observer? */
-  private synchronized void enforceSize() {
-    if (purgeActions == null) {
+  /**
+   * Get the eviction policy.
+   * 
+   * @return policy used to choose entries to evict
+   */
+  public EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * Set the eviction policy.
+   * 
+   * @param policy policy used to choose entries to evict
+   */
+  public void setEvictionPolicy(final EvictionPolicy policy) {
+    if (policy != null) {
+      evictionPolicy = policy;
+    }
+  }
+
+  /**
+   * Get number of lookups answered from the cache.
+   * 
+   * @return hit count
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Get number of lookups the cache could not answer.
+   * 
+   * @return miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get number of entries evicted to keep the cache under maxSize.
+   * 
+   * @return eviction count
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  private void countLookup(final boolean hit) {
+    if (hit) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+  }
+
+  /**
+   * Get every cache entry ordered by a policy, first to evict first. Entries are scored once, so
+   * accesses during the sort can't upset it.
+   *
+   * @param policy eviction policy
+   * @return all cache entries
+   */
+  private List<CacheEntry> getEvictionOrder(final EvictionPolicy policy) {
+    final List<CacheEntry> entries = new ArrayList<CacheEntry>();
+    entries.addAll(getEntries(waveCache));
+    entries.addAll(getEntries(helicorderCache));
+    entries.addAll(getEntries(rsamCache));
+    entries.addAll(getEntries(streamedRsamCache));
+
+    final long now = System.currentTimeMillis();
+    final List<ScoredEntry> scored = new ArrayList<ScoredEntry>(entries.size());
+    for (final CacheEntry ce : entries) {
+      scored.add(new ScoredEntry(ce, policy.score(ce, now)));
+    }
+    Collections.sort(scored);
+
+    final List<CacheEntry> ordered = new ArrayList<CacheEntry>(scored.size());
+    for (final ScoredEntry se : scored) {
+      ordered.add(se.entry);
+    }
+    return ordered;
+  }
+
+  /**
+   * Evict entries until the cache fits in maxSize. Must not be called while holding a channel
+   * lock. If another thread is already evicting this returns immediately.
+   */
+  void enforceSize() {
+    if (getSize() <= maxSize) {
       return;
     }
 
-    long target = getSize() - maxSize;
-    int i = 0;
-    while (target > 0 && i < purgeActions.length) {
-      final long chunk = purgeActions[i].purge();
-      LOGGER.debug("purged {} bytes from cache", chunk);
-      target -= chunk;
-      i++;
+    if (!purgeLock.tryLock()) {
+      return;
+    }
+    try {
+      long excess = getSize() - (long) (maxSize * EVICTION_LOW_WATER);
+      if (excess <= 0) {
+        return;
+      }
+
+      for (final CacheEntry ce : getEvictionOrder(evictionPolicy)) {
+        if (excess <= 0) {
+          break;
+        }
+        final int size = ce.getMemorySize();
+        if (ce.removeFromCache()) {
+          excess -= size;
+          evictions.incrementAndGet();
+          if (diskCache != null) {
+            ce.spill(diskCache);
+          }
+        }
+      }
+    } finally {
+      purgeLock.unlock();
     }
   }
 
-  private synchronized void putWaveInCache(final String channel, final Wave wave,
-      final List<CachedWave> waves) {
+  /**
+   * Add a wave to a channel index. Caller must hold the index lock.
+   */
+  private void putWaveInCache(final String channel, final Wave wave,
+      final TimeIndex<CachedWave> waves, final int accessCount) {
     if (wave.getMemorySize() > MAX_WAVE_SIZE) {
       final Wave[] splitWaves = wave.split();
-      putWaveInCache(channel, splitWaves[0], waves);
-      putWaveInCache(channel, splitWaves[1], waves);
+      putWaveInCache(channel, splitWaves[0], waves, accessCount);
+      putWaveInCache(channel, splitWaves[1], waves, accessCount);
       return;
     }
-    final CachedWave cw = new CachedWave();
-    cw.station = channel;
-    cw.t1 = wave.getStartTime();
-    cw.t2 = wave.getEndTime();
-    cw.wave = wave;
+    final CachedWave cw = new CachedWave(channel, wave, compressWaves);
     cw.lastAccess = System.currentTimeMillis();
-    waves.add(cw);
-    enforceSize();
+    cw.accessCount = accessCount;
+    waves.put(cw);
   }
 
   /**
@@ -203,48 +442,73 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param rsamData rsam data 
    */
-  public void putRsam(final String station, RSAMData rsamData) {
+  public void putRsam(final String station, final RSAMData rsamData) {
     if (rsamData == null || rsamData.getData() == null) {
       return;
     }
-    
-    List<CachedRsam> rsams = rsamCache.get(station);
-    if (rsams == null) {
-      rsams = new ArrayList<CachedRsam>();
-      final CachedRsam cr = new CachedRsam();
-      cr.station = station;
-      cr.t1 = rsamData.getStartTime();
-      cr.t2 = rsamData.getEndTime();
-      cr.rsamData = rsamData;
-      cr.lastAccess = System.currentTimeMillis();
-      rsams.add(cr);
-      rsamCache.put(station, rsams);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < rsams.size(); i++) {
-        final CachedRsam ch = rsams.get(i);
-        if (ch.rsamData.overlaps(rsamData) && rsamData != ch.rsamData) {
-          rsams.remove(ch);
-          final RSAMData newRsam = ch.rsamData.combine(rsamData);
-          putRsam(station, newRsam);
-          rsamData = newRsam;
-          i = 0;
-          add = false;
+    putRsam(station, rsamData, rsamData.getPeriod(), rsamData.getStartTime(),
+        rsamData.getEndTime());
+  }
+
+  /**
+   * Put RSAM fetched for a time span into cache. RSAM is cached separately for each period. Rows
+   * replace any cached rows for the same times, so a fresh copy of a partial last row supersedes
+   * the old one, and rows which continue the cached rows are appended in place. The span is
+   * remembered as fetched up to now at most, since later rows may still arrive.
+   * 
+   * @param station channel
+   * @param rsamData rsam data
+   * @param period seconds per row
+   * @param t1 start of the span asked for
+   * @param t2 end of the span asked for
+   */
+  public void putRsam(final String station, final RSAMData rsamData, final int period,
+      final double t1, double t2) {
+    if (rsamData == null || rsamData.getData() == null) {
+      return;
+    }
+    t2 = Math.min(t2, J2kSec.now());
+
+    final TimeIndex<CachedRsam> rsams =
+        getIndex(rsamCache, getRsamKey(station, period), rsamSize);
+    synchronized (rsams) {
+      CachedRsam merged = null;
+      for (final CachedRsam cr : rsams.getOverlapping(t1 - period, t2 + period)) {
+        rsams.remove(cr);
+        if (merged == null) {
+          merged = cr;
+        } else {
+          merged.series.absorb(cr.series);
+          merged.t1 = Math.min(merged.t1, cr.t1);
+          merged.t2 = Math.max(merged.t2, cr.t2);
+          merged.accessCount += cr.accessCount;
         }
       }
 
-      if (add) {
-        final CachedRsam ch = new CachedRsam();
-        ch.station = station;
-        ch.t1 = rsamData.getStartTime();
-        ch.t2 = rsamData.getEndTime();
-        ch.rsamData = rsamData;
-        ch.lastAccess = System.currentTimeMillis();
-        rsams.add(ch);
-        enforceSize();
+      if (merged == null) {
+        merged = new CachedRsam(station, period);
+        merged.t1 = t1;
+        merged.t2 = t2;
+      } else {
+        merged.t1 = Math.min(merged.t1, t1);
+        merged.t2 = Math.max(merged.t2, t2);
       }
+      merged.series.put(rsamData);
+      merged.lastAccess = System.currentTimeMillis();
+      rsams.put(merged);
     }
+    enforceSize();
+  }
+
+  /**
+   * Get the key RSAM at a period is cached under.
+   * 
+   * @param channel channel
+   * @param period seconds per row
+   * @return cache key
+   */
+  private static String getRsamKey(final String channel, final int period) {
+    return channel + RSAM_PERIOD_SEPARATOR + period;
   }
 
   /**
@@ -252,97 +516,78 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param station channel
    * @param helicorder helicorder data
    */
-  public synchronized void putHelicorder(final String station, HelicorderData helicorder) {
-    List<CachedHelicorder> helis = helicorderCache.get(station);
-    if (helis == null) {
-      helis = new ArrayList<CachedHelicorder>();
-      final CachedHelicorder ch = new CachedHelicorder();
-      ch.station = station;
-      ch.t1 = helicorder.getStartTime();
-      ch.t2 = helicorder.getEndTime();
-      ch.helicorder = helicorder;
-      ch.lastAccess = System.currentTimeMillis();
-      helis.add(ch);
-      helicorderCache.put(station, helis);
-      enforceSize();
-    } else {
-      boolean add = true;
-      for (int i = 0; i < helis.size(); i++) {
-        final CachedHelicorder ch = helis.get(i);
-
-        if (ch.helicorder.overlaps(helicorder)) {
-          final HelicorderData newHeli = ch.helicorder.combine(helicorder);
-          ch.t1 = newHeli.getStartTime();
-          ch.t2 = newHeli.getEndTime();
-          ch.helicorder = newHeli;
-          ch.lastAccess = System.currentTimeMillis();
-
-          helicorder = newHeli;
-          i = 0;
-          add = false;
-          break;
-        }
-      }
+  public void putHelicorder(final String station, final HelicorderData helicorder) {
+    if (helicorder.getData() == null || helicorder.rows() == 0) {
+      return;
+    }
 
-      if (add) {
-        final CachedHelicorder ch = new CachedHelicorder();
-        ch.station = station;
-        ch.t1 = helicorder.getStartTime();
-        ch.t2 = helicorder.getEndTime();
-        ch.helicorder = helicorder;
-        ch.lastAccess = System.currentTimeMillis();
-        helis.add(ch);
-        enforceSize();
-      }
+    final TimeIndex<CachedHelicorder> helis = getIndex(helicorderCache, station, helicorderSize);
+    synchronized (helis) {
+      final CachedHelicorder ch =
+          takeHelicorderSpan(helis, station, helicorder.getStartTime(), helicorder.getEndTime());
+      ch.store.add(helicorder);
+      putHelicorderSpan(helis, ch);
     }
+    enforceSize();
   }
 
   /**
-   * Cache wave as helicorder.
+   * Cache wave as helicorder. Samples are folded into the per-second min and max in place, so
+   * each call costs time in proportion to the wave, not the helicorder.
+   * 
    * @param station channel
    * @param wave wave data
    */
-  public synchronized void cacheWaveAsHelicorder(final String station, final Wave wave) {
+  public void cacheWaveAsHelicorder(final String station, final Wave wave) {
     if (inHelicorderCache(station, wave.getStartTime(), wave.getEndTime())) {
       return;
     }
-    
-    final int seconds = (int) Math.ceil(wave.numSamples() * wave.getSamplingPeriod());
-    final DoubleMatrix2D data = DoubleFactory2D.dense.make(seconds, 3);
-    for (int i = 0; i < seconds; i++) {
-      data.setQuick(i, 1, Integer.MAX_VALUE);
-      data.setQuick(i, 2, Integer.MIN_VALUE);
-    }
 
-    final long sPeriod = (long) (wave.getSamplingPeriod() * TO_USEC);
-    final long startTime = (long) (wave.getStartTime() * TO_USEC);
-    for (int sampleIndex = 0; sampleIndex < wave.numSamples(); sampleIndex++) {
-      final long sampleTime = startTime + sampleIndex * sPeriod;
-      final int sample = wave.buffer[sampleIndex];
+    final TimeIndex<CachedHelicorder> helis = getIndex(helicorderCache, station, helicorderSize);
+    synchronized (helis) {
+      final CachedHelicorder ch =
+          takeHelicorderSpan(helis, station, wave.getStartTime(), wave.getEndTime());
+      ch.store.add(wave);
+      putHelicorderSpan(helis, ch);
+    }
+    enforceSize();
+  }
 
-      if (sample != Wave.NO_DATA) {
-        final int secondIndex = (int) ((sampleTime - startTime) / TO_USEC);
-        data.setQuick(secondIndex, 0, sampleTime / TO_USEC);
-        data.setQuick(secondIndex, 1, Math.min(data.getQuick(secondIndex, 1), sample));
-        data.setQuick(secondIndex, 2, Math.max(data.getQuick(secondIndex, 2), sample));
+  /**
+   * Remove every helicorder touching a time span from a channel index and merge them into one
+   * entry, which may be new and empty. Caller must hold the index lock and must put the entry
+   * back with {@link #putHelicorderSpan(TimeIndex, CachedHelicorder)}.
+   */
+  private CachedHelicorder takeHelicorderSpan(final TimeIndex<CachedHelicorder> helis,
+      final String station, final double t1, final double t2) {
+    CachedHelicorder merged = null;
+
+    // helicorders have one second resolution, so anything within a second is joined
+    for (final CachedHelicorder ch : helis.getOverlapping(t1 - 1, t2 + 1)) {
+      helis.remove(ch);
+      if (merged == null) {
+        merged = ch;
+      } else {
+        merged.store.absorb(ch.store);
+        merged.accessCount += ch.accessCount;
       }
-
     }
 
-    for (int i = 0; i < seconds; i++) {
-      final double min = data.getQuick(i, 1);
-      if (min == Integer.MAX_VALUE) {
-        data.setQuick(i, 1, wave.mean());
-      }
-      final double max = data.getQuick(i, 2);
-      if (max == Integer.MIN_VALUE) {
-        data.setQuick(i, 2, wave.mean());
-      }
+    if (merged == null) {
+      merged = new CachedHelicorder(station);
     }
+    return merged;
+  }
 
-    final HelicorderData hd = new HelicorderData();
-    hd.setData(data);
-    putHelicorder(station, hd);
+  /**
+   * Index a helicorder after its data has changed. Caller must hold the index lock.
+   */
+  private void putHelicorderSpan(final TimeIndex<CachedHelicorder> helis,
+      final CachedHelicorder ch) {
+    ch.t1 = ch.store.getStartTime();
+    ch.t2 = ch.store.getEndTime();
+    ch.lastAccess = System.currentTimeMillis();
+    helis.put(ch);
   }
 
   public boolean isEmpty() {
@@ -356,68 +601,193 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized boolean inHelicorderCache(final String station, final double t1,
-      final double t2) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+  public boolean inHelicorderCache(final String station, final double t1, final double t2) {
+    loadHelicorders(station, t1, t2);
+    final TimeIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
       return false;
     }
-    for (final CachedHelicorder ch : helis) {
-      if (t1 >= ch.t1 && t2 <= ch.t2) {
-        return true;
-      }
+
+    synchronized (helis) {
+      return helis.getContaining(t1, t2) != null;
     }
+  }
 
-    return false;
+  /**
+   * Check to see if cached waves hold all of a time span without a gap. Long spans are held as
+   * several waves, since waves are split at MAX_WAVE_SIZE; they count as long as each starts within
+   * a sample period of where the one before ends.
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return true if the span is cached
+   */
+  public boolean inWaveCache(final String station, final double t1, final double t2) {
+    loadWaves(station, t1, t2);
+    final TimeIndex<CachedWave> waves = waveCache.get(station);
+    if (waves == null) {
+      return false;
+    }
+
+    synchronized (waves) {
+      final List<CachedWave> overlapping = waves.getOverlapping(t1, t2);
+      if (overlapping.isEmpty() || overlapping.get(0).t1 > t1) {
+        return false;
+      }
+
+      double end = t1;
+      for (final CachedWave cw : overlapping) {
+        if (cw.t1 > end + 1 / cw.getSamplingRate()) {
+          return false;
+        }
+        end = Math.max(end, cw.t2);
+      }
+      return t2 <= end;
+    }
   }
 
   /**
-   * Get RSAM.
+   * Get RSAM. RSAM put in the cache is used if it covers the span at the right period, otherwise
+   * RSAM computed from cached waves.
    * @see gov.usgs.volcanoes.swarm.data.RsamSource#getRsam(java.lang.String, double, double, int)
    */
   public RSAMData getRsam(final String channel, final double t1, final double t2,
       final int period) {
-    final List<CachedRsam> rsam = rsamCache.get(channel);
+    final RSAMData stored = getStoredRsam(channel, t1, t2, period);
+    return stored != null ? stored : getStreamedRsam(channel, t1, t2, period);
+  }
+
+  /**
+   * Get RSAM put in the cache with {@link #putRsam(String, RSAMData)}.
+   * 
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row
+   * @return rows of the cached RSAM at the period which holds the start of the span, or null if
+   *         there is none
+   */
+  public RSAMData getStoredRsam(final String channel, final double t1, final double t2,
+      final int period) {
+    final TimeIndex<CachedRsam> rsam = rsamCache.get(getRsamKey(channel, period));
     if (rsam == null) {
+      countLookup(false);
       return null;
-    } else {
+    }
 
-      for (final CachedRsam cr : rsam) {
-        if (cr.rsamData.getPeriod() != period) {
-          continue;
-        }
-        if (t1 >= cr.t1 && t2 <= cr.t2) {
-          return cr.slice(t1, t2);
-        }
+    synchronized (rsam) {
+      final CachedRsam cr = rsam.getContaining(t1, t1);
+      if (cr == null) {
+        countLookup(false);
+        return null;
       }
+      countLookup(true);
+      cr.touch();
+      return cr.slice(t1, t2);
     }
-    return null;
   }
 
-  @Override
-  public synchronized Wave getWave(final String station, final double t1, final double t2) {
+  /**
+   * Find where RSAM must be fetched from to bring the cache up to the end of a span. A last row
+   * which may have been partial when fetched is fetched again.
+   * 
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row
+   * @return time to fetch from; t1 if the cache holds nothing at the period from the start of
+   *         the span, and t2 or later if it holds everything
+   */
+  public double getStoredRsamEnd(final String channel, final double t1, final double t2,
+      final int period) {
+    final TimeIndex<CachedRsam> rsam = rsamCache.get(getRsamKey(channel, period));
+    if (rsam == null) {
+      return t1;
+    }
+
+    synchronized (rsam) {
+      final CachedRsam cr = rsam.getContaining(t1, t1);
+      if (cr == null) {
+        return t1;
+      }
 
-    final List<CachedWave> waves = waveCache.get(station);
+      final double lastRow = cr.series.getLastTime();
+      if (Double.isNaN(lastRow) || lastRow + period <= cr.t2) {
+        return cr.t2;
+      }
+      return lastRow;
+    }
+  }
+
+  /**
+   * Get RSAM computed from the waves put in the cache. This covers whatever part of the span the
+   * cache has seen, which may be little or none of it.
+   * 
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row, a multiple of {@link RsamStore#RESOLUTIONS}[0]
+   * @return RSAM or null if there is none in the span
+   */
+  public RSAMData getStreamedRsam(final String channel, final double t1, final double t2,
+      final int period) {
+    final TimeIndex<StreamedRsam> rsams = streamedRsamCache.get(channel);
+    if (rsams == null) {
+      return null;
+    }
+
+    synchronized (rsams) {
+      final List<StreamedRsam> overlapping = rsams.getOverlapping(t1, t2);
+      if (overlapping.isEmpty()) {
+        return null;
+      }
+      final StreamedRsam sr = overlapping.get(0);
+      sr.touch();
+      return sr.store.getRsam(t1, t2, period);
+    }
+  }
+
+  @Override
+  public Wave getWave(final String station, final double t1, final double t2) {
+    loadWaves(station, t1, t2);
+    final TimeIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
+      countLookup(false);
       return null;
-    } else {
-      for (final CachedWave cw : waves) {
-        if (t1 >= cw.t1 && t2 <= cw.t2) {
-          // TODO: fix this. It's a sloppy.
-          try {
-            final int[] newbuf = new int[(int) ((t2 - t1) * cw.wave.getSamplingRate())];
-            final int i = (int) ((t1 - cw.wave.getStartTime()) * cw.wave.getSamplingRate());
-            System.arraycopy(cw.wave.buffer, i, newbuf, 0, newbuf.length);
-            final Wave sw = new Wave(newbuf, t1, cw.wave.getSamplingRate());
-            cw.lastAccess = System.currentTimeMillis();
-            return sw;
-          } catch (final ArrayIndexOutOfBoundsException e) {
-            return null;
-          }
-        }
+    }
+
+    final CachedWave cw;
+    synchronized (waves) {
+      cw = waves.getContaining(t1, t2);
+      if (cw == null) {
+        countLookup(false);
+        return null;
       }
     }
-    return null;
+
+    // samples from the one at or before t1 to the last before t2, on the cached wave's own grid
+    final double samplingRate = cw.getSamplingRate();
+    final int from = Math.max(0, (int) Math.floor((t1 - cw.t1) * samplingRate + SAMPLE_SLOP));
+    final int to = Math.min(cw.numSamples(),
+        (int) Math.ceil((t2 - cw.t1) * samplingRate - SAMPLE_SLOP));
+    final int count = to - from;
+
+    // asked for the whole segment, no need to copy it
+    final Wave whole = cw.getWaveIfSpans(from, count);
+    if (whole != null) {
+      cw.touch();
+      countLookup(true);
+      return whole;
+    }
+
+    final int[] newbuf = cw.getSamples(from, count);
+    if (newbuf == null) {
+      countLookup(false);
+      return null;
+    }
+    cw.touch();
+    countLookup(true);
+    return new Wave(newbuf, cw.t1 + from / samplingRate, samplingRate);
   }
 
   @Override
@@ -443,70 +813,173 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param t2 end time
    * @return
    */
-  public synchronized Wave getBestWave(final String station, final double t1, final double t2) {
+  public Wave getBestWave(final String station, final double t1, final double t2) {
+    loadWaves(station, t1, t2);
     Wave wave;
-    final List<CachedWave> waves = waveCache.get(station);
+    final TimeIndex<CachedWave> waves = waveCache.get(station);
     if (waves == null) {
+      countLookup(false);
       return null;
     } else {
       final List<Wave> parts = new ArrayList<Wave>();
       double minT = 1E300;
       double maxT = -1E300;
-      for (final CachedWave cw : waves) {
-        if (cw.wave.overlaps(t1, t2)) {
-          parts.add(cw.wave);
-          minT = Math.min(minT, cw.t1);
-          maxT = Math.max(maxT, cw.t2);
+      synchronized (waves) {
+        for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+          final Wave part = cw.getWave(t1, t2);
+          if (part != null) {
+            parts.add(part);
+            minT = Math.min(minT, part.getStartTime());
+            maxT = Math.max(maxT, part.getEndTime());
+            cw.touch();
+          }
         }
       }
+      countLookup(!parts.isEmpty());
 
       if (parts.size() == 1) {
         return parts.get(0);
       }
 
-      wave = Wave.join(parts, minT, maxT);
-      if (wave != null) {
-        wave = wave.subset(t1, t2);
+      wave = assemble(parts, Math.max(t1, minT), Math.min(t2, maxT));
+      if (wave == null) {
+        wave = Wave.join(parts, minT, maxT);
+        if (wave != null) {
+          wave = wave.subset(t1, t2);
+        }
       }
     }
     return wave;
   }
 
+  /**
+   * Copy the parts of several waves covering a time span into a single new wave, leaving
+   * NO_DATA in any gaps. This is the same as joining the waves and taking a subset, but copies
+   * each sample once rather than twice.
+   * 
+   * @param parts waves in time order
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the parts don't share a sampling rate
+   */
+  private static Wave assemble(final List<Wave> parts, final double t1, final double t2) {
+    final Wave first = parts.get(0);
+    final double samplingRate = first.getSamplingRate();
+    for (final Wave part : parts) {
+      if (part.getSamplingRate() != samplingRate) {
+        return null;
+      }
+    }
+
+    // keep samples on the same time grid as the first part
+    final double start = first.getStartTime()
+        + Math.floor((t1 - first.getStartTime()) * samplingRate) / samplingRate;
+    final int length = (int) Math.ceil((t2 - start) * samplingRate);
+    if (length <= 0) {
+      return null;
+    }
+
+    final int[] buffer = new int[length];
+    Arrays.fill(buffer, Wave.NO_DATA);
+    for (final Wave part : parts) {
+      final int offset = (int) Math.round((part.getStartTime() - start) * samplingRate);
+      final int from = Math.max(0, -offset);
+      final int to = Math.min(part.numSamples(), length - offset);
+      if (to > from) {
+        System.arraycopy(part.buffer, from, buffer, offset + from, to - from);
+      }
+    }
+    return new Wave(buffer, start, samplingRate);
+  }
+
   /**
    * Put wave.
    * @param station channel
    * @param wave wave
    */
-  public synchronized void putWave(final String station, final Wave wave) {
-    List<CachedWave> waves = waveCache.get(station);
-    if (waves == null) {
-      waves = new ArrayList<CachedWave>();
-      waveCache.put(station, waves);
-      putWaveInCache(station, wave, waves);
-    } else {
-      for (final CachedWave cw : waves) {
-        boolean join = false;
-        if (cw.wave.adjacent(wave)) {
-          if (cw.wave.getMemorySize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
-            join = true;
-          }
+  public void putWave(final String station, Wave wave) {
+    final Wave original = wave;
+    final TimeIndex<CachedWave> waves = getIndex(waveCache, station, waveSize);
+    synchronized (waves) {
+      int accessCount = 0;
+      CachedWave cw = findJoinableWave(waves, wave);
+      if (cw != null && cw.isContinuedBy(wave)) {
+        // a full segment is left as it is and a new one started
+        if (!cw.append(wave, waves)) {
+          putWaveInCache(station, wave, waves, 0);
         }
-        if (cw.wave.overlaps(wave)) {
-          join = true;
+        cw = null;
+        wave = null;
+      }
+      while (cw != null) {
+        final Wave newWave = cw.getWave().combine(wave);
+        if (newWave == null) {
+          return;
         }
+        waves.remove(cw);
+        accessCount += cw.accessCount;
+        wave = newWave;
+        cw = findJoinableWave(waves, wave);
+      }
 
-        if (join) {
-          final Wave newWave = cw.wave.combine(wave);
-          if (newWave != null) {
-            waves.remove(cw);
-            putWave(station, newWave);
-          }
-          return;
+      if (wave != null) {
+        putWaveInCache(station, wave, waves, accessCount);
+      }
+    }
+    streamRsam(station, original);
+    enforceSize();
+  }
+
+  /**
+   * Fold a wave into its channel's RSAM. A channel's RSAM is kept in one entry, since rows cost
+   * nothing for time with no data.
+   */
+  private void streamRsam(final String station, final Wave wave) {
+    final TimeIndex<StreamedRsam> rsams = getIndex(streamedRsamCache, station, rsamSize);
+    synchronized (rsams) {
+      StreamedRsam merged = null;
+      for (final StreamedRsam sr : new ArrayList<StreamedRsam>(rsams.values())) {
+        rsams.remove(sr);
+        if (merged == null) {
+          merged = sr;
+        } else {
+          merged.store.absorb(sr.store);
+          merged.accessCount += sr.accessCount;
         }
       }
+      if (merged == null) {
+        merged = new StreamedRsam(station);
+      }
 
-      putWaveInCache(station, wave, waves);
+      merged.store.add(wave);
+      merged.t1 = merged.store.getStartTime();
+      merged.t2 = merged.store.getEndTime();
+      if (!Double.isNaN(merged.t1)) {
+        rsams.put(merged);
+      }
+    }
+  }
+
+  /**
+   * Find a cached wave which should be merged with a new wave. Only waves near the new wave are
+   * considered. Caller must hold the index lock.
+   * 
+   * @param waves cached waves for a channel
+   * @param wave new wave
+   * @return cached wave to merge or null if none
+   */
+  private CachedWave findJoinableWave(final TimeIndex<CachedWave> waves, final Wave wave) {
+    final double slop = 2 * wave.getSamplingPeriod();
+    for (final CachedWave cw : waves.getOverlapping(wave.getStartTime() - slop,
+        wave.getEndTime() + slop)) {
+      if (cw.overlaps(wave)) {
+        return cw;
+      }
+      if (cw.adjacent(wave) && cw.getWaveSize() + wave.getMemorySize() < MAX_WAVE_SIZE) {
+        return cw;
+      }
     }
+    return null;
   }
 
   // this version, the one that implements SeismicDataSource, will only
@@ -515,45 +988,58 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
   // side use
   // the version below
   @Override
-  public synchronized HelicorderData getHelicorder(String station, final double startTime,
+  public HelicorderData getHelicorder(final String station, final double startTime,
       final double endTime, final GulperListener gl) {
+    return getHelicorderAtResolution(station, startTime, endTime, 1);
+  }
+
+  /**
+   * Get cached helicorder data with rows as long as possible without exceeding a given number of
+   * seconds. Cached helicorders keep rows of {@link HelicorderStore#RESOLUTIONS} seconds, so a
+   * caller drawing a long span can ask for one row per pixel rather than one per second.
+   *
+   * @param station channel
+   * @param startTime start time
+   * @param endTime end time
+   * @param resolution longest acceptable row, in seconds
+   * @return helicorder data or null if none cached
+   */
+  public HelicorderData getHelicorderAtResolution(String station, final double startTime,
+      final double endTime, final double resolution) {
     station = station.replace(' ', '$');
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicorders(station, startTime, endTime);
+    final TimeIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
+      countLookup(false);
       return null;
     } else {
+      // build results under the lock, helicorders are updated in place
       HelicorderData hd = new HelicorderData();
-      HelicorderData hd2 = null;
-      for (final CachedHelicorder ch : helis) {
+      synchronized (helis) {
+        final CachedHelicorder whole = helis.getContaining(startTime, endTime);
+
         // found the whole thing, just return the needed subset
-        if (startTime >= ch.t1 && endTime <= ch.t2) {
-          hd2 = ch.helicorder.subset(startTime, endTime);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd2;
+        if (whole != null) {
+          whole.touch();
+          countLookup(true);
+          return whole.getHelicorder(startTime, endTime, resolution);
         }
 
-        // just a piece, put it in the result
-        if (startTime <= ch.t1 && endTime >= ch.t2) {
-          hd2 = ch.helicorder;
-        } else if (endTime >= ch.t1 && endTime <= ch.t2) {
-          // cached is right side
-          hd2 = ch.helicorder.subset(ch.t1, endTime);
-        } else if (startTime >= ch.t1 && startTime <= ch.t2) {
-          // cached is left side
-          hd2 = ch.helicorder.subset(startTime, ch.t2);
-        }
+        for (final CachedHelicorder ch : helis.getOverlapping(startTime, endTime)) {
+          final HelicorderData hd2 = ch.getHelicorder(startTime, endTime, resolution);
 
-        // if cached data found
-        if (hd2 != null) {
-          hd.concatenate(hd2);
-          ch.lastAccess = System.currentTimeMillis();
-          hd2 = null;
+          // if cached data found
+          if (hd2 != null) {
+            hd.concatenate(hd2);
+            ch.touch();
+          }
         }
       }
       hd.sort();
       if (hd.getData() == null) {
         hd = null;
       }
+      countLookup(hd != null);
 
       return hd;
     }
@@ -567,255 +1053,464 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
    * @param source data source
    * @return
    */
-  public synchronized HelicorderData getHelicorder(final String station, final double t1,
+  public HelicorderData getHelicorder(final String station, final double t1,
       final double t2, final SeismicDataSource source) {
-    final List<CachedHelicorder> helis = helicorderCache.get(station);
+    loadHelicorders(station, t1, t2);
+    final TimeIndex<CachedHelicorder> helis = helicorderCache.get(station);
     if (helis == null) {
+      countLookup(false);
       return null;
     } else {
-      HelicorderData hd;
-      for (final CachedHelicorder ch : helis) {
+      // take what the cache has under the lock, but don't hold the lock while the source goes
+      // to the network
+      final double c1;
+      final double c2;
+      final HelicorderData cached;
+      synchronized (helis) {
+        final List<CachedHelicorder> overlapping = helis.getOverlapping(t1, t2);
+        countLookup(!overlapping.isEmpty());
+        if (overlapping.isEmpty()) {
+          return null;
+        }
+
+        final CachedHelicorder ch = overlapping.get(0);
+        ch.touch();
+
         // asked for area completely within one cache entry
         if (t1 >= ch.t1 && t2 <= ch.t2) {
-          // System.out.println("totally cached");
-          hd = ch.helicorder.subset(t1, t2);
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
+          return ch.getHelicorder(t1, t2);
         }
 
-        // one entry completely within asked for area
-        if (t1 < ch.t1 && t2 > ch.t2) {
-          // System.out.println("cache is centered chunk");
-          HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-          } else {
-            hd = ch.helicorder;
-          }
-          nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = hd.combine(nhd);
-          }
-          ch.lastAccess = System.currentTimeMillis();
-          return hd;
-        }
+        c1 = ch.t1;
+        c2 = ch.t2;
+        cached = ch.getHelicorder();
+      }
 
-        // asked for area is to left but overlaps
-        if (t1 < ch.t1 && t2 > ch.t1 && t2 <= ch.t2) {
-          // System.out.println("cache overlaps on right side");
-          final HelicorderData nhd = source.getHelicorder(station, t1, ch.t1, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
+      if (cached == null) {
+        return null;
+      }
 
+      HelicorderData hd = cached;
+
+      // asked for area starts before the cache entry
+      if (t1 < c1) {
+        final HelicorderData nhd = source.getHelicorder(station, t1, c1, null);
+        if (nhd != null) {
+          hd = hd.combine(nhd);
         }
+      }
 
-        // asked for area is to right but overlaps
-        if (t1 > ch.t1 && t1 < ch.t2 && t2 > ch.t2) {
-          // System.out.println("cache overlaps on left side");
-          final HelicorderData nhd = source.getHelicorder(station, ch.t2, t2, null);
-          if (nhd != null) {
-            hd = ch.helicorder.combine(nhd);
-            ch.lastAccess = System.currentTimeMillis();
-            return hd;
-          } else {
-            ch.lastAccess = System.currentTimeMillis();
-            return ch.helicorder;
-          }
+      // asked for area ends after the cache entry
+      if (t2 > c2) {
+        final HelicorderData nhd = source.getHelicorder(station, c2, t2, null);
+        if (nhd != null) {
+          hd = hd.combine(nhd);
         }
       }
+      return hd;
     }
-    return null;
   }
 
   private void flushHelicorders() {
-    helicorderCache.clear();// = new HashMap();
-    System.out.println("Helicorder Cache Flushed");
+    clearCache(helicorderCache);
+    LOGGER.info("Helicorder Cache Flushed");
   }
 
   private void flushWaves() {
-    waveCache.clear();// = new HashMap();
-    System.out.println("Wave Cache Flushed");
+    clearCache(waveCache);
+    LOGGER.info("Wave Cache Flushed");
   }
 
-  private <T extends CacheEntry> long outputCache(final String type,
-      final Map<String, List<T>> cache) {
-    long size = 0;
-    System.out.println(type + " cache");
-    for (final String key : cache.keySet()) {
-      System.out.println("\t" + key);
-      final List<T> cwl = cache.get(key);
+  /**
+   * Remove an entry from the cache.
+   * 
+   * @return true if the entry was still cached
+   */
+  @SuppressWarnings("unchecked")
+  private <T extends CacheEntry> boolean removeEntryFromCache(final CacheEntry ce,
+      final Map<String, TimeIndex<T>> cache) {
+    final TimeIndex<T> cl = cache.get(ce.station);
+    if (cl == null) {
+      return false;
+    }
 
-      for (final T ce : cwl) {
-        size += ce.getMemorySize();
-        System.out.println("\t\t" + ce.getInfoString());
-      }
+    final boolean removed;
+    synchronized (cl) {
+      removed = cl.remove((T) ce);
+    }
+    if (removed) {
+      LOGGER.debug("Removed: {}", ce.getInfoString());
     }
-    System.out.println(type + " size: " + size + " bytes");
-    return size;
+    return removed;
   }
 
-  private synchronized <T extends CacheEntry> void removeEntryFromCache(final CacheEntry ce,
-      final Map<String, List<T>> cache) {
-    final List<T> cl = cache.get(ce.station);
-    cl.remove(ce);
-    System.out.println("Removed: " + ce.getInfoString());
+  /**
+   * A cache entry paired with its eviction score at one moment.
+   */
+  private static class ScoredEntry implements Comparable<ScoredEntry> {
+    private final CacheEntry entry;
+    private final double score;
+
+    private ScoredEntry(final CacheEntry entry, final double score) {
+      this.entry = entry;
+      this.score = score;
+    }
+
+    public int compareTo(final ScoredEntry o) {
+      return Double.compare(score, o.score);
+    }
   }
 
-  private class HalveLargeWavesPurgeAction extends CachePurgeAction {
-    private final int maxTime;
-    private final Map<String, List<CachedWave>> cache;
+  protected abstract class CacheEntry implements Comparable<CacheEntry> {
+    public String station;
+    public double t1;
+    public double t2;
+    public volatile long lastAccess;
+    public volatile int accessCount;
 
-    public HalveLargeWavesPurgeAction(final Map<String, List<CachedWave>> c, final int m) {
-      cache = c;
-      maxTime = m;
+    public int compareTo(final CacheEntry oce) {
+      return Long.compare(lastAccess, oce.lastAccess);
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
-
-      long chunk = 0;
-
-      for (final CacheEntry ce : items) {
-        final CachedWave cw = (CachedWave) ce;
-        if (cw.wave.getEndTime() - cw.wave.getStartTime() > maxTime) {
-          final long before = cw.getMemorySize();
-          final double nst =
-              cw.wave.getEndTime() - (cw.wave.getEndTime() - cw.wave.getStartTime()) / 2;
-          cw.wave = cw.wave.subset(nst, cw.wave.getEndTime());
-          cw.t1 = cw.wave.getStartTime();
-          cw.t2 = cw.wave.getEndTime();
-          chunk += cw.getMemorySize() - before;
-        }
-      }
-      return chunk;
+    /**
+     * Record a read of this entry.
+     */
+    public void touch() {
+      lastAccess = System.currentTimeMillis();
+      accessCount++;
     }
+
+    public abstract String getInfoString();
+
+    public abstract int getMemorySize();
+
+    /**
+     * Remove this entry from the cache it lives in.
+     * 
+     * @return true if the entry was still cached
+     */
+    protected abstract boolean removeFromCache();
+
+    /**
+     * Write this entry to the disk tier. Entries which aren't kept on disk do nothing.
+     * 
+     * @param disk disk cache
+     */
+    protected void spill(final DiskCache disk) {}
   }
 
-  private class TimeLimitWavePurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedWave>> cache;
+  /**
+   * A cached wave. Samples are kept either as a plain Wave or compressed off-heap; callers see
+   * Waves either way.
+   */
+  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
+    private final Wave wave;
+    private final CompressedWave compressed;
 
-    public TimeLimitWavePurgeAction(final Map<String, List<CachedWave>> c, final long i) {
-      cache = c;
-      interval = i;
+    /**
+     * Constructor.
+     * 
+     * @param station channel
+     * @param wave wave
+     * @param compress if true store the samples compressed
+     */
+    public CachedWave(final String station, final Wave wave, final boolean compress) {
+      this.station = station;
+      t1 = wave.getStartTime();
+      t2 = wave.getEndTime();
+      if (compress) {
+        this.wave = null;
+        compressed = CompressedWave.compress(wave);
+      } else {
+        this.wave = wave;
+        compressed = null;
+      }
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    /**
+     * Get the whole wave.
+     * 
+     * @return wave
+     */
+    public Wave getWave() {
+      return wave != null ? wave : compressed.decode();
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    /**
+     * Get the part of the wave covering a time span. Uncompressed waves are returned whole.
+     * 
+     * @param t1 start time
+     * @param t2 end time
+     * @return wave or null if it doesn't cover any of the span
+     */
+    public Wave getWave(final double t1, final double t2) {
+      if (wave != null) {
+        return wave.overlaps(t1, t2) ? wave : null;
+      } else {
+        return compressed.decode(t1, t2);
+      }
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Get the stored wave without copying it, if a run of samples is the whole wave.
+     * 
+     * @param from index of first sample
+     * @param count number of samples
+     * @return the shared wave, or null if the run is not the whole wave or it's compressed
+     */
+    public Wave getWaveIfSpans(final int from, final int count) {
+      if (wave != null && from == 0 && count == wave.numSamples()) {
+        return wave;
       }
-      return chunk;
+      return null;
     }
-  }
 
-  private class TimeLimitHelicorderPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedHelicorder>> cache;
+    /**
+     * Get a copy of a run of samples.
+     * 
+     * @param from index of first sample
+     * @param count number of samples
+     * @return samples or null if the run extends past either end
+     */
+    public int[] getSamples(final int from, final int count) {
+      if (compressed != null) {
+        return compressed.decode(from, count);
+      }
+      if (from < 0 || count < 0 || from + count > wave.numSamples()) {
+        return null;
+      }
+      final int[] samples = new int[count];
+      System.arraycopy(wave.buffer, from, samples, 0, count);
+      return samples;
+    }
 
-    public TimeLimitHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c,
-        final long i) {
-      cache = c;
-      interval = i;
+    public double getSamplingRate() {
+      return wave != null ? wave.getSamplingRate() : compressed.getSamplingRate();
     }
 
-    @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public int numSamples() {
+      return wave != null ? wave.numSamples() : compressed.numSamples();
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    /**
+     * Get size of the samples when held as a Wave.
+     * 
+     * @return size in bytes
+     */
+    public int getWaveSize() {
+      return wave != null ? wave.getMemorySize() : compressed.numSamples() * 4;
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
+    /**
+     * Check whether another wave shares any time with this one.
+     * 
+     * @param other other wave
+     * @return true if they overlap
+     */
+    public boolean overlaps(final Wave other) {
+      if (wave != null) {
+        return wave.overlaps(other);
       }
-      return chunk;
+      return other.getStartTime() < t2 && other.getEndTime() > t1;
     }
-  }
 
-  private class TimeLimitRsamPurgeAction extends CachePurgeAction {
-    private final long interval;
-    private final Map<String, List<CachedRsam>> cache;
+    /**
+     * Check whether another wave starts or ends where this one ends or starts.
+     * 
+     * @param other other wave
+     * @return true if they're adjacent
+     */
+    public boolean adjacent(final Wave other) {
+      if (wave != null) {
+        return wave.adjacent(other);
+      }
+      final double period = 1 / compressed.getSamplingRate();
+      return other.getSamplingRate() == compressed.getSamplingRate()
+          && (Math.abs(other.getStartTime() - t2) <= period
+              || Math.abs(other.getEndTime() - t1) <= period);
+    }
 
-    public TimeLimitRsamPurgeAction(final Map<String, List<CachedRsam>> c, final long i) {
-      cache = c;
-      interval = i;
+    /**
+     * Check whether another wave can be appended in place: this wave is compressed and the
+     * other continues it exactly.
+     * 
+     * @param other following wave
+     * @return true if it continues this wave
+     */
+    private boolean isContinuedBy(final Wave other) {
+      return compressed != null && compressed.isContinuedBy(other);
+    }
+
+    /**
+     * Append a wave in place, avoiding a full decode and re-encode. Segments are not grown past
+     * the size at which new waves are split, so eviction never drops a long history at once.
+     * Caller must hold the index lock.
+     * 
+     * @param other following wave
+     * @param index index holding this entry
+     * @return true if the wave was appended, false if it doesn't continue this wave or there is
+     *         no room
+     */
+    private boolean append(final Wave other, final TimeIndex<CachedWave> index) {
+      if (!isContinuedBy(other) || getWaveSize() + other.getMemorySize() > MAX_WAVE_SIZE) {
+        return false;
+      }
+
+      // size changes, so take it out of the index while appending
+      index.remove(this);
+      compressed.append(other);
+      t2 = compressed.getEndTime();
+      index.put(this);
+      return true;
+    }
+
+    @Override
+    public String getInfoString() {
+      final long ms = System.currentTimeMillis() - lastAccess;
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes, " + t1 + " => "
+          + t2;
     }
 
     @Override
-    public long purge() {
-      final List<CacheEntry> items = getEntriesByLastAccess(cache);
+    public int getMemorySize() {
+      return wave != null ? wave.getMemorySize() : compressed.getMemorySize();
+    }
 
-      long chunk = 0;
-      final long now = System.currentTimeMillis();
+    @Override
+    protected boolean removeFromCache() {
+      return removeEntryFromCache(this, waveCache);
+    }
 
-      for (final CacheEntry ce : items) {
-        if (now - ce.lastAccess > interval) {
-          removeEntryFromCache(ce, cache);
-          chunk += ce.getMemorySize();
-        }
-      }
-      return chunk;
+    @Override
+    protected void spill(final DiskCache disk) {
+      disk.putWave(station, getWave());
     }
   }
 
-  protected abstract class CachePurgeAction {
-    public CachePurgeAction() {}
+  /**
+   * A cached helicorder, held as per-second min and max which new data updates in place.
+   */
+  public class CachedHelicorder extends CacheEntry {
+    private final HelicorderStore store;
 
-    public abstract long purge();
-  }
+    /**
+     * Constructor.
+     * 
+     * @param station channel
+     */
+    public CachedHelicorder(final String station) {
+      this.station = station;
+      store = new HelicorderStore();
+    }
 
-  private abstract class CacheEntry implements Comparable<CacheEntry> {
-    public String station;
-    public double t1;
-    public double t2;
-    public long lastAccess;
+    /**
+     * Get all rows.
+     * 
+     * @return helicorder data or null if none
+     */
+    public HelicorderData getHelicorder() {
+      final int before = getMemorySize();
+      return resized(before, store.getHelicorder());
+    }
 
-    public int compareTo(final CacheEntry oce) {
-      return (int) (lastAccess - oce.lastAccess);
+    /**
+     * Get rows for a time span.
+     * 
+     * @param t1 start time
+     * @param t2 end time
+     * @return helicorder data or null if none
+     */
+    public HelicorderData getHelicorder(final double t1, final double t2) {
+      final int before = getMemorySize();
+      return resized(before, store.getHelicorder(t1, t2));
     }
 
-    public abstract String getInfoString();
+    /**
+     * Get rows for a time span at a coarser level.
+     * 
+     * @param t1 start time
+     * @param t2 end time
+     * @param resolution longest acceptable row, in seconds
+     * @return helicorder data or null if none
+     */
+    public HelicorderData getHelicorder(final double t1, final double t2,
+        final double resolution) {
+      final int before = getMemorySize();
+      return resized(before, store.getHelicorder(t1, t2, resolution));
+    }
 
-    public abstract int getMemorySize();
-  }
+    /**
+     * Count any growth of the store while rows were read from it. Call under the channel lock.
+     * 
+     * @param before memory used before the read
+     * @param helicorder rows read
+     * @return rows read
+     */
+    private HelicorderData resized(final int before, final HelicorderData helicorder) {
+      if (getMemorySize() != before) {
+        final TimeIndex<CachedHelicorder> helis = helicorderCache.get(station);
+        if (helis != null) {
+          helis.resized(this, before);
+        }
+      }
+      return helicorder;
+    }
 
-  public class CachedWave extends CacheEntry implements Comparable<CacheEntry> {
-    public Wave wave;
+    @Override
+    public String toString() {
+      return station + " " + t1 + " " + t2;
+    }
 
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + wave.getMemorySize() + " bytes, " + t1 + " => "
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes, " + t1 + " => "
           + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return wave.getMemorySize();
+      return store.getMemorySize();
+    }
+
+    @Override
+    protected boolean removeFromCache() {
+      return removeEntryFromCache(this, helicorderCache);
+    }
+
+    @Override
+    protected void spill(final DiskCache disk) {
+      // entries still in the cache may be updated while they're read
+      final HelicorderData helicorder;
+      final TimeIndex<CachedHelicorder> helis = helicorderCache.get(station);
+      if (helis != null) {
+        synchronized (helis) {
+          helicorder = getHelicorder();
+        }
+      } else {
+        helicorder = getHelicorder();
+      }
+      if (helicorder != null) {
+        disk.putHelicorder(station, helicorder);
+      }
     }
   }
 
-  public class CachedHelicorder extends CacheEntry {
-    public HelicorderData helicorder;
+  /**
+   * RSAM computed from cached waves, updated in place as waves arrive.
+   */
+  public class StreamedRsam extends CacheEntry {
+    private final RsamStore store;
+
+    /**
+     * Constructor.
+     * 
+     * @param station channel
+     */
+    public StreamedRsam(final String station) {
+      this.station = station;
+      store = new RsamStore();
+    }
 
     @Override
     public String toString() {
@@ -825,18 +1520,38 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + helicorder.getMemorySize() + " bytes, " + t1
-          + " => " + t2;
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes, " + t1 + " => "
+          + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return helicorder.getMemorySize();
+      return store.getMemorySize();
+    }
+
+    @Override
+    protected boolean removeFromCache() {
+      return removeEntryFromCache(this, streamedRsamCache);
     }
   }
 
+  /**
+   * RSAM put in the cache for a span at one period. The station is the cache key, which includes
+   * the period.
+   */
   public class CachedRsam extends CacheEntry {
-    public RSAMData rsamData;
+    private final RsamSeries series;
+
+    /**
+     * Constructor.
+     * 
+     * @param channel channel
+     * @param period seconds per row
+     */
+    public CachedRsam(final String channel, final int period) {
+      station = getRsamKey(channel, period);
+      series = new RsamSeries(period);
+    }
 
     @Override
     public String toString() {
@@ -847,82 +1562,30 @@ public abstract class AbstractCachingDataSource extends SeismicDataSource implem
      * Slice.
      * @param t1 start time
      * @param t2 end time
-     * @return RSAM data
+     * @return RSAM data or null if no rows fall in the span
      */
     public RSAMData slice(final double t1, final double t2) {
       if (t1 >= this.t2 || t2 <= this.t1) {
         return null;
       }
-
-      final DoubleMatrix2D d = rsamData.getData();
-      int i = 0;
-
-      int firstRow = Integer.MAX_VALUE;
-      while (firstRow == Integer.MAX_VALUE && i < d.rows()) {
-        final double t = d.getQuick(i, 0);
-        if (t >= t1) {
-          firstRow = i;
-        } else {
-          i++;
-        }
-      }
-
-      int lastRow = -Integer.MAX_VALUE;
-      while (lastRow == -Integer.MAX_VALUE && i < d.rows()) {
-        final double t = d.getQuick(i, 0);
-        if (t >= t2) {
-          lastRow = i;
-        } else {
-          i++;
-        }
-      }
-
-      final RSAMData rd = new RSAMData();
-      rd.setData(d.viewPart(firstRow, 0, lastRow - firstRow, 2).copy());
-
-      return rd;
+      return series.getRsam(t1, t2);
     }
 
     @Override
     public String getInfoString() {
       final long ms = System.currentTimeMillis() - lastAccess;
-      return "[" + ms + "ms] " + (t2 - t1) + "s, " + rsamData.getMemorySize() + " bytes, " + t1
-          + " => " + t2;
+      return "[" + ms + "ms] " + (t2 - t1) + "s, " + getMemorySize() + " bytes, " + t1 + " => "
+          + t2;
     }
 
     @Override
     public int getMemorySize() {
-      return rsamData.getMemorySize();
-    }
-  }
-
-  private class CompleteWavePurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedWave>> cache;
-
-    public CompleteWavePurgeAction(final Map<String, List<CachedWave>> c) {
-      cache = c;
-    }
-
-    @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
-    }
-  }
-
-  private class CompleteHelicorderPurgeAction extends CachePurgeAction {
-    private final Map<String, List<CachedHelicorder>> cache;
-
-    public CompleteHelicorderPurgeAction(final Map<String, List<CachedHelicorder>> c) {
-      cache = c;
+      return series.getMemorySize();
     }
 
     @Override
-    public long purge() {
-      final long size = getSize(cache);
-      cache.clear();// = new HashMap();
-      return size;
+    protected boolean removeFromCache() {
+      return removeEntryFromCache(this, rsamCache);
     }
   }
 }
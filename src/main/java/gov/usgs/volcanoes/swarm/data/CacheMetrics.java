@@ -0,0 +1,166 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A snapshot of cache usage. Totals come from running counters and are cheap; the per-channel
+ * breakdown is gathered when the snapshot is taken.
+ *
+ * @author Tom Parker
+ */
+public class CacheMetrics {
+  private final long maxSize;
+  private final long waveSize;
+  private final long helicorderSize;
+  private final long rsamSize;
+  private final long hits;
+  private final long misses;
+  private final long evictions;
+  private final EvictionPolicy evictionPolicy;
+  private final SortedMap<String, ChannelMetrics> channels;
+
+  CacheMetrics(final long maxSize, final long waveSize, final long helicorderSize,
+      final long rsamSize, final long hits, final long misses, final long evictions,
+      final EvictionPolicy evictionPolicy, final SortedMap<String, ChannelMetrics> channels) {
+    this.maxSize = maxSize;
+    this.waveSize = waveSize;
+    this.helicorderSize = helicorderSize;
+    this.rsamSize = rsamSize;
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.evictionPolicy = evictionPolicy;
+    this.channels = Collections.unmodifiableSortedMap(channels);
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Get total size of all cached data.
+   *
+   * @return size in bytes
+   */
+  public long getSize() {
+    return waveSize + helicorderSize + rsamSize;
+  }
+
+  public long getWaveSize() {
+    return waveSize;
+  }
+
+  public long getHelicorderSize() {
+    return helicorderSize;
+  }
+
+  public long getRsamSize() {
+    return rsamSize;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Get fraction of lookups answered from the cache.
+   *
+   * @return hit rate between 0 and 1, 0 if nothing has been looked up
+   */
+  public double getHitRate() {
+    final long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  public long getEvictions() {
+    return evictions;
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * Get usage by channel.
+   *
+   * @return channel usage keyed and sorted by channel name
+   */
+  public SortedMap<String, ChannelMetrics> getChannels() {
+    return channels;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    sb.append("Cache: ").append(getSize()).append(" of ").append(maxSize).append(" bytes\n");
+    sb.append("\twaves: ").append(waveSize).append(" bytes\n");
+    sb.append("\thelicorders: ").append(helicorderSize).append(" bytes\n");
+    sb.append("\tRSAM: ").append(rsamSize).append(" bytes\n");
+    sb.append("Hits: ").append(hits).append(", misses: ").append(misses).append(", evictions: ")
+        .append(evictions).append(" (").append(evictionPolicy).append(")\n");
+    for (final Map.Entry<String, ChannelMetrics> entry : channels.entrySet()) {
+      sb.append('\t').append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Cache usage of a single channel.
+   */
+  public static class ChannelMetrics {
+    int waveCount;
+    long waveSize;
+    int helicorderCount;
+    long helicorderSize;
+    int rsamCount;
+    long rsamSize;
+
+    public int getWaveCount() {
+      return waveCount;
+    }
+
+    public long getWaveSize() {
+      return waveSize;
+    }
+
+    public int getHelicorderCount() {
+      return helicorderCount;
+    }
+
+    public long getHelicorderSize() {
+      return helicorderSize;
+    }
+
+    public int getRsamCount() {
+      return rsamCount;
+    }
+
+    public long getRsamSize() {
+      return rsamSize;
+    }
+
+    public long getSize() {
+      return waveSize + helicorderSize + rsamSize;
+    }
+
+    @Override
+    public String toString() {
+      return getSize() + " bytes (" + waveCount + " waves " + waveSize + " bytes, "
+          + helicorderCount + " helicorders " + helicorderSize + " bytes, " + rsamCount + " RSAM "
+          + rsamSize + " bytes)";
+    }
+  }
+}
@@ -1,5 +1,9 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import java.io.File;
+
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
 /**
  * An implementation of <code>SeismicDataSource</code> that is used by Swarm to
  * cache all data that it comes across.
@@ -10,6 +14,15 @@ public class CachedDataSource extends AbstractCachingDataSource {
 
 	private CachedDataSource(String name) {
 		super();
+		SwarmConfig config = SwarmConfig.getInstance();
+		setEvictionPolicy(config.cacheEvictionPolicy);
+		setCompressWaves(config.cacheCompression);
+
+		// diskCacheSize is in MB, zero disables the disk tier
+		if (config.diskCacheDir != null && config.diskCacheSize > 0) {
+			setDiskCache(new DiskCache(new File(config.diskCacheDir),
+					config.diskCacheSize * 1024L * 1024L));
+		}
 	}
 
 	private static class CachedDataSourceHolder {
@@ -0,0 +1,257 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.nio.ByteBuffer;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Wave samples compressed as zig-zag variable length deltas. Seismic samples change little from
+ * one to the next, so most take one or two bytes rather than four. Gaps (NO_DATA) survive the
+ * round trip unchanged.
+ *
+ * <p>Samples are held off-heap in a direct buffer, except for short waves which stay on the heap
+ * until appends make them long enough. Direct buffers are costly to allocate and may force a
+ * collection to free native memory, so a wave is compressed into a buffer sized for it up front.
+ *
+ * <p>Samples are coded in blocks which start from an absolute value, so any range can be decoded
+ * without decoding the whole wave. Samples may be appended to the end as they arrive.
+ *
+ * @author Tom Parker
+ */
+public class CompressedWave {
+  /** samples per independently decodable block. */
+  private static final int BLOCK_SIZE = 1024;
+
+  /** longest possible encoding of one sample. */
+  private static final int MAX_SAMPLE_BYTES = 10;
+
+  /** rough size of fields and object headers. */
+  private static final int OVERHEAD = 64;
+
+  /** buffers smaller than this, in bytes, are kept on the heap. */
+  private static final int DIRECT_THRESHOLD = 4096;
+
+  private final double startTime;
+  private final double samplingRate;
+  private ByteBuffer data;
+  private int[] blockOffsets;
+  private int numSamples;
+  private int last;
+
+  private CompressedWave(final double startTime, final double samplingRate,
+      final int capacity, final int blocks) {
+    this.startTime = startTime;
+    this.samplingRate = samplingRate;
+    data = allocate(capacity);
+    blockOffsets = new int[Math.max(blocks, 1)];
+  }
+
+  /**
+   * Compress a wave.
+   *
+   * @param wave wave to compress
+   * @return compressed wave
+   */
+  public static CompressedWave compress(final Wave wave) {
+    final int samples = wave.numSamples();
+    // room for one more sample, so encoding never has to grow the buffer
+    final int capacity = getEncodedSize(wave.buffer, samples) + MAX_SAMPLE_BYTES;
+    final CompressedWave cw = new CompressedWave(wave.getStartTime(), wave.getSamplingRate(),
+        capacity, (samples + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    cw.encode(wave.buffer, samples);
+    return cw;
+  }
+
+  /**
+   * Count the bytes samples take when encoded from the start of a block.
+   */
+  private static int getEncodedSize(final int[] samples, final int count) {
+    int size = 0;
+    int last = 0;
+    for (int i = 0; i < count; i++) {
+      if (i % BLOCK_SIZE == 0) {
+        last = 0;
+      }
+      final long delta = (long) samples[i] - last;
+      long zigzag = (delta << 1) ^ (delta >> 63);
+      size++;
+      while ((zigzag & ~0x7FL) != 0) {
+        size++;
+        zigzag >>>= 7;
+      }
+      last = samples[i];
+    }
+    return size;
+  }
+
+  public double getStartTime() {
+    return startTime;
+  }
+
+  public synchronized double getEndTime() {
+    return startTime + numSamples / samplingRate;
+  }
+
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  public synchronized int numSamples() {
+    return numSamples;
+  }
+
+  /**
+   * Get memory used, on and off heap.
+   *
+   * @return size in bytes
+   */
+  public synchronized int getMemorySize() {
+    return data.capacity() + blockOffsets.length * 4 + OVERHEAD;
+  }
+
+  /**
+   * Check whether a wave picks up exactly where this one ends.
+   *
+   * @param wave following wave
+   * @return true if wave can be appended
+   */
+  public synchronized boolean isContinuedBy(final Wave wave) {
+    return wave.getSamplingRate() == samplingRate
+        && Math.abs(wave.getStartTime() - getEndTime()) < 0.5 / samplingRate;
+  }
+
+  /**
+   * Append a wave which continues this one.
+   *
+   * @param wave following wave
+   * @see #isContinuedBy(Wave)
+   */
+  public synchronized void append(final Wave wave) {
+    encode(wave.buffer, wave.numSamples());
+  }
+
+  /**
+   * Decode all samples.
+   *
+   * @return wave
+   */
+  public synchronized Wave decode() {
+    return new Wave(decode(0, numSamples), startTime, samplingRate);
+  }
+
+  /**
+   * Decode the samples covering a time span, clipped to this wave.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return wave or null if the span misses this wave
+   */
+  public synchronized Wave decode(final double t1, final double t2) {
+    final int from = Math.max(0, (int) Math.floor((t1 - startTime) * samplingRate));
+    final int to = Math.min(numSamples, (int) Math.ceil((t2 - startTime) * samplingRate));
+    if (to <= from) {
+      return null;
+    }
+    return new Wave(decode(from, to - from), startTime + from / samplingRate, samplingRate);
+  }
+
+  /**
+   * Decode a run of samples.
+   *
+   * @param from index of first sample
+   * @param count number of samples
+   * @return samples or null if the run extends past either end
+   */
+  public synchronized int[] decode(final int from, final int count) {
+    if (from < 0 || count < 0 || from + count > numSamples) {
+      return null;
+    }
+
+    final int[] samples = new int[count];
+    if (count == 0) {
+      return samples;
+    }
+    int index = (from / BLOCK_SIZE) * BLOCK_SIZE;
+    int pos = blockOffsets[from / BLOCK_SIZE];
+    long prev = 0;
+    final int end = from + count;
+    while (index < end) {
+      if (index % BLOCK_SIZE == 0) {
+        prev = 0;
+      }
+
+      long zigzag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data.get(pos++);
+        zigzag |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+
+      prev += (zigzag >>> 1) ^ -(zigzag & 1);
+      if (index >= from) {
+        samples[index - from] = (int) prev;
+      }
+      index++;
+    }
+    return samples;
+  }
+
+  private void encode(final int[] samples, final int count) {
+    for (int i = 0; i < count; i++) {
+      if (numSamples % BLOCK_SIZE == 0) {
+        startBlock();
+      }
+      ensureCapacity(MAX_SAMPLE_BYTES);
+
+      final long delta = (long) samples[i] - last;
+      long zigzag = (delta << 1) ^ (delta >> 63);
+      while ((zigzag & ~0x7FL) != 0) {
+        data.put((byte) ((zigzag & 0x7F) | 0x80));
+        zigzag >>>= 7;
+      }
+      data.put((byte) zigzag);
+
+      last = samples[i];
+      numSamples++;
+    }
+  }
+
+  private void startBlock() {
+    final int block = numSamples / BLOCK_SIZE;
+    if (block == blockOffsets.length) {
+      final int[] offsets = new int[blockOffsets.length * 2];
+      System.arraycopy(blockOffsets, 0, offsets, 0, blockOffsets.length);
+      blockOffsets = offsets;
+    }
+    blockOffsets[block] = data.position();
+    last = 0;
+  }
+
+  private void ensureCapacity(final int bytes) {
+    if (data.remaining() >= bytes) {
+      return;
+    }
+    resize(Math.max(data.capacity() * 2, data.position() + bytes));
+  }
+
+  private void resize(final int capacity) {
+    final ByteBuffer resized = allocate(capacity);
+    data.flip();
+    resized.put(data);
+    data = resized;
+  }
+
+  private static ByteBuffer allocate(final int capacity) {
+    final int bytes = Math.max(capacity, MAX_SAMPLE_BYTES);
+    return bytes < DIRECT_THRESHOLD ? ByteBuffer.allocate(bytes)
+        : ByteBuffer.allocateDirect(bytes);
+  }
+}
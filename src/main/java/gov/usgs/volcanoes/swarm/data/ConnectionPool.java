@@ -0,0 +1,349 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of connections to one server. Callers borrow a connection for each request and return
+ * it afterwards, so up to a fixed number of requests may run against the server at once. Data
+ * sources for the same server and connection settings share one pool, taken with {@link #open}
+ * and given back with {@link #close()}; it is dropped when the last is given back.
+ *
+ * <p>Connections which have sat idle too long are closed. One which has been idle longer than the
+ * stale age, if one is set, is replaced rather than lent out again, since the server may have
+ * dropped it without the client noticing, and one whose request failed is closed rather than
+ * returned. After a failure no new
+ * connection is made until a backoff period has passed, which doubles with each further failure.
+ *
+ * @param <T> connection type
+ * @author Tom Parker
+ */
+public class ConnectionPool<T> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+  /** first wait after a failure, in milliseconds. */
+  private static final long MIN_BACKOFF = 1000;
+
+  /** longest wait after repeated failures, in milliseconds. */
+  private static final long MAX_BACKOFF = 60 * 1000;
+
+  /** closes idle connections for all pools. */
+  private static final ScheduledThreadPoolExecutor SWEEPER =
+      new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+          final Thread thread = new Thread(r, "ConnectionPool sweeper");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  static {
+    SWEEPER.setRemoveOnCancelPolicy(true);
+  }
+
+  /** shared pools by key, guarded by itself with each pool's share count. */
+  private static final Map<String, ConnectionPool<?>> SHARED =
+      new HashMap<String, ConnectionPool<?>>();
+
+  /**
+   * Makes and closes connections for a pool.
+   *
+   * @param <T> connection type
+   */
+  public interface Factory<T> {
+    /**
+     * Make a connection.
+     *
+     * @return connection or null if none can be made
+     */
+    T create();
+
+    /**
+     * Close a connection.
+     *
+     * @param connection connection
+     */
+    void close(T connection);
+  }
+
+  private final String name;
+  private final Factory<T> factory;
+  private final int maxSize;
+  private final long idleTimeout;
+  private final long staleAge;
+
+  /** idle connections, most recently used first. */
+  private final Deque<Idle<T>> idle;
+  private final ScheduledFuture<?> sweep;
+  private int size;
+  private long backoff;
+  private long retryAt;
+  private boolean closed;
+
+  /** shares handed out by {@link #open}, guarded by SHARED. */
+  private int shares;
+
+  /**
+   * Constructor. Idle connections are lent out however long they have waited, until they are
+   * closed.
+   *
+   * @param name name used in log messages
+   * @param factory connection factory
+   * @param maxSize most connections open at once
+   * @param idleTimeout idle time after which a connection is closed, in milliseconds
+   */
+  public ConnectionPool(final String name, final Factory<T> factory, final int maxSize,
+      final long idleTimeout) {
+    this(name, factory, maxSize, idleTimeout, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param name name used in log messages
+   * @param factory connection factory
+   * @param maxSize most connections open at once
+   * @param idleTimeout idle time after which a connection is closed, in milliseconds
+   * @param staleAge idle time after which a connection is replaced rather than used, in
+   *        milliseconds, or 0 never to replace one
+   */
+  public ConnectionPool(final String name, final Factory<T> factory, final int maxSize,
+      final long idleTimeout, final long staleAge) {
+    this.name = name;
+    this.factory = factory;
+    this.maxSize = Math.max(1, maxSize);
+    this.idleTimeout = Math.max(1000, idleTimeout);
+    this.staleAge = staleAge;
+    idle = new ArrayDeque<Idle<T>>();
+
+    final long period = this.idleTimeout / 2;
+    sweep = SWEEPER.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        closeExpired();
+      }
+    }, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Take a share of the pool for a key, making the pool if no one else holds one. The factory
+   * and limits are used only if the pool is made, so every holder gets connections made by the
+   * first; the key must name all the settings the factory uses. Give the share back with
+   * {@link #close()}.
+   *
+   * @param <T> connection type
+   * @param key key naming the server and connection settings, unique across connection types
+   * @param factory connection factory
+   * @param maxSize most connections open at once
+   * @param idleTimeout idle time after which a connection is closed, in milliseconds
+   * @param staleAge idle time after which a connection is replaced rather than used, in
+   *        milliseconds, or 0 never to replace one
+   * @return shared pool
+   */
+  public static <T> ConnectionPool<T> open(final String key, final Factory<T> factory,
+      final int maxSize, final long idleTimeout, final long staleAge) {
+    synchronized (SHARED) {
+      @SuppressWarnings("unchecked")
+      ConnectionPool<T> pool = (ConnectionPool<T>) SHARED.get(key);
+      if (pool == null) {
+        pool = new ConnectionPool<T>(key, factory, maxSize, idleTimeout, staleAge);
+        SHARED.put(key, pool);
+      }
+      pool.shares++;
+      return pool;
+    }
+  }
+
+  /**
+   * Borrow a connection, waiting for one to come free if all are in use. Return it with
+   * {@link #release(Object)} or, if its request failed, {@link #invalidate(Object)}.
+   *
+   * @return connection or null if none can be had
+   */
+  public T borrow() {
+    while (true) {
+      final Idle<T> candidate;
+      synchronized (this) {
+        while (idle.isEmpty() && size >= maxSize) {
+          try {
+            wait();
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+          }
+        }
+
+        if (idle.isEmpty()) {
+          if (System.currentTimeMillis() < retryAt) {
+            return null;
+          }
+          size++;
+          candidate = null;
+        } else {
+          candidate = idle.pollFirst();
+        }
+      }
+
+      if (candidate == null) {
+        return create();
+      }
+
+      if (staleAge <= 0 || System.currentTimeMillis() - candidate.since < staleAge) {
+        return candidate.connection;
+      }
+
+      // the server may have dropped it; that is no failure, so replace it without backing off
+      LOGGER.debug("{}: replacing stale connection", name);
+      factory.close(candidate.connection);
+      synchronized (this) {
+        size--;
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Return a borrowed connection.
+   *
+   * @param connection connection
+   */
+  public void release(final T connection) {
+    synchronized (this) {
+      if (!closed) {
+        idle.addFirst(new Idle<T>(connection));
+        notifyAll();
+        return;
+      }
+      size--;
+    }
+    factory.close(connection);
+  }
+
+  /**
+   * Close a borrowed connection whose request failed, and hold off making new ones for a while.
+   *
+   * @param connection connection
+   */
+  public void invalidate(final T connection) {
+    synchronized (this) {
+      size--;
+      failed();
+      notifyAll();
+    }
+    factory.close(connection);
+  }
+
+  /**
+   * Close connections not in use now rather than waiting for them to time out.
+   */
+  public void closeIdle() {
+    final List<Idle<T>> closing;
+    synchronized (this) {
+      closing = new ArrayList<Idle<T>>(idle);
+      size -= idle.size();
+      idle.clear();
+      notifyAll();
+    }
+    for (final Idle<T> i : closing) {
+      factory.close(i.connection);
+    }
+  }
+
+  /**
+   * Give back a share of the pool, or close a pool which was not shared. Once the last share is
+   * back the pool is dropped and its idle connections closed. Anyone still using it may go on
+   * borrowing, but each connection is closed when it is returned.
+   */
+  public void close() {
+    synchronized (SHARED) {
+      if (--shares > 0) {
+        return;
+      }
+      if (SHARED.get(name) == this) {
+        SHARED.remove(name);
+      }
+    }
+
+    synchronized (this) {
+      closed = true;
+    }
+    sweep.cancel(false);
+    closeIdle();
+  }
+
+  private T create() {
+    T connection = null;
+    try {
+      connection = factory.create();
+    } catch (final RuntimeException e) {
+      LOGGER.warn("{}: cannot connect: {}", name, e.getMessage());
+    }
+
+    synchronized (this) {
+      if (connection == null) {
+        size--;
+        failed();
+        notifyAll();
+      } else {
+        backoff = 0;
+        retryAt = 0;
+      }
+    }
+    return connection;
+  }
+
+  /**
+   * Start or lengthen the backoff. Call while synchronized.
+   */
+  private void failed() {
+    backoff = backoff == 0 ? MIN_BACKOFF : Math.min(backoff * 2, MAX_BACKOFF);
+    retryAt = System.currentTimeMillis() + backoff;
+    LOGGER.debug("{}: connection failed, waiting {} ms before reconnecting", name, backoff);
+  }
+
+  private void closeExpired() {
+    final List<T> closing = new ArrayList<T>();
+    synchronized (this) {
+      final long cutoff = System.currentTimeMillis() - idleTimeout;
+      while (!idle.isEmpty() && idle.peekLast().since < cutoff) {
+        closing.add(idle.pollLast().connection);
+        size--;
+      }
+      if (!closing.isEmpty()) {
+        notifyAll();
+      }
+    }
+    for (final T connection : closing) {
+      factory.close(connection);
+    }
+  }
+
+  /**
+   * An idle connection and when it was returned.
+   */
+  private static class Idle<T> {
+    private final T connection;
+    private final long since;
+
+    private Idle(final T connection) {
+      this.connection = connection;
+      since = System.currentTimeMillis();
+    }
+  }
+}
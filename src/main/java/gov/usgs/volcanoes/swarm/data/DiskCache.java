@@ -0,0 +1,523 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * A second cache tier on disk. Waves and helicorders evicted from memory are written here, one
+ * segment file per entry, and are read back in place of a network request. Segments survive
+ * restarts; the index is rebuilt from the file names at startup.
+ *
+ * <p>Tiers are exclusive: a segment read back into memory is removed from disk and will be
+ * written again if it is evicted later. Each segment ends with a CRC32 of its contents, and
+ * segments which fail the check are deleted rather than returned.
+ *
+ * <p>Writes happen on a single background thread. If it falls behind, callers write their own
+ * segments so that evicted data isn't held in memory indefinitely.
+ *
+ * @author Tom Parker
+ */
+public class DiskCache {
+  private static final Logger LOGGER = LoggerFactory.getLogger(DiskCache.class);
+
+  private static final int MAGIC = 0x53574331;
+  private static final byte VERSION = 1;
+  private static final String SUFFIX = ".seg";
+  private static final int HEADER_SIZE = 4 + 1 + 1 + 8 + 8;
+  private static final int CHECKSUM_SIZE = 8;
+  private static final int MAX_PENDING_WRITES = 64;
+
+  /** fraction of maxSize to delete down to. */
+  private static final double LOW_WATER = 0.95;
+
+  private enum Kind {
+    WAVE('W'), HELICORDER('H');
+
+    private final char code;
+
+    private Kind(final char code) {
+      this.code = code;
+    }
+
+    private static Kind fromCode(final char code) {
+      for (final Kind kind : values()) {
+        if (kind.code == code) {
+          return kind;
+        }
+      }
+      return null;
+    }
+  }
+
+  private final File dir;
+  private final long maxSize;
+  private final Map<Kind, Map<String, NavigableMap<Double, Segment>>> index;
+  private final ThreadPoolExecutor writer;
+  private long size;
+
+  /**
+   * Constructor. Indexes any segments already in the directory.
+   *
+   * @param dir cache directory, created if needed
+   * @param maxSize size limit in bytes
+   */
+  public DiskCache(final File dir, final long maxSize) {
+    this.dir = dir;
+    this.maxSize = maxSize;
+
+    index = new TreeMap<Kind, Map<String, NavigableMap<Double, Segment>>>();
+    for (final Kind kind : Kind.values()) {
+      index.put(kind, new TreeMap<String, NavigableMap<Double, Segment>>());
+    }
+
+    writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new LinkedBlockingQueue<Runnable>(MAX_PENDING_WRITES), new ThreadFactory() {
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "DiskCache writer");
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      LOGGER.error("Cannot create disk cache directory {}", dir);
+    }
+    scan();
+    enforceSize();
+    LOGGER.info("Disk cache {} holds {} bytes", dir, size);
+  }
+
+  /**
+   * Store a wave.
+   *
+   * @param channel channel
+   * @param wave wave, which must not be modified afterwards
+   */
+  public void putWave(final String channel, final Wave wave) {
+    writer.execute(new Runnable() {
+      public void run() {
+        final int samples = wave.numSamples();
+        final ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 8 + 4 + samples * 4
+            + CHECKSUM_SIZE);
+        putHeader(buf, Kind.WAVE, wave.getStartTime(), wave.getEndTime());
+        buf.putDouble(wave.getSamplingRate());
+        buf.putInt(samples);
+        buf.asIntBuffer().put(wave.buffer, 0, samples);
+        buf.position(buf.position() + samples * 4);
+        write(Kind.WAVE, channel, wave.getStartTime(), wave.getEndTime(), buf);
+      }
+    });
+  }
+
+  /**
+   * Store a helicorder.
+   *
+   * @param channel channel
+   * @param helicorder helicorder, which must not be modified afterwards
+   */
+  public void putHelicorder(final String channel, final HelicorderData helicorder) {
+    writer.execute(new Runnable() {
+      public void run() {
+        final DoubleMatrix2D data = helicorder.getData();
+        if (data == null || data.rows() == 0) {
+          return;
+        }
+        final int rows = data.rows();
+        final int cols = data.columns();
+        final ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + 4 + 4 + rows * cols * 8
+            + CHECKSUM_SIZE);
+        putHeader(buf, Kind.HELICORDER, helicorder.getStartTime(), helicorder.getEndTime());
+        buf.putInt(rows);
+        buf.putInt(cols);
+        for (int i = 0; i < rows; i++) {
+          for (int j = 0; j < cols; j++) {
+            buf.putDouble(data.getQuick(i, j));
+          }
+        }
+        write(Kind.HELICORDER, channel, helicorder.getStartTime(), helicorder.getEndTime(), buf);
+      }
+    });
+  }
+
+  /**
+   * Remove and return all stored waves which overlap a time span.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return waves in time order, possibly empty
+   */
+  public List<Wave> takeWaves(final String channel, final double t1, final double t2) {
+    final List<Wave> waves = new ArrayList<Wave>();
+    for (final Segment segment : take(Kind.WAVE, channel, t1, t2)) {
+      final ByteBuffer buf = read(segment);
+      if (buf == null) {
+        continue;
+      }
+      final double samplingRate = buf.getDouble();
+      final int[] samples = new int[buf.getInt()];
+      buf.asIntBuffer().get(samples);
+      waves.add(new Wave(samples, segment.t1, samplingRate));
+    }
+    return waves;
+  }
+
+  /**
+   * Remove and return all stored helicorders which overlap a time span.
+   *
+   * @param channel channel
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorders in time order, possibly empty
+   */
+  public List<HelicorderData> takeHelicorders(final String channel, final double t1,
+      final double t2) {
+    final List<HelicorderData> helicorders = new ArrayList<HelicorderData>();
+    for (final Segment segment : take(Kind.HELICORDER, channel, t1, t2)) {
+      final ByteBuffer buf = read(segment);
+      if (buf == null) {
+        continue;
+      }
+      final int rows = buf.getInt();
+      final int cols = buf.getInt();
+      final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, cols);
+      for (int i = 0; i < rows; i++) {
+        for (int j = 0; j < cols; j++) {
+          data.setQuick(i, j, buf.getDouble());
+        }
+      }
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(data);
+      helicorders.add(hd);
+    }
+    return helicorders;
+  }
+
+  /**
+   * Get size of all stored segments.
+   *
+   * @return size in bytes
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Finish pending writes. Segments offered after this are dropped.
+   */
+  public void close() {
+    writer.shutdown();
+    try {
+      writer.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void putHeader(final ByteBuffer buf, final Kind kind, final double t1,
+      final double t2) {
+    buf.putInt(MAGIC);
+    buf.put(VERSION);
+    buf.put((byte) kind.code);
+    buf.putDouble(t1);
+    buf.putDouble(t2);
+  }
+
+  /**
+   * Checksum and write a filled buffer, then index it. Files are written under a temporary name
+   * and renamed, so a crash never leaves a partial segment.
+   */
+  private void write(final Kind kind, final String channel, final double t1, final double t2,
+      final ByteBuffer buf) {
+    final CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, buf.position());
+    buf.putLong(crc.getValue());
+
+    final File channelDir = new File(dir, encode(channel));
+    if (!channelDir.isDirectory() && !channelDir.mkdirs()) {
+      LOGGER.error("Cannot create disk cache directory {}", channelDir);
+      return;
+    }
+
+    final File file = new File(channelDir, fileName(kind, t1, t2));
+    final File tmp = new File(channelDir, file.getName() + ".tmp");
+    FileOutputStream out = null;
+    try {
+      out = new FileOutputStream(tmp);
+      out.write(buf.array(), 0, buf.position());
+      out.close();
+      out = null;
+      if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+        throw new IOException("cannot rename " + tmp);
+      }
+    } catch (final IOException e) {
+      LOGGER.error("Cannot write disk cache segment {}: {}", file, e.getMessage());
+      tmp.delete();
+      return;
+    } finally {
+      if (out != null) {
+        try {
+          out.close();
+        } catch (final IOException ignored) {
+          // nothing to do
+        }
+      }
+    }
+
+    add(new Segment(kind, channel, t1, t2, file, file.length(), System.currentTimeMillis()));
+    enforceSize();
+  }
+
+  /**
+   * Read and validate a segment, deleting it afterwards.
+   *
+   * @return buffer positioned after the header, or null if the segment is unreadable
+   */
+  private ByteBuffer read(final Segment segment) {
+    final byte[] bytes = new byte[(int) segment.file.length()];
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(segment.file));
+      in.readFully(bytes);
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read disk cache segment {}: {}", segment.file, e.getMessage());
+      return null;
+    } finally {
+      if (in != null) {
+        try {
+          in.close();
+        } catch (final IOException ignored) {
+          // nothing to do
+        }
+      }
+      segment.file.delete();
+    }
+
+    if (bytes.length < HEADER_SIZE + CHECKSUM_SIZE) {
+      LOGGER.warn("Discarding truncated disk cache segment {}", segment.file);
+      return null;
+    }
+
+    final ByteBuffer buf = ByteBuffer.wrap(bytes);
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - CHECKSUM_SIZE);
+    if (crc.getValue() != buf.getLong(bytes.length - CHECKSUM_SIZE)) {
+      LOGGER.warn("Discarding corrupt disk cache segment {}", segment.file);
+      return null;
+    }
+
+    if (buf.getInt() != MAGIC || buf.get() != VERSION || buf.get() != segment.kind.code) {
+      LOGGER.warn("Discarding unrecognized disk cache segment {}", segment.file);
+      return null;
+    }
+    buf.getDouble();
+    buf.getDouble();
+    return buf;
+  }
+
+  /**
+   * Remove overlapping segments from the index. The caller reads and deletes their files.
+   */
+  private synchronized List<Segment> take(final Kind kind, final String channel,
+      final double t1, final double t2) {
+    final NavigableMap<Double, Segment> segments = index.get(kind).get(channel);
+    if (segments == null || segments.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final List<Segment> taken = new ArrayList<Segment>();
+    for (final Segment segment : segments.headMap(t2, true).values()) {
+      if (segment.t2 >= t1) {
+        taken.add(segment);
+      }
+    }
+    for (final Segment segment : taken) {
+      segments.remove(segment.t1);
+      size -= segment.size;
+    }
+    return taken;
+  }
+
+  private synchronized void add(final Segment segment) {
+    final Map<String, NavigableMap<Double, Segment>> channels = index.get(segment.kind);
+    NavigableMap<Double, Segment> segments = channels.get(segment.channel);
+    if (segments == null) {
+      segments = new TreeMap<Double, Segment>();
+      channels.put(segment.channel, segments);
+    }
+
+    final Segment replaced = segments.put(segment.t1, segment);
+    if (replaced != null) {
+      size -= replaced.size;
+      if (!replaced.file.equals(segment.file)) {
+        replaced.file.delete();
+      }
+    }
+    size += segment.size;
+  }
+
+  /**
+   * Delete least recently written segments until the cache fits in maxSize.
+   */
+  private synchronized void enforceSize() {
+    if (size <= maxSize) {
+      return;
+    }
+
+    final List<Segment> all = new ArrayList<Segment>();
+    for (final Map<String, NavigableMap<Double, Segment>> channels : index.values()) {
+      for (final NavigableMap<Double, Segment> segments : channels.values()) {
+        all.addAll(segments.values());
+      }
+    }
+    Collections.sort(all, new Comparator<Segment>() {
+      public int compare(final Segment s1, final Segment s2) {
+        return Long.compare(s1.written, s2.written);
+      }
+    });
+
+    final long target = (long) (maxSize * LOW_WATER);
+    for (final Segment segment : all) {
+      if (size <= target) {
+        break;
+      }
+      index.get(segment.kind).get(segment.channel).remove(segment.t1);
+      size -= segment.size;
+      segment.file.delete();
+    }
+  }
+
+  /**
+   * Index segments left by a previous run and remove leftover temporary files.
+   */
+  private void scan() {
+    final File[] channelDirs = dir.listFiles();
+    if (channelDirs == null) {
+      return;
+    }
+
+    for (final File channelDir : channelDirs) {
+      final File[] files = channelDir.listFiles();
+      if (files == null) {
+        continue;
+      }
+      final String channel = decode(channelDir.getName());
+      for (final File file : files) {
+        final Segment segment = parseFileName(channel, file);
+        if (segment == null) {
+          LOGGER.debug("Removing stray disk cache file {}", file);
+          file.delete();
+        } else {
+          add(segment);
+        }
+      }
+    }
+  }
+
+  private static String fileName(final Kind kind, final double t1, final double t2) {
+    return kind.code + "_" + Double.doubleToLongBits(t1) + "_" + Double.doubleToLongBits(t2)
+        + SUFFIX;
+  }
+
+  private static Segment parseFileName(final String channel, final File file) {
+    final String name = file.getName();
+    if (!name.endsWith(SUFFIX)) {
+      return null;
+    }
+
+    final String[] parts = name.substring(0, name.length() - SUFFIX.length()).split("_");
+    if (parts.length != 3 || parts[0].length() != 1) {
+      return null;
+    }
+
+    final Kind kind = Kind.fromCode(parts[0].charAt(0));
+    if (kind == null) {
+      return null;
+    }
+
+    try {
+      final double t1 = Double.longBitsToDouble(Long.parseLong(parts[1]));
+      final double t2 = Double.longBitsToDouble(Long.parseLong(parts[2]));
+      return new Segment(kind, channel, t1, t2, file, file.length(), file.lastModified());
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static String encode(final String channel) {
+    try {
+      return URLEncoder.encode(channel, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String decode(final String name) {
+    try {
+      return URLDecoder.decode(name, "UTF-8");
+    } catch (final UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * A segment file and the span it covers.
+   */
+  private static class Segment {
+    private final Kind kind;
+    private final String channel;
+    private final double t1;
+    private final double t2;
+    private final File file;
+    private final long size;
+    private final long written;
+
+    private Segment(final Kind kind, final String channel, final double t1, final double t2,
+        final File file, final long size, final long written) {
+      this.kind = kind;
+      this.channel = channel;
+      this.t1 = t1;
+      this.t2 = t2;
+      this.file = file;
+      this.size = size;
+      this.written = written;
+    }
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+/**
+ * Policies for choosing which cache entries to evict when the cache is over its size limit. Each
+ * policy scores entries; entries with the lowest score are evicted first.
+ *
+ * @author Tom Parker
+ */
+public enum EvictionPolicy {
+  /** Evict the entry which was used longest ago. */
+  LRU("Least recently used") {
+    @Override
+    public double score(final CacheEntry entry, final long now) {
+      return entry.lastAccess;
+    }
+  },
+
+  /** Evict the entry used the fewest times, breaking ties by least recent use. */
+  LFU("Least frequently used") {
+    @Override
+    public double score(final CacheEntry entry, final long now) {
+      // recency is a fraction in (0, 1] so it only ever breaks ties
+      return entry.accessCount + (double) entry.lastAccess / Math.max(now, 1);
+    }
+  },
+
+  /** Evict large, idle, rarely used entries first. */
+  SIZE_WEIGHTED("Size weighted") {
+    @Override
+    public double score(final CacheEntry entry, final long now) {
+      final double idle = Math.max(now - entry.lastAccess, 0) + 1;
+      return (entry.accessCount + 1) / (idle * Math.max(entry.getMemorySize(), 1));
+    }
+  };
+
+  private final String label;
+
+  private EvictionPolicy(final String label) {
+    this.label = label;
+  }
+
+  /**
+   * Find a policy by name, ignoring case.
+   *
+   * @param name policy name, as in {@link #name()}
+   * @return policy or null if there is none by that name
+   */
+  public static EvictionPolicy parse(final String name) {
+    if (name == null) {
+      return null;
+    }
+    for (final EvictionPolicy policy : values()) {
+      if (policy.name().equalsIgnoreCase(name.trim())) {
+        return policy;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Score an entry for eviction.
+   *
+   * @param entry cache entry
+   * @param now current time in ms
+   * @return score, lowest is evicted first
+   */
+  public abstract double score(CacheEntry entry, long now);
+
+  @Override
+  public String toString() {
+    return label;
+  }
+}
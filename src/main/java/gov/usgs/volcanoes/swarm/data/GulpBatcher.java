@@ -0,0 +1,189 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Merges gulps which arrive together for different channels of one source over about the same
+ * time span into a single call to {@link SeismicDataSource#getWaves(List, double, double)}. The
+ * first gulp to arrive waits briefly for others to join it if any could, then fetches for all of
+ * them while the others wait for its result. Only sources which
+ * {@link SeismicDataSource#canBatchGulps()} are batched.
+ *
+ * @author Tom Parker
+ */
+public class GulpBatcher {
+  private static final Logger LOGGER = LoggerFactory.getLogger(GulpBatcher.class);
+
+  public static final GulpBatcher INSTANCE = new GulpBatcher();
+
+  /** how long the first gulp of a batch waits for others, in milliseconds. */
+  private static final int LINGER = 50;
+
+  /** how much longer than any one gulp the span of a batch may grow. */
+  private static final double STRETCH = 1.1;
+
+  /** batches still accepting gulps, by source. */
+  private final Map<String, List<Batch>> open;
+
+  private GulpBatcher() {
+    open = new HashMap<String, List<Batch>>();
+  }
+
+  /**
+   * Gulp one channel, in company with any other gulps against the same source which arrive at
+   * about the same time. The wave returned may cover a little more than the span asked for.
+   *
+   * @param source data source to fetch with
+   * @param sourceKey key shared by all copies of the source
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param linger if true and this gulp starts a batch, wait briefly for others to join it; pass
+   *        false when no other gulp against the source is queued or running
+   * @return wave or null if the source has none
+   */
+  public Wave getWave(final SeismicDataSource source, final String sourceKey,
+      final String station, final double t1, final double t2, final boolean linger) {
+    Batch batch;
+    int index;
+    boolean leader = false;
+    synchronized (this) {
+      List<Batch> batches = open.get(sourceKey);
+      if (batches == null) {
+        batches = new ArrayList<Batch>();
+        open.put(sourceKey, batches);
+      }
+      batch = null;
+      for (final Batch b : batches) {
+        if (b.accepts(t1, t2)) {
+          batch = b;
+          break;
+        }
+      }
+      if (batch == null) {
+        batch = new Batch();
+        batches.add(batch);
+        leader = true;
+      }
+      index = batch.add(station, t1, t2);
+    }
+
+    if (leader) {
+      if (linger) {
+        try {
+          Thread.sleep(LINGER);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      synchronized (this) {
+        final List<Batch> batches = open.get(sourceKey);
+        batches.remove(batch);
+        if (batches.isEmpty()) {
+          open.remove(sourceKey);
+        }
+      }
+      batch.fetch(source);
+    } else {
+      batch.await();
+    }
+    return batch.getWave(index);
+  }
+
+  /**
+   * Gulps for several channels of one source, fetched together.
+   */
+  private static class Batch {
+    private final List<String> stations;
+    private final CountDownLatch done;
+    private double t1;
+    private double t2;
+    private List<Wave> waves;
+
+    private Batch() {
+      stations = new ArrayList<String>();
+      done = new CountDownLatch(1);
+      t1 = Double.NaN;
+      t2 = Double.NaN;
+    }
+
+    /**
+     * Would the batch still be a reasonable size with a span added?
+     */
+    private boolean accepts(final double start, final double end) {
+      final double span = Math.max(t2 - t1, end - start);
+      return Math.max(t2, end) - Math.min(t1, start) <= span * STRETCH;
+    }
+
+    /**
+     * Add a gulp. Call while synchronized on the batcher.
+     *
+     * @return index of the gulp's wave
+     */
+    private int add(final String station, final double start, final double end) {
+      if (stations.isEmpty()) {
+        t1 = start;
+        t2 = end;
+      } else {
+        t1 = Math.min(t1, start);
+        t2 = Math.max(t2, end);
+      }
+
+      final int index = stations.indexOf(station);
+      if (index != -1) {
+        return index;
+      }
+      stations.add(station);
+      return stations.size() - 1;
+    }
+
+    private void fetch(final SeismicDataSource source) {
+      try {
+        if (stations.size() == 1) {
+          waves = Collections.singletonList(source.getWave(stations.get(0), t1, t2));
+        } else {
+          LOGGER.debug("gulping {} channels together", stations.size());
+          waves = source.getWaves(stations, t1, t2);
+        }
+      } catch (final Throwable e) {
+        LOGGER.error("Exception during batched gulp", e);
+      } finally {
+        done.countDown();
+      }
+    }
+
+    private void await() {
+      boolean interrupted = false;
+      while (done.getCount() > 0) {
+        try {
+          done.await();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    private Wave getWave(final int index) {
+      return waves == null ? null : waves.get(index);
+    }
+  }
+}
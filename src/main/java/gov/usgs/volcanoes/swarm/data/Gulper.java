@@ -3,29 +3,59 @@ package gov.usgs.volcanoes.swarm.data;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 
 /**
+ * Fills the cache for a channel by walking backward from the most recent data one gulp at a time.
+ * Gulps are run by the {@link GulperList}, which shares a bounded pool of threads among all
+ * gulpers.
+ *
+ * <p>Up to {@link SeismicDataSource#getGulpConcurrency()} gulps may be in flight at once, each
+ * with its own copy of the source unless the source {@link SeismicDataSource#isShared()}, in
+ * which case they all use it. Whichever order they complete in, listeners hear about them
+ * newest first, so a helicorder fills from the top down. Gulps against sources which can fetch
+ * many channels at once are merged with those of other gulpers by the {@link GulpBatcher}.
  *
  * @author Dan Cervelli
  */
-public class Gulper implements Runnable {
+public class Gulper {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(Gulper.class);
 
   private final SeismicDataSource gulpSource;
   private final GulperList gulperList;
   private final String channel;
-  private double lastTime;
-  private double goalTime;
-  private Thread thread;
+  private volatile double lastTime;
+  private volatile double goalTime;
+  private volatile boolean alive;
   private final String key;
   private final Set<GulperListener> listeners;
 
+  /** sources not in use by a gulp, guarded by this gulper. */
+  private final Deque<SeismicDataSource> idleSources;
+
+  /** copies of the source made for gulps run side by side. */
+  private final List<SeismicDataSource> sourceCopies;
+
+  /** next gulp in the walk back, guarded by this gulper with lastTime and goalTime. */
+  private long nextGulp;
+
+  /** guards started, nextToFire and completed, and orders listener calls. */
+  private final Object fireLock;
+  private boolean started;
+  private long nextToFire;
+  private final SortedMap<Long, Gulp> completed;
+
   private final int gulpSize;
   private final int gulpDelay;
 
@@ -47,7 +77,12 @@ public class Gulper implements Runnable {
     gulperList = gl;
     gulpSource = source;
     key = k;
-    listeners = new HashSet<GulperListener>();
+    listeners = new CopyOnWriteArraySet<GulperListener>();
+    idleSources = new ArrayDeque<SeismicDataSource>();
+    idleSources.add(source);
+    sourceCopies = new ArrayList<SeismicDataSource>();
+    fireLock = new Object();
+    completed = new TreeMap<Long, Gulp>();
     channel = ch;
     lastTime = t2;
 
@@ -82,11 +117,11 @@ public class Gulper implements Runnable {
     start();
   }
 
-  public synchronized void addListener(final GulperListener gl) {
+  public void addListener(final GulperListener gl) {
     listeners.add(gl);
   }
 
-  public synchronized void removeListener(final GulperListener gl) {
+  public void removeListener(final GulperListener gl) {
     listeners.remove(gl);
   }
 
@@ -99,15 +134,62 @@ public class Gulper implements Runnable {
   }
 
   /**
-   * Kill this gulper.
+   * Get the key which gulps against the same source share for their concurrency limit.
+   *
+   * @return source key
+   */
+  public String getSourceKey() {
+    return gulpSource.getName();
+  }
+
+  /**
+   * Get the start of the most recent gulp still to do.
+   *
+   * @return end time of the next gulp
+   */
+  public double getLastTime() {
+    return lastTime;
+  }
+
+  /**
+   * Get the number of gulps this gulper may have in flight at once.
+   *
+   * @return concurrent gulps
+   */
+  public int getConcurrency() {
+    return Math.max(1, gulpSource.getGulpConcurrency());
+  }
+
+  /**
+   * Get the pause between gulps.
+   *
+   * @return delay in milliseconds
+   */
+  public int getDelay() {
+    return gulpDelay;
+  }
+
+  /**
+   * Determine if any listener is showing its data.
+   *
+   * @return true if a listener is visible
+   */
+  public boolean isVisible() {
+    for (final GulperListener listener : listeners) {
+      if (listener.isVisible()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Kill this gulper. A queued gulp is dropped; a running one finishes first.
    */
   protected void kill() {
-    // use local copy to ensure it isn't changed elsewhere,
-    // no need to lock since OK to have multiple calls to Thread.interrupt
-    final Thread t = thread;
-    if (t != null) {
-      thread = null;
-      t.interrupt();
+    if (alive) {
+      alive = false;
+      gulperList.cancel(this);
     }
   }
 
@@ -117,23 +199,31 @@ public class Gulper implements Runnable {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return thread == null;
+    return !alive;
   }
 
   public void kill(final GulperListener gl) {
     removeListener(gl);
-    if (listeners.size() == 0) {
+    if (listeners.isEmpty()) {
       kill();
     }
   }
 
+  /**
+   * Queue the first gulp, unless every listener has already gone.
+   */
   public void start() {
-    thread = new Thread(this);
-    thread.start();
+    if (listeners.isEmpty()) {
+      // killed by its last listener before it was started
+      finish();
+      return;
+    }
+    alive = true;
+    gulperList.start(this);
     LOGGER.debug("gulper started for {}", channel);
   }
 
-  public void update(final double t1, final double t2) {
+  public synchronized void update(final double t1, final double t2) {
     final CachedDataSource cache = CachedDataSource.getInstance();
     if (t2 < lastTime)
       lastTime = t2;
@@ -146,30 +236,149 @@ public class Gulper implements Runnable {
     }
   }
 
-  protected synchronized void fireStarted() {
+  protected void fireStarted() {
     for (final GulperListener listener : listeners)
       listener.gulperStarted();
   }
 
-  protected synchronized void fireGulped(final double t1, final double t2, final Wave w) {
+  protected void fireGulped(final double t1, final double t2, final Wave w) {
     fireGulped(t1, t2, w != null && !isKilled());
   }
 
-  protected synchronized void fireGulped(final double t1, final double t2, final boolean success) {
+  protected void fireGulped(final double t1, final double t2, final boolean success) {
     for (final GulperListener listener : listeners)
       listener.gulperGulped(t1, t2, success);
   }
 
-  protected synchronized void fireStopped() {
+  protected void fireStopped() {
     final boolean killed = isKilled();
     for (final GulperListener listener : listeners)
       listener.gulperStopped(killed);
   }
 
-  public void run() {
-    fireStarted();
-    runLoop();
-    gulpSource.close();
+  /**
+   * Do one gulp, telling listeners first if it is the first. Called by the {@link GulperList} on
+   * one of its threads.
+   *
+   * @return true if there is more to do
+   */
+  final boolean step() {
+    synchronized (fireLock) {
+      if (!started) {
+        started = true;
+        fireStarted();
+      }
+    }
+    return gulp();
+  }
+
+  /**
+   * Do one gulp. This is what a subclass may override.
+   *
+   * @return true if there is more to do
+   */
+  protected boolean gulp() {
+    final Gulp gulp = nextGulp();
+    if (gulp == null) {
+      return false;
+    }
+
+    final SeismicDataSource source = acquireSource();
+    try {
+      final Wave wave;
+      if (source.canBatchGulps()) {
+        wave = GulpBatcher.INSTANCE.getWave(source, getSourceKey(), channel, gulp.t1, gulp.t2,
+            gulperList.hasCompany(this));
+      } else {
+        wave = source.getWave(channel, gulp.t1, gulp.t2);
+      }
+      gulp.success = wave != null;
+    } catch (final Throwable e) {
+      LOGGER.error("Exception during gulp", e);
+    } finally {
+      releaseSource(source);
+    }
+    gulped(gulp);
+    return hasMore();
+  }
+
+  /**
+   * Claim the most recent span not yet gulped, skipping spans already in the cache.
+   *
+   * @return gulp or null if there is nothing left to do
+   */
+  private synchronized Gulp nextGulp() {
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    while (lastTime > goalTime && !isKilled()
+        && cache.inHelicorderCache(channel, lastTime - gulpSize, lastTime)) {
+      lastTime -= gulpSize;
+      lastTime += 10;
+    }
+    if (!hasMore()) {
+      return null;
+    }
+
+    final Gulp gulp = new Gulp(nextGulp++, lastTime - gulpSize, lastTime);
+    lastTime -= gulpSize;
+    lastTime += 10;
+    return gulp;
+  }
+
+  private boolean hasMore() {
+    return lastTime > goalTime && !isKilled();
+  }
+
+  /**
+   * Tell listeners about every gulp which is complete and newer than any still in flight.
+   *
+   * @param gulp completed gulp
+   */
+  private void gulped(final Gulp gulp) {
+    synchronized (fireLock) {
+      completed.put(gulp.sequence, gulp);
+      Gulp next;
+      while ((next = completed.remove(nextToFire)) != null) {
+        nextToFire++;
+        fireGulped(next.t1, next.t2, next.success && !isKilled());
+      }
+    }
+  }
+
+  private synchronized SeismicDataSource acquireSource() {
+    if (gulpSource.isShared()) {
+      return gulpSource;
+    }
+
+    SeismicDataSource source = idleSources.poll();
+    if (source == null) {
+      source = gulpSource.getCopy();
+      sourceCopies.add(source);
+    }
+    return source;
+  }
+
+  private synchronized void releaseSource(final SeismicDataSource source) {
+    if (!gulpSource.isShared()) {
+      idleSources.push(source);
+    }
+  }
+
+  /**
+   * Release the source, unless it is shared, and tell listeners this gulper is done. Called by the
+   * {@link GulperList} once no gulp is queued or running.
+   */
+  protected void finish() {
+    if (!gulpSource.isShared()) {
+      gulpSource.close();
+    }
+    synchronized (this) {
+      for (final SeismicDataSource copy : sourceCopies) {
+        if (copy != gulpSource) {
+          copy.close();
+        }
+      }
+      sourceCopies.clear();
+    }
     if (isKilled())
       LOGGER.debug("gulper killed");
     else
@@ -179,30 +388,19 @@ public class Gulper implements Runnable {
   }
 
   /**
-   * This is the run loop which a subclass may override.
+   * One span of a gulper's walk back in time.
    */
-  protected void runLoop() {
-    while (lastTime > goalTime && !isKilled()) {
-      try {
-        final double t1 = lastTime - gulpSize;
-        final double t2 = lastTime;
-        final Wave w = gulpSource.getWave(channel, t1, t2);
-        fireGulped(t1, t2, w);
-        update(goalTime, lastTime - gulpSize + 10);
-      } catch (final Throwable e) {
-        System.err.println("Exception during gulp:");
-        e.printStackTrace();
-      }
-      delay();
-    }
-  }
+  private static class Gulp {
+    private final long sequence;
+    private final double t1;
+    private final double t2;
+    private boolean success;
 
-  protected void delay() {
-    if (!isKilled())
-      try {
-        Thread.sleep(gulpDelay);
-      } catch (final InterruptedException ignore) {
-      }
+    private Gulp(final long sequence, final double t1, final double t2) {
+      this.sequence = sequence;
+      this.t1 = t1;
+      this.t2 = t2;
+    }
   }
 
   @Override
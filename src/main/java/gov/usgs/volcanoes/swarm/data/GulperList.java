@@ -1,38 +1,134 @@
 package gov.usgs.volcanoes.swarm.data;
 
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Keeps track of running gulpers and runs their gulps on a shared pool of threads. At most
+ * {@link SwarmConfig#gulperThreads} gulps run at once, and at most
+ * {@link SwarmConfig#gulperSourceThreads} of those against any one data source. When a thread
+ * comes free the next gulp is chosen from gulpers feeding visible frames first, then from those
+ * working on the most recent data. A gulper may have several gulps queued, waiting or running at
+ * once; it is finished when the last of them is.
  *
  * @author Dan Cervelli
  */
 public class GulperList {
-  public final static GulperList INSTANCE = new GulperList();
+  public static final GulperList INSTANCE = new GulperList();
+
+  /** how long an idle gulp thread waits before exiting, in seconds. */
+  private static final int KEEP_ALIVE = 30;
+
+  private final Map<String, Gulper> gulpers;
+
+  /** gulps queued, waiting or running, by gulper. */
+  private final Map<Gulper, Integer> live;
+
+  /** gulps waiting for a thread, one entry per gulp. */
+  private final List<Gulper> ready;
+
+  /** gulps waiting out their delay. */
+  private final List<DelayedGulp> waiting;
 
-  private Map<String, Gulper> gulpers;
+  /** running gulps by source. */
+  private final Map<String, Integer> running;
+  private int runningCount;
+
+  private final int maxThreads;
+  private final int maxSourceThreads;
+  private final ThreadPoolExecutor workers;
+  private final ScheduledThreadPoolExecutor timer;
 
   private GulperList() {
+    this(SwarmConfig.getInstance().gulperThreads, SwarmConfig.getInstance().gulperSourceThreads);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param maxThreads most gulps run at once
+   * @param maxSourceThreads most gulps run at once against one source
+   */
+  GulperList(final int maxThreads, final int maxSourceThreads) {
+    this.maxThreads = Math.max(1, maxThreads);
+    this.maxSourceThreads = Math.max(1, maxSourceThreads);
     gulpers = new HashMap<String, Gulper>();
+    live = new HashMap<Gulper, Integer>();
+    ready = new ArrayList<Gulper>();
+    waiting = new ArrayList<DelayedGulp>();
+    running = new HashMap<String, Integer>();
+
+    workers = new ThreadPoolExecutor(this.maxThreads, this.maxThreads, KEEP_ALIVE,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Gulper");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    workers.allowCoreThreadTimeOut(true);
+
+    timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "Gulper timer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    timer.setRemoveOnCancelPolicy(true);
   }
 
-  public synchronized Gulper requestGulper(String key, GulperListener gl, SeismicDataSource source,
+  /**
+   * Get the gulper for a key, making and starting one if there is none, and add a listener to it.
+   * A span shorter than one gulp is fetched directly instead of by a new gulper. Fetching and
+   * bringing the gulper up to date are done outside this list's lock, so gulps can be dispatched
+   * and retired meanwhile.
+   *
+   * @param key gulper key
+   * @param gl listener
+   * @param source data source
+   * @param ch channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param size gulp size in seconds
+   * @param delay pause between gulps in milliseconds
+   * @return gulper, or null if the span was fetched directly
+   */
+  public Gulper requestGulper(String key, GulperListener gl, SeismicDataSource source,
       String ch, double t1, double t2, int size, int delay) {
-    Gulper g = gulpers.get(key);
-    if (g != null) {
-      g.addListener(gl);
-      g.update(t1, t2);
-    } else {
-      if (t2 - t1 < size) {
-        source.getWave(ch, t1, t2);
-      } else {
+    Gulper g;
+    boolean created = false;
+    synchronized (this) {
+      g = gulpers.get(key);
+      if (g == null && t2 - t1 >= size) {
         g = source.createGulper(this, key, ch, t1, t2, size, delay);
-        g.addListener(gl);
-        g.update(t1, t2);
-        g.start();
         gulpers.put(key, g);
+        created = true;
+      }
+      if (g != null) {
+        g.addListener(gl);
       }
     }
+
+    if (g == null) {
+      source.getWave(ch, t1, t2);
+      return null;
+    }
+    g.update(t1, t2);
+    if (created) {
+      g.start();
+    }
     return g;
   }
 
@@ -47,6 +143,212 @@ public class GulperList {
    * @param g
    */
   public synchronized void removeGulper(Gulper g) {
-    gulpers.remove(g.getKey());
+    if (gulpers.get(g.getKey()) == g) {
+      gulpers.remove(g.getKey());
+    }
+  }
+
+  /**
+   * Queue a gulper's first gulps to run as soon as threads are free. Called from the gulper.
+   *
+   * @param g gulper
+   */
+  void start(final Gulper g) {
+    synchronized (this) {
+      final int count = g.getConcurrency();
+      live.put(g, count);
+      for (int i = 0; i < count; i++) {
+        ready.add(g);
+      }
+    }
+    dispatch();
+  }
+
+  /**
+   * Drop any queued gulps for a gulper which has been killed. Called from the gulper.
+   *
+   * @param g gulper
+   */
+  void cancel(final Gulper g) {
+    boolean finished;
+    synchronized (this) {
+      int dropped = 0;
+      while (ready.remove(g)) {
+        dropped++;
+      }
+
+      final Iterator<DelayedGulp> it = waiting.iterator();
+      while (it.hasNext()) {
+        final DelayedGulp delayed = it.next();
+        if (delayed.gulper == g) {
+          it.remove();
+          delayed.future.cancel(false);
+          dropped++;
+        }
+      }
+      finished = retire(g, dropped);
+    }
+
+    // running gulps finish the gulper themselves when they return
+    if (finished) {
+      g.finish();
+    }
+  }
+
+  /**
+   * Start as many ready gulps as the thread limits allow.
+   */
+  private void dispatch() {
+    synchronized (this) {
+      while (runningCount < maxThreads) {
+        final Gulper g = nextGulper();
+        if (g == null) {
+          return;
+        }
+
+        ready.remove(g);
+        final String source = g.getSourceKey();
+        running.put(source, getRunning(source) + 1);
+        runningCount++;
+        workers.execute(new Runnable() {
+          public void run() {
+            boolean more = false;
+            try {
+              more = g.step();
+            } finally {
+              gulped(g, more);
+            }
+          }
+        });
+      }
+    }
+  }
+
+  /**
+   * Choose the most urgent ready gulper whose source is below its limit.
+   *
+   * @return gulper or null if none may run now
+   */
+  private Gulper nextGulper() {
+    Gulper best = null;
+    boolean bestVisible = false;
+    for (final Gulper g : ready) {
+      if (getRunning(g.getSourceKey()) >= maxSourceThreads) {
+        continue;
+      }
+
+      final boolean visible = g.isVisible();
+      if (best == null || (visible && !bestVisible)
+          || (visible == bestVisible && g.getLastTime() > best.getLastTime())) {
+        best = g;
+        bestVisible = visible;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Could another gulp against a running gulp's source join it in a batch? Only if another is
+   * running, or one is ready and the source has a thread to spare for it.
+   *
+   * @param g gulper whose gulp is running
+   * @return true if another gulp against the source is running or about to run
+   */
+  synchronized boolean hasCompany(final Gulper g) {
+    final String source = g.getSourceKey();
+    final int count = getRunning(source);
+    if (count > 1) {
+      return true;
+    }
+    if (count >= maxSourceThreads) {
+      return false;
+    }
+    for (final Gulper other : ready) {
+      if (source.equals(other.getSourceKey())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int getRunning(final String source) {
+    final Integer count = running.get(source);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Account for a finished gulp and queue another after the gulper's delay.
+   *
+   * @param g gulper
+   * @param more true if the gulper has more to do
+   */
+  private void gulped(final Gulper g, final boolean more) {
+    boolean finished = false;
+    synchronized (this) {
+      final String source = g.getSourceKey();
+      final int count = getRunning(source) - 1;
+      if (count > 0) {
+        running.put(source, count);
+      } else {
+        running.remove(source);
+      }
+      runningCount--;
+
+      if (more && !g.isKilled()) {
+        final DelayedGulp delayed = new DelayedGulp(g);
+        waiting.add(delayed);
+        delayed.future = timer.schedule(delayed, g.getDelay(), TimeUnit.MILLISECONDS);
+      } else {
+        finished = retire(g, 1);
+      }
+    }
+
+    if (finished) {
+      g.finish();
+    }
+    dispatch();
+  }
+
+  /**
+   * Forget some of a gulper's gulps. Call while synchronized.
+   *
+   * @param g gulper
+   * @param count number of gulps which are done
+   * @return true if the gulper has no gulps left
+   */
+  private boolean retire(final Gulper g, final int count) {
+    final Integer remaining = live.get(g);
+    if (count == 0 || remaining == null) {
+      return false;
+    }
+    if (remaining > count) {
+      live.put(g, remaining - count);
+      return false;
+    }
+    live.remove(g);
+    return true;
+  }
+
+  /**
+   * A gulp waiting out its gulper's delay.
+   */
+  private class DelayedGulp implements Runnable {
+    private final Gulper gulper;
+    private Future<?> future;
+
+    private DelayedGulp(final Gulper gulper) {
+      this.gulper = gulper;
+    }
+
+    public void run() {
+      synchronized (GulperList.this) {
+        // cancelled gulps have already been removed
+        if (!waiting.remove(this)) {
+          return;
+        }
+        ready.add(gulper);
+      }
+      dispatch();
+    }
   }
 }
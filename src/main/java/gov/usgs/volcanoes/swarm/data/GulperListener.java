@@ -9,4 +9,11 @@ public interface GulperListener
 	public void gulperStarted();
 	public void gulperStopped(boolean killed);
 	public void gulperGulped(double t1, double t2, boolean success);
+
+	/**
+	 * Is this listener showing its data? Gulpers feeding visible listeners are run first.
+	 *
+	 * @return true if visible
+	 */
+	public boolean isVisible();
 }
@@ -0,0 +1,416 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Per-second min/max values for a continuous span of one channel, updated in place. Seconds are
+ * held in fixed-size chunks of primitive arrays keyed on absolute time, so new data costs time in
+ * proportion to its own length no matter how long the span has grown, and the span can grow in
+ * either direction. HelicorderData is built only when asked for.
+ *
+ * <p>Coarser levels of 10, 60 and 600 second min/max are kept alongside the one second level and
+ * updated with it, so long spans can be drawn from a few rows rather than one per second.
+ *
+ * <p>Each level keeps the matrix it last built and brings it up to date on the next request, so
+ * a view which is redrawn as data arrives costs time in proportion to the new rows. Spans are
+ * found in it by binary search and returned as views rather than copies. Rows already handed out
+ * are never moved, although their min and max may widen as more samples arrive for them.
+ *
+ * <p>Not thread safe; the helicorder cache guards each store with its channel lock.
+ *
+ * @author Tom Parker
+ */
+public class HelicorderStore {
+  /** seconds per row at each level, finest first. */
+  public static final int[] RESOLUTIONS = new int[] {1, 10, 60, 600};
+
+  /** rows per chunk. */
+  private static final int CHUNK_ROWS = 600;
+
+  /** rough size of a chunk's array and map entry. */
+  private static final int CHUNK_SIZE = CHUNK_ROWS * 2 * 8 + 48;
+
+  /** rough size of fields and object headers. */
+  private static final int OVERHEAD = 64;
+
+  /** rows to allow for when a level's matrix is first built. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final Level[] levels;
+  private double startTime;
+  private double endTime;
+
+  /**
+   * Constructor.
+   */
+  public HelicorderStore() {
+    levels = new Level[RESOLUTIONS.length];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new Level(RESOLUTIONS[i]);
+    }
+    startTime = Double.NaN;
+    endTime = Double.NaN;
+  }
+
+  /**
+   * Get start of the span this store covers.
+   *
+   * @return start time, NaN if empty
+   */
+  public double getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Get end of the span this store covers.
+   *
+   * @return end time, NaN if empty
+   */
+  public double getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Get number of seconds which have data.
+   *
+   * @return row count
+   */
+  public int rows() {
+    return levels[0].rows;
+  }
+
+  /**
+   * Get memory used by all levels.
+   *
+   * @return size in bytes
+   */
+  public int getMemorySize() {
+    int chunks = 0;
+    int built = 0;
+    for (final Level level : levels) {
+      chunks += level.chunks.size();
+      built += level.built == null ? 0 : level.built.rows() * 3 * 8;
+    }
+    return chunks * CHUNK_SIZE + built + OVERHEAD;
+  }
+
+  /**
+   * Add helicorder rows, keeping the widest min and max for any second already held.
+   *
+   * @param helicorder helicorder data
+   */
+  public void add(final HelicorderData helicorder) {
+    final DoubleMatrix2D data = helicorder.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
+
+    for (int i = 0; i < data.rows(); i++) {
+      update((long) Math.floor(data.getQuick(i, 0)), data.getQuick(i, 1), data.getQuick(i, 2));
+    }
+    extend(helicorder.getStartTime(), helicorder.getEndTime());
+  }
+
+  /**
+   * Fold samples into per-second min and max.
+   *
+   * @param wave wave
+   */
+  public void add(final Wave wave) {
+    final double start = wave.getStartTime();
+    final double samplingRate = wave.getSamplingRate();
+    final int samples = wave.numSamples();
+
+    long second = Long.MIN_VALUE;
+    double min = 0;
+    double max = 0;
+    boolean haveSample = false;
+    for (int i = 0; i < samples; i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA) {
+        continue;
+      }
+
+      final long s = (long) Math.floor(start + i / samplingRate);
+      if (s != second) {
+        if (haveSample) {
+          update(second, min, max);
+        }
+        second = s;
+        min = sample;
+        max = sample;
+        haveSample = true;
+      } else {
+        min = Math.min(min, sample);
+        max = Math.max(max, sample);
+      }
+    }
+    if (haveSample) {
+      update(second, min, max);
+    }
+    extend(wave.getStartTime(), wave.getEndTime());
+  }
+
+  /**
+   * Move everything from another store into this one. The other store must not be used
+   * afterwards.
+   *
+   * @param other store to absorb
+   */
+  public void absorb(final HelicorderStore other) {
+    for (int i = 0; i < levels.length; i++) {
+      levels[i].absorb(other.levels[i]);
+    }
+    extend(other.startTime, other.endTime);
+  }
+
+  /**
+   * Get all one second rows.
+   *
+   * @return helicorder data or null if there are no rows
+   */
+  public HelicorderData getHelicorder() {
+    return getHelicorder(startTime, endTime);
+  }
+
+  /**
+   * Get one second rows which share any time with a time span. The rows are a view which must
+   * only be read.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return helicorder data or null if there are no rows in the span
+   */
+  public HelicorderData getHelicorder(final double t1, final double t2) {
+    return levels[0].getHelicorder(t1, t2);
+  }
+
+  /**
+   * Get the coarsest rows no longer than a given number of seconds which share any time with a
+   * time span. The rows are a view which must only be read.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param resolution longest acceptable row, in seconds
+   * @return helicorder data or null if there are no rows in the span
+   */
+  public HelicorderData getHelicorder(final double t1, final double t2,
+      final double resolution) {
+    return levels[getLevel(resolution)].getHelicorder(t1, t2);
+  }
+
+  /**
+   * Get the coarsest level with rows no longer than a given number of seconds.
+   *
+   * @param resolution longest acceptable row, in seconds
+   * @return index into {@link #RESOLUTIONS}
+   */
+  public static int getLevel(final double resolution) {
+    int level = 0;
+    while (level + 1 < RESOLUTIONS.length && RESOLUTIONS[level + 1] <= resolution) {
+      level++;
+    }
+    return level;
+  }
+
+  private void update(final long second, final double min, final double max) {
+    for (final Level level : levels) {
+      level.update(floorDiv(second, level.seconds), min, max);
+    }
+  }
+
+  private void extend(final double t1, final double t2) {
+    if (Double.isNaN(startTime) || t1 < startTime) {
+      startTime = t1;
+    }
+    if (Double.isNaN(endTime) || t2 > endTime) {
+      endTime = t2;
+    }
+  }
+
+  private static long floorDiv(final long x, final long y) {
+    return x >= 0 ? x / y : (x + 1) / y - 1;
+  }
+
+  private static int countRows(final double[] chunk, final int from, final int to) {
+    int count = 0;
+    for (int i = from; i <= to; i++) {
+      if (!Double.isNaN(chunk[i * 2])) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Min and max for rows of a fixed number of seconds.
+   */
+  private static class Level {
+    private final int seconds;
+
+    /** interleaved min and max by row, NaN where no data. */
+    private final NavigableMap<Long, double[]> chunks;
+    private int rows;
+
+    /** time, min and max of every row with data, as last built; spare rows at the end. */
+    private DoubleMatrix2D built;
+    private int builtRows;
+
+    /** first row changed since the matrix was built. */
+    private long dirtyFrom;
+
+    private Level(final int seconds) {
+      this.seconds = seconds;
+      chunks = new TreeMap<Long, double[]>();
+      dirtyFrom = Long.MAX_VALUE;
+    }
+
+    private void update(final long row, final double min, final double max) {
+      dirtyFrom = Math.min(dirtyFrom, row);
+
+      final long index = floorDiv(row, CHUNK_ROWS);
+      double[] chunk = chunks.get(index);
+      if (chunk == null) {
+        chunk = new double[CHUNK_ROWS * 2];
+        Arrays.fill(chunk, Double.NaN);
+        chunks.put(index, chunk);
+      }
+
+      final int i = (int) (row - index * CHUNK_ROWS) * 2;
+      if (Double.isNaN(chunk[i])) {
+        chunk[i] = min;
+        chunk[i + 1] = max;
+        rows++;
+      } else {
+        chunk[i] = Math.min(chunk[i], min);
+        chunk[i + 1] = Math.max(chunk[i + 1], max);
+      }
+    }
+
+    private void absorb(final Level other) {
+      built = null;
+      for (final Map.Entry<Long, double[]> entry : other.chunks.entrySet()) {
+        final double[] mine = chunks.get(entry.getKey());
+        if (mine == null) {
+          chunks.put(entry.getKey(), entry.getValue());
+          rows += countRows(entry.getValue(), 0, CHUNK_ROWS - 1);
+          continue;
+        }
+
+        final long base = entry.getKey() * CHUNK_ROWS;
+        final double[] theirs = entry.getValue();
+        for (int i = 0; i < CHUNK_ROWS; i++) {
+          if (!Double.isNaN(theirs[i * 2])) {
+            update(base + i, theirs[i * 2], theirs[i * 2 + 1]);
+          }
+        }
+      }
+    }
+
+    private HelicorderData getHelicorder(final double t1, final double t2) {
+      if (chunks.isEmpty() || Double.isNaN(t1) || Double.isNaN(t2) || t2 < t1) {
+        return null;
+      }
+
+      refresh();
+      final long first = floorDiv((long) Math.floor(t1), seconds);
+      final long last = floorDiv((long) Math.floor(t2), seconds);
+      final int from = RowIndex.lowerBound(built, builtRows, first * seconds);
+      final int to = RowIndex.upperBound(built, builtRows, last * seconds);
+      if (to <= from) {
+        return null;
+      }
+
+      final HelicorderData hd = new HelicorderData();
+      hd.setData(built.viewPart(from, 0, to - from, 3));
+      return hd;
+    }
+
+    /**
+     * Bring the built matrix up to date. Rows changed in place are overwritten and new rows after
+     * the last are appended; a row new to the middle means building the matrix again.
+     */
+    private void refresh() {
+      if (built == null) {
+        build();
+        return;
+      }
+      if (dirtyFrom == Long.MAX_VALUE) {
+        return;
+      }
+
+      int index = RowIndex.lowerBound(built, builtRows, dirtyFrom * seconds);
+      final NavigableMap<Long, double[]> span =
+          chunks.tailMap(floorDiv(dirtyFrom, CHUNK_ROWS), true);
+      for (final Map.Entry<Long, double[]> entry : span.entrySet()) {
+        final long base = entry.getKey() * CHUNK_ROWS;
+        final double[] chunk = entry.getValue();
+        for (int i = (int) Math.max(0, dirtyFrom - base); i < CHUNK_ROWS; i++) {
+          if (Double.isNaN(chunk[i * 2])) {
+            continue;
+          }
+
+          final double time = (base + i) * seconds;
+          if (index < builtRows && built.getQuick(index, 0) != time) {
+            build();
+            return;
+          }
+          if (index == builtRows) {
+            ensureCapacity(builtRows + 1);
+            builtRows++;
+          }
+          built.setQuick(index, 0, time);
+          built.setQuick(index, 1, chunk[i * 2]);
+          built.setQuick(index, 2, chunk[i * 2 + 1]);
+          index++;
+        }
+      }
+      dirtyFrom = Long.MAX_VALUE;
+    }
+
+    /**
+     * Build the matrix from every row, into new storage so views already handed out are left
+     * alone.
+     */
+    private void build() {
+      built = DoubleFactory2D.dense.make(Math.max(INITIAL_CAPACITY, rows + rows / 2), 3);
+      builtRows = 0;
+      for (final Map.Entry<Long, double[]> entry : chunks.entrySet()) {
+        final long base = entry.getKey() * CHUNK_ROWS;
+        final double[] chunk = entry.getValue();
+        for (int i = 0; i < CHUNK_ROWS; i++) {
+          if (!Double.isNaN(chunk[i * 2])) {
+            built.setQuick(builtRows, 0, (base + i) * seconds);
+            built.setQuick(builtRows, 1, chunk[i * 2]);
+            built.setQuick(builtRows, 2, chunk[i * 2 + 1]);
+            builtRows++;
+          }
+        }
+      }
+      dirtyFrom = Long.MAX_VALUE;
+    }
+
+    private void ensureCapacity(final int capacity) {
+      if (capacity > built.rows()) {
+        final DoubleMatrix2D grown =
+            DoubleFactory2D.dense.make(Math.max(capacity, built.rows() * 2), 3);
+        grown.viewPart(0, 0, builtRows, 3).assign(built.viewPart(0, 0, builtRows, 3));
+        built = grown;
+      }
+    }
+  }
+}
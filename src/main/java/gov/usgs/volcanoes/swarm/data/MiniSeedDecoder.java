@@ -0,0 +1,424 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.IOException;
+import java.util.Date;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+
+/**
+ * Decodes miniSEED data records straight from their bytes. Header and blockette fields are read
+ * in place, start times are worked out arithmetically and samples are decoded into an array the
+ * caller supplies, so decoding a record allocates nothing but its channel names.
+ *
+ * <p>Steim1, Steim2, 16 bit and 32 bit integer records are decoded; anything else is reported as
+ * unsupported so the caller can fall back to a general decoder.
+ *
+ * <p>Not thread safe; each reading thread should have its own decoder.
+ *
+ * @author Tom Parker
+ */
+public class MiniSeedDecoder {
+  /** length of the fixed section of data header. */
+  public static final int HEADER_LENGTH = 48;
+
+  /** J2K time of the Unix epoch. */
+  private static final double J2K_EPOCH = J2kSec.fromDate(new Date(0));
+
+  /** days from 0001-01-01 to 1970-01-01, less the leap days before 1970. */
+  private static final long LEAP_DAYS_BEFORE_1970 = 1969 / 4 - 1969 / 100 + 1969 / 400;
+
+  private static final int ENCODING_INT16 = 1;
+  private static final int ENCODING_INT32 = 3;
+  private static final int ENCODING_STEIM1 = 10;
+  private static final int ENCODING_STEIM2 = 11;
+
+  private static final int FRAME_LENGTH = 64;
+
+  /** powers of two allowed for a record length. */
+  private static final int MIN_LENGTH_POWER = 7;
+  private static final int MAX_LENGTH_POWER = 16;
+
+  private byte[] record;
+  private int offset;
+  private boolean swapHeader;
+  private boolean swapData;
+  private int encoding;
+  private int recordLength;
+  private int sampleCount;
+  private int dataOffset;
+  private double samplingRate;
+  private double startTime;
+
+  /**
+   * Read the header of a record. The record must not change until its samples are decoded.
+   *
+   * @param bytes record bytes
+   * @param off offset of the record
+   * @param length bytes available from the offset
+   * @return true if the record holds samples this decoder can decode
+   */
+  public boolean read(final byte[] bytes, final int off, final int length) {
+    record = bytes;
+    offset = off;
+    sampleCount = 0;
+    if (length < HEADER_LENGTH || !isDataQuality(bytes[off + 6])) {
+      return false;
+    }
+
+    swapHeader = isHeaderSwapped();
+
+    sampleCount = readUnsignedShort(30, swapHeader);
+    samplingRate = getSampleRate(readShort(32, swapHeader), readShort(34, swapHeader));
+    dataOffset = readUnsignedShort(44, swapHeader);
+    encoding = -1;
+    swapData = swapHeader;
+    recordLength = length;
+    int microseconds = 0;
+
+    // blockettes
+    int next = readUnsignedShort(46, swapHeader);
+    int count = bytes[off + 39] & 0xff;
+    while (next >= HEADER_LENGTH && next + 4 <= length && count-- > 0) {
+      final int type = readUnsignedShort(next, swapHeader);
+      if (type == 1000 && next + 7 <= length) {
+        encoding = bytes[off + next + 4];
+        swapData = bytes[off + next + 5] == 0;
+        recordLength = Math.min(length, 1 << bytes[off + next + 6]);
+      } else if (type == 1001 && next + 6 <= length) {
+        microseconds = bytes[off + next + 5];
+      } else if (type == 100 && next + 8 <= length) {
+        samplingRate = Float.intBitsToFloat(readInt(next + 4, swapHeader));
+      }
+      final int following = readUnsignedShort(next + 2, swapHeader);
+      next = following > next ? following : 0;
+    }
+
+    startTime = getStartTime(swapHeader) + microseconds / 1e6;
+    return sampleCount > 0 && samplingRate > 0 && dataOffset >= HEADER_LENGTH
+        && dataOffset < recordLength && isSupported(encoding);
+  }
+
+  /**
+   * Find the length of a record from its blockette 1000, looking no further than the bytes
+   * available, so a reader of a stream knows how many more bytes to read. The record last read
+   * is forgotten.
+   *
+   * @param bytes start of the record
+   * @param off offset of the record
+   * @param length bytes available from the offset
+   * @return length in bytes, or 0 if no blockette 1000 with a sensible length is within the bytes
+   *         available
+   */
+  public int readRecordLength(final byte[] bytes, final int off, final int length) {
+    record = bytes;
+    offset = off;
+    sampleCount = 0;
+    if (length < HEADER_LENGTH) {
+      return 0;
+    }
+
+    final boolean swap = isHeaderSwapped();
+    int next = readUnsignedShort(46, swap);
+    int count = bytes[off + 39] & 0xff;
+    while (next >= HEADER_LENGTH && next + 7 <= length && count-- > 0) {
+      if (readUnsignedShort(next, swap) == 1000) {
+        final int power = bytes[off + next + 6];
+        return power < MIN_LENGTH_POWER || power > MAX_LENGTH_POWER ? 0 : 1 << power;
+      }
+      final int following = readUnsignedShort(next + 2, swap);
+      next = following > next ? following : 0;
+    }
+    return 0;
+  }
+
+  /**
+   * Decode the samples of the record last read.
+   *
+   * @param dest array to decode into, with room for {@link #getSampleCount()} samples from the
+   *        index
+   * @param index where in the array to put the first sample
+   * @return number of samples decoded
+   * @throws IOException if the samples are corrupt
+   */
+  public int decode(final int[] dest, final int index) throws IOException {
+    switch (encoding) {
+      case ENCODING_STEIM1:
+        return decodeSteim(dest, index, false);
+      case ENCODING_STEIM2:
+        return decodeSteim(dest, index, true);
+      case ENCODING_INT16:
+        return decodeInts(dest, index, 2);
+      case ENCODING_INT32:
+        return decodeInts(dest, index, 4);
+      default:
+        throw new IOException("unsupported encoding " + encoding);
+    }
+  }
+
+  /**
+   * Decode the record last read into a new wave.
+   *
+   * @return wave
+   * @throws IOException if the samples are corrupt
+   */
+  public Wave toWave() throws IOException {
+    final Wave wave = new Wave();
+    wave.buffer = new int[sampleCount];
+    decode(wave.buffer, 0);
+    wave.setSamplingRate(samplingRate);
+    wave.setStartTime(startTime);
+    wave.register();
+    return wave;
+  }
+
+  /**
+   * Get the station of the record last read.
+   *
+   * @return station
+   */
+  public String getStation() {
+    return readString(8, 5);
+  }
+
+  /**
+   * Get the location of the record last read.
+   *
+   * @return location, empty if blank
+   */
+  public String getLocation() {
+    return readString(13, 2);
+  }
+
+  /**
+   * Get the channel of the record last read.
+   *
+   * @return channel
+   */
+  public String getChannel() {
+    return readString(15, 3);
+  }
+
+  /**
+   * Get the network of the record last read.
+   *
+   * @return network
+   */
+  public String getNetwork() {
+    return readString(18, 2);
+  }
+
+  /**
+   * Get the start time of the record last read.
+   *
+   * @return J2K start time
+   */
+  public double getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * Get the sampling rate of the record last read.
+   *
+   * @return samples per second
+   */
+  public double getSamplingRate() {
+    return samplingRate;
+  }
+
+  /**
+   * Get the number of samples in the record last read.
+   *
+   * @return sample count
+   */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  /**
+   * Get the length of the record last read.
+   *
+   * @return length in bytes
+   */
+  public int getRecordLength() {
+    return recordLength;
+  }
+
+  /**
+   * Decode Steim1 or Steim2 frames. Each sample is the previous one plus the next difference;
+   * the first is the forward integration constant of the first frame.
+   */
+  private int decodeSteim(final int[] dest, final int index, final boolean steim2)
+      throws IOException {
+    final int frames = (recordLength - dataOffset) / FRAME_LENGTH;
+    int n = 0;
+    int last = 0;
+    for (int f = 0; f < frames && n < sampleCount; f++) {
+      final int frame = dataOffset + f * FRAME_LENGTH;
+      final int nibbles = readInt(frame, swapData);
+      for (int w = 1; w < 16 && n < sampleCount; w++) {
+        final int word = readInt(frame + w * 4, swapData);
+        if (f == 0 && w < 3) {
+          if (w == 1) {
+            last = word;
+          }
+          continue;
+        }
+
+        final int nibble = (nibbles >>> (30 - w * 2)) & 0x3;
+        if (nibble == 0) {
+          continue;
+        }
+
+        final int bits;
+        final int diffs;
+        if (nibble == 1) {
+          bits = 8;
+          diffs = 4;
+        } else if (!steim2) {
+          bits = nibble == 2 ? 16 : 32;
+          diffs = nibble == 2 ? 2 : 1;
+        } else {
+          final int dnib = word >>> 30;
+          if (nibble == 2) {
+            if (dnib == 0) {
+              throw new IOException("bad Steim2 difference code");
+            }
+            bits = 30 / dnib;
+            diffs = dnib;
+          } else {
+            if (dnib == 3) {
+              throw new IOException("bad Steim2 difference code");
+            }
+            bits = 6 - dnib;
+            diffs = 5 + dnib;
+          }
+        }
+
+        for (int d = 0; d < diffs && n < sampleCount; d++) {
+          final int shift = (diffs - 1 - d) * bits;
+          final int diff = bits == 32 ? word : (word << (32 - bits - shift)) >> (32 - bits);
+          if (n == 0) {
+            // the first difference is from the last sample of the previous record
+            dest[index] = last;
+          } else {
+            last += diff;
+            dest[index + n] = last;
+          }
+          n++;
+        }
+      }
+    }
+    if (n < sampleCount) {
+      throw new IOException("record holds " + n + " of " + sampleCount + " samples");
+    }
+    return n;
+  }
+
+  /**
+   * Decode uncompressed integers.
+   */
+  private int decodeInts(final int[] dest, final int index, final int size) throws IOException {
+    if (dataOffset + sampleCount * size > recordLength) {
+      throw new IOException("record too short for " + sampleCount + " samples");
+    }
+    for (int i = 0; i < sampleCount; i++) {
+      final int at = dataOffset + i * size;
+      dest[index + i] = size == 2 ? readShort(at, swapData) : readInt(at, swapData);
+    }
+    return sampleCount;
+  }
+
+  /**
+   * The year is between 1900 and 2100 when the header is read in the right order.
+   */
+  private boolean isHeaderSwapped() {
+    final int year = readShort(20, false);
+    return year < 1900 || year > 2100;
+  }
+
+  /**
+   * Get the start time from the header, with any time correction not yet applied.
+   */
+  private double getStartTime(final boolean swap) {
+    final int year = readUnsignedShort(20, swap);
+    final int day = readUnsignedShort(22, swap);
+    final int hour = record[offset + 24] & 0xff;
+    final int minute = record[offset + 25] & 0xff;
+    final int second = record[offset + 26] & 0xff;
+    final int tenthMillis = readUnsignedShort(28, swap);
+
+    final long y = year - 1;
+    final long days = 365L * (year - 1970) + (y / 4 - y / 100 + y / 400) - LEAP_DAYS_BEFORE_1970
+        + day - 1;
+    double t = days * 86400 + hour * 3600 + minute * 60 + second + tenthMillis / 10000.0;
+
+    // correction not yet applied unless bit 1 of activity flags is set
+    if ((record[offset + 36] & 0x02) == 0) {
+      t += readInt(40, swap) / 10000.0;
+    }
+    return t + J2K_EPOCH;
+  }
+
+  /*
+   * taken from Robert Casey's PDCC seed code.
+   */
+  private static double getSampleRate(final double factor, final double multiplier) {
+    if (factor * multiplier == 0) {
+      return 0;
+    }
+    return Math.pow(Math.abs(factor), factor / Math.abs(factor))
+        * Math.pow(Math.abs(multiplier), multiplier / Math.abs(multiplier));
+  }
+
+  private static boolean isDataQuality(final byte b) {
+    return b == 'D' || b == 'R' || b == 'Q' || b == 'M';
+  }
+
+  private static boolean isSupported(final int encoding) {
+    return encoding == ENCODING_STEIM1 || encoding == ENCODING_STEIM2
+        || encoding == ENCODING_INT16 || encoding == ENCODING_INT32;
+  }
+
+  private String readString(final int at, final int length) {
+    int start = offset + at;
+    int end = start + length;
+    while (start < end && record[start] == ' ') {
+      start++;
+    }
+    while (end > start && record[end - 1] == ' ') {
+      end--;
+    }
+    final char[] chars = new char[end - start];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (record[start + i] & 0xff);
+    }
+    return new String(chars);
+  }
+
+  private int readUnsignedShort(final int at, final boolean swap) {
+    return readShort(at, swap) & 0xffff;
+  }
+
+  private int readShort(final int at, final boolean swap) {
+    final int b0 = record[offset + at] & 0xff;
+    final int b1 = record[offset + at + 1] & 0xff;
+    return (short) (swap ? (b1 << 8) | b0 : (b0 << 8) | b1);
+  }
+
+  private int readInt(final int at, final boolean swap) {
+    final int i = offset + at;
+    final int b0 = record[i] & 0xff;
+    final int b1 = record[i + 1] & 0xff;
+    final int b2 = record[i + 2] & 0xff;
+    final int b3 = record[i + 3] & 0xff;
+    return swap ? (b3 << 24) | (b2 << 16) | (b1 << 8) | b0
+        : (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+  }
+}
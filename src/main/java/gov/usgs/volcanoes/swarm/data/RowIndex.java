@@ -0,0 +1,82 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Binary search over matrices whose first column holds times in ascending order, as helicorder
+ * and RSAM data do.
+ *
+ * @author Tom Parker
+ */
+public final class RowIndex {
+
+  private RowIndex() {}
+
+  /**
+   * Find the first row at or after a time.
+   *
+   * @param data matrix with times in column 0
+   * @param rows number of rows to search
+   * @param t time
+   * @return row index, rows if none
+   */
+  public static int lowerBound(final DoubleMatrix2D data, final int rows, final double t) {
+    int lo = 0;
+    int hi = rows;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (data.getQuick(mid, 0) < t) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Find the first row after a time.
+   *
+   * @param data matrix with times in column 0
+   * @param rows number of rows to search
+   * @param t time
+   * @return row index, rows if none
+   */
+  public static int upperBound(final DoubleMatrix2D data, final int rows, final double t) {
+    int lo = 0;
+    int hi = rows;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (data.getQuick(mid, 0) <= t) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Get a view of the rows with times from t1 to t2 inclusive. The view shares storage with the
+   * matrix, so it must only be read.
+   *
+   * @param data matrix with times in column 0
+   * @param t1 start time
+   * @param t2 end time
+   * @return view or null if no rows fall in the span
+   */
+  public static DoubleMatrix2D view(final DoubleMatrix2D data, final double t1, final double t2) {
+    final int from = lowerBound(data, data.rows(), t1);
+    final int to = upperBound(data, data.rows(), t2);
+    if (to <= from) {
+      return null;
+    }
+    return data.viewPart(from, 0, to - from, data.columns());
+  }
+}
@@ -0,0 +1,184 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.RSAMData;
+
+/**
+ * RSAM rows at one period held as a matrix of times and values in time order, with spare rows at
+ * the end. Rows which continue the series, or replace its last few rows for the same times, are
+ * written in place in amortized time proportional to their number; the matrix grows by doubling.
+ * Anything else is spliced into new storage. Row bounds for a time span are found by binary
+ * search and the span is returned as a view.
+ *
+ * <p>Rows already handed out in a view never move or change time, although their values may be
+ * replaced by fresher ones.
+ *
+ * <p>Not thread safe; the cache guards each series with its channel lock.
+ *
+ * @author Tom Parker
+ */
+public class RsamSeries {
+  /** rows to allow for at first. */
+  private static final int INITIAL_CAPACITY = 64;
+
+  /** rough size of fields and object headers. */
+  private static final int OVERHEAD = 64;
+
+  private final int period;
+  private DoubleMatrix2D rows;
+  private int size;
+
+  /**
+   * Constructor.
+   *
+   * @param period seconds per row
+   */
+  public RsamSeries(final int period) {
+    this.period = period;
+    rows = DoubleFactory2D.dense.make(INITIAL_CAPACITY, 2);
+  }
+
+  /**
+   * Get seconds per row.
+   *
+   * @return period
+   */
+  public int getPeriod() {
+    return period;
+  }
+
+  /**
+   * Get number of rows.
+   *
+   * @return row count
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get time of the first row.
+   *
+   * @return time or NaN if there are no rows
+   */
+  public double getFirstTime() {
+    return size == 0 ? Double.NaN : rows.getQuick(0, 0);
+  }
+
+  /**
+   * Get time of the last row.
+   *
+   * @return time or NaN if there are no rows
+   */
+  public double getLastTime() {
+    return size == 0 ? Double.NaN : rows.getQuick(size - 1, 0);
+  }
+
+  /**
+   * Get memory used by the matrix.
+   *
+   * @return size in bytes
+   */
+  public int getMemorySize() {
+    return rows.rows() * 16 + OVERHEAD;
+  }
+
+  /**
+   * Add rows, replacing any held for the times they cover.
+   *
+   * @param rsam RSAM rows in time order
+   */
+  public void put(final RSAMData rsam) {
+    final DoubleMatrix2D data = rsam.getData();
+    if (data == null || data.rows() == 0) {
+      return;
+    }
+    put(data, data.rows());
+  }
+
+  /**
+   * Move every row of another series at the same period into this one, replacing any held for
+   * the times it covers.
+   *
+   * @param other series to absorb
+   */
+  public void absorb(final RsamSeries other) {
+    put(other.rows, other.size);
+  }
+
+  /**
+   * Add rows, replacing any held for the times they cover.
+   */
+  private void put(final DoubleMatrix2D data, final int count) {
+    if (count == 0) {
+      return;
+    }
+
+    final int from = RowIndex.lowerBound(rows, size, data.getQuick(0, 0));
+    final int to = RowIndex.upperBound(rows, size, data.getQuick(count - 1, 0));
+    if (to == size && sameTimes(data, from, Math.min(count, size - from))) {
+      // continues the series or refreshes its tail
+      ensureCapacity(from + count);
+      rows.viewPart(from, 0, count, 2).assign(data.viewPart(0, 0, count, 2));
+      size = Math.max(size, from + count);
+      return;
+    }
+
+    final int tail = size - to;
+    final int length = from + count + tail;
+    final DoubleMatrix2D spliced =
+        DoubleFactory2D.dense.make(Math.max(INITIAL_CAPACITY, length + length / 2), 2);
+    spliced.viewPart(0, 0, from, 2).assign(rows.viewPart(0, 0, from, 2));
+    spliced.viewPart(from, 0, count, 2).assign(data.viewPart(0, 0, count, 2));
+    spliced.viewPart(from + count, 0, tail, 2).assign(rows.viewPart(to, 0, tail, 2));
+    rows = spliced;
+    size = length;
+  }
+
+  /**
+   * Do the first rows of some data fall at the same times as rows held from an index?
+   */
+  private boolean sameTimes(final DoubleMatrix2D data, final int from, final int count) {
+    for (int i = 0; i < count; i++) {
+      if (data.getQuick(i, 0) != rows.getQuick(from + i, 0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get rows with times in a span. The rows are a view which must only be read.
+   *
+   * @param t1 start time, inclusive
+   * @param t2 end time, exclusive
+   * @return RSAM or null if no rows fall in the span
+   */
+  public RSAMData getRsam(final double t1, final double t2) {
+    final int from = RowIndex.lowerBound(rows, size, t1);
+    final int to = RowIndex.lowerBound(rows, size, t2);
+    if (to <= from) {
+      return null;
+    }
+
+    final RSAMData rsam = new RSAMData();
+    rsam.setData(rows.viewPart(from, 0, to - from, 2));
+    return rsam;
+  }
+
+  private void ensureCapacity(final int capacity) {
+    if (capacity > rows.rows()) {
+      final DoubleMatrix2D grown =
+          DoubleFactory2D.dense.make(Math.max(capacity, rows.rows() * 2), 2);
+      grown.viewPart(0, 0, size, 2).assign(rows.viewPart(0, 0, size, 2));
+      rows = grown;
+    }
+  }
+}
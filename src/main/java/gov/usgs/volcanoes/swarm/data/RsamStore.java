@@ -0,0 +1,376 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.RSAMData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * RSAM computed from samples as they arrive. Each sample's absolute difference from a running
+ * mean is summed into rows of 10, 60, 600 and 3600 seconds, so new data costs time in proportion
+ * to its own length and RSAM for any period which is a multiple of 10 seconds is the sum over a
+ * few rows divided by their sample count.
+ *
+ * <p>Spans already folded in are remembered, and samples which fall in them are skipped, so data
+ * seen twice is counted once.
+ *
+ * <p>Not thread safe; the cache guards each store with its channel lock.
+ *
+ * @author Tom Parker
+ */
+public class RsamStore {
+  /** seconds per row at each level, finest first. Each divides the next. */
+  public static final int[] RESOLUTIONS = new int[] {10, 60, 600, 3600};
+
+  /** seconds over which the running mean follows the signal. */
+  private static final double OFFSET_SECONDS = 60;
+
+  /** rows per chunk. */
+  private static final int CHUNK_ROWS = 360;
+
+  /** rough size of a chunk's array and map entry. */
+  private static final int CHUNK_SIZE = CHUNK_ROWS * 2 * 8 + 48;
+
+  /** rough size of a remembered span. */
+  private static final int SPAN_SIZE = 64;
+
+  /** rough size of fields and object headers. */
+  private static final int OVERHEAD = 64;
+
+  private final Level[] levels;
+
+  /** spans already folded in, start to end, neither overlapping nor touching. */
+  private final NavigableMap<Double, Double> covered;
+  private double offset;
+  private boolean haveOffset;
+
+  /**
+   * Constructor.
+   */
+  public RsamStore() {
+    levels = new Level[RESOLUTIONS.length];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = new Level(RESOLUTIONS[i]);
+    }
+    covered = new TreeMap<Double, Double>();
+  }
+
+  /**
+   * Get start of the span this store covers.
+   *
+   * @return start time, NaN if empty
+   */
+  public double getStartTime() {
+    return covered.isEmpty() ? Double.NaN : covered.firstKey();
+  }
+
+  /**
+   * Get end of the span this store covers.
+   *
+   * @return end time, NaN if empty
+   */
+  public double getEndTime() {
+    return covered.isEmpty() ? Double.NaN : covered.lastEntry().getValue();
+  }
+
+  /**
+   * Get memory used by all levels.
+   *
+   * @return size in bytes
+   */
+  public int getMemorySize() {
+    int chunks = 0;
+    for (final Level level : levels) {
+      chunks += level.chunks.size();
+    }
+    return chunks * CHUNK_SIZE + covered.size() * SPAN_SIZE + OVERHEAD;
+  }
+
+  /**
+   * Fold in the samples of a wave which fall outside spans already seen.
+   *
+   * @param wave wave
+   */
+  public void add(final Wave wave) {
+    final double start = wave.getStartTime();
+    final double end = wave.getEndTime();
+    final double samplingRate = wave.getSamplingRate();
+    final int samples = wave.numSamples();
+    if (samples == 0 || end <= start) {
+      return;
+    }
+
+    if (!haveOffset) {
+      offset = mean(wave);
+      haveOffset = true;
+    }
+
+    double from = start;
+    for (final double[] span : getCovered(start, end)) {
+      if (span[0] > from) {
+        fold(wave, index(from, start, samplingRate), index(span[0], start, samplingRate));
+      }
+      from = Math.max(from, span[1]);
+    }
+    if (from < end) {
+      fold(wave, index(from, start, samplingRate), samples);
+    }
+    cover(start, end, 1 / samplingRate);
+  }
+
+  /**
+   * Move everything from another store into this one. The other store must not be used
+   * afterwards.
+   *
+   * @param other store to absorb
+   */
+  public void absorb(final RsamStore other) {
+    for (int i = 0; i < levels.length; i++) {
+      levels[i].absorb(other.levels[i]);
+    }
+    for (final Map.Entry<Double, Double> span : other.covered.entrySet()) {
+      cover(span.getKey(), span.getValue(), 0);
+    }
+    if (!haveOffset && other.haveOffset) {
+      offset = other.offset;
+      haveOffset = true;
+    }
+  }
+
+  /**
+   * Get RSAM over a time span. Rows start on multiples of the period and only periods with data
+   * are returned.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row, a multiple of the finest level
+   * @return RSAM or null if the period can't be served or there is no data in the span
+   */
+  public RSAMData getRsam(final double t1, final double t2, final int period) {
+    final int levelIndex = getLevel(period);
+    if (levelIndex < 0 || Double.isNaN(t1) || Double.isNaN(t2) || t2 < t1) {
+      return null;
+    }
+
+    final Level level = levels[levelIndex];
+    final int perRow = period / level.seconds;
+    final long first = floorDiv((long) Math.floor(t1), period);
+    final long last = floorDiv((long) Math.floor(t2), period);
+
+    final List<double[]> rows = new ArrayList<double[]>();
+    double sum = 0;
+    double count = 0;
+    long current = first;
+    final long rowFirst = first * perRow;
+    final long rowLast = (last + 1) * perRow - 1;
+    final NavigableMap<Long, double[]> span = level.chunks.subMap(
+        floorDiv(rowFirst, CHUNK_ROWS), true, floorDiv(rowLast, CHUNK_ROWS), true);
+    for (final Map.Entry<Long, double[]> entry : span.entrySet()) {
+      final long base = entry.getKey() * CHUNK_ROWS;
+      final double[] chunk = entry.getValue();
+      final int from = (int) Math.max(0, rowFirst - base);
+      final int to = (int) Math.min(CHUNK_ROWS - 1, rowLast - base);
+      for (int i = from; i <= to; i++) {
+        if (chunk[i * 2 + 1] == 0) {
+          continue;
+        }
+        final long p = floorDiv(base + i, perRow);
+        if (p != current) {
+          if (count > 0) {
+            rows.add(new double[] {current * period, sum / count});
+          }
+          current = p;
+          sum = 0;
+          count = 0;
+        }
+        sum += chunk[i * 2];
+        count += chunk[i * 2 + 1];
+      }
+    }
+    if (count > 0) {
+      rows.add(new double[] {current * period, sum / count});
+    }
+    if (rows.isEmpty()) {
+      return null;
+    }
+
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows.size(), 2);
+    for (int i = 0; i < rows.size(); i++) {
+      data.setQuick(i, 0, rows.get(i)[0]);
+      data.setQuick(i, 1, rows.get(i)[1]);
+    }
+    final RSAMData rsam = new RSAMData();
+    rsam.setData(data);
+    return rsam;
+  }
+
+  /**
+   * Get the coarsest level whose rows divide a period.
+   *
+   * @param period seconds per row
+   * @return index into {@link #RESOLUTIONS} or -1 if none divides the period
+   */
+  public static int getLevel(final int period) {
+    int level = -1;
+    for (int i = 0; i < RESOLUTIONS.length; i++) {
+      if (period > 0 && period % RESOLUTIONS[i] == 0) {
+        level = i;
+      }
+    }
+    return level;
+  }
+
+  /**
+   * Sum absolute differences from the running mean for a run of samples.
+   */
+  private void fold(final Wave wave, final int from, final int to) {
+    final double start = wave.getStartTime();
+    final double samplingRate = wave.getSamplingRate();
+    final double alpha = 1 / Math.max(1, OFFSET_SECONDS * samplingRate);
+
+    long row = Long.MIN_VALUE;
+    double sum = 0;
+    int count = 0;
+    for (int i = Math.max(0, from); i < to; i++) {
+      final int sample = wave.buffer[i];
+      if (sample == Wave.NO_DATA) {
+        continue;
+      }
+
+      offset += (sample - offset) * alpha;
+      final long r = floorDiv((long) Math.floor(start + i / samplingRate), RESOLUTIONS[0]);
+      if (r != row) {
+        if (count > 0) {
+          update(row, sum, count);
+        }
+        row = r;
+        sum = 0;
+        count = 0;
+      }
+      sum += Math.abs(sample - offset);
+      count++;
+    }
+    if (count > 0) {
+      update(row, sum, count);
+    }
+  }
+
+  /**
+   * Add to a row of the finest level and the rows above it.
+   */
+  private void update(final long row, final double sum, final int count) {
+    final long second = row * RESOLUTIONS[0];
+    for (final Level level : levels) {
+      level.update(floorDiv(second, level.seconds), sum, count);
+    }
+  }
+
+  /**
+   * Get remembered spans which share any time with a span, in time order.
+   */
+  private List<double[]> getCovered(final double t1, final double t2) {
+    final List<double[]> spans = new ArrayList<double[]>();
+    final Map.Entry<Double, Double> floor = covered.floorEntry(t1);
+    if (floor != null && floor.getValue() > t1) {
+      spans.add(new double[] {floor.getKey(), floor.getValue()});
+    }
+    for (final Map.Entry<Double, Double> entry : covered.subMap(t1, false, t2, false)
+        .entrySet()) {
+      spans.add(new double[] {entry.getKey(), entry.getValue()});
+    }
+    return spans;
+  }
+
+  /**
+   * Remember a span, joining it with any it overlaps or nearly touches.
+   */
+  private void cover(double t1, double t2, final double slop) {
+    final Map.Entry<Double, Double> floor = covered.floorEntry(t1);
+    if (floor != null && floor.getValue() >= t1 - slop) {
+      t1 = floor.getKey();
+      t2 = Math.max(t2, floor.getValue());
+      covered.remove(floor.getKey());
+    }
+    Map.Entry<Double, Double> next;
+    while ((next = covered.ceilingEntry(t1)) != null && next.getKey() <= t2 + slop) {
+      t2 = Math.max(t2, next.getValue());
+      covered.remove(next.getKey());
+    }
+    covered.put(t1, t2);
+  }
+
+  private static int index(final double t, final double start, final double samplingRate) {
+    return (int) Math.ceil((t - start) * samplingRate - 1e-6);
+  }
+
+  private static double mean(final Wave wave) {
+    double sum = 0;
+    int count = 0;
+    for (int i = 0; i < wave.numSamples(); i++) {
+      if (wave.buffer[i] != Wave.NO_DATA) {
+        sum += wave.buffer[i];
+        count++;
+      }
+    }
+    return count == 0 ? 0 : sum / count;
+  }
+
+  private static long floorDiv(final long x, final long y) {
+    return x >= 0 ? x / y : (x + 1) / y - 1;
+  }
+
+  /**
+   * Sums and sample counts for rows of a fixed number of seconds.
+   */
+  private static class Level {
+    private final int seconds;
+
+    /** interleaved sum and count by row, count zero where no data. */
+    private final NavigableMap<Long, double[]> chunks;
+
+    private Level(final int seconds) {
+      this.seconds = seconds;
+      chunks = new TreeMap<Long, double[]>();
+    }
+
+    private void update(final long row, final double sum, final double count) {
+      final long index = floorDiv(row, CHUNK_ROWS);
+      double[] chunk = chunks.get(index);
+      if (chunk == null) {
+        chunk = new double[CHUNK_ROWS * 2];
+        chunks.put(index, chunk);
+      }
+
+      final int i = (int) (row - index * CHUNK_ROWS) * 2;
+      chunk[i] += sum;
+      chunk[i + 1] += count;
+    }
+
+    private void absorb(final Level other) {
+      for (final Map.Entry<Long, double[]> entry : other.chunks.entrySet()) {
+        final double[] mine = chunks.get(entry.getKey());
+        if (mine == null) {
+          chunks.put(entry.getKey(), entry.getValue());
+          continue;
+        }
+
+        final double[] theirs = entry.getValue();
+        for (int i = 0; i < theirs.length; i++) {
+          mine[i] += theirs[i];
+        }
+      }
+    }
+  }
+}
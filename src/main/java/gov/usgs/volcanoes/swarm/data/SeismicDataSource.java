@@ -1,30 +1,66 @@
 package gov.usgs.volcanoes.swarm.data;
 
 import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.event.EventListenerList;
 
 /**
- * Base class for seismic data sources.
+ * Base class for seismic data sources. Any source can provide RSAM computed from the waves it
+ * has put in the cache; sources which serve RSAM themselves override {@link #getRsam}.
  * 
  * @author Dan Cervelli
  */
-public abstract class SeismicDataSource {
+public abstract class SeismicDataSource implements RsamSource {
   protected String name = "Unnamed Data Source";
   protected boolean storeInUserConfig = true;
   protected boolean useCache = true;
   protected int minimumRefreshInterval = 1;
 
+  /** seconds of waves per gulp when filling RSAM. */
+  private static final int RSAM_GULP_SIZE = 30 * 60;
+
+  /** milliseconds between gulps when filling RSAM. */
+  private static final int RSAM_GULP_DELAY = 1 * 1000;
+
   protected EventListenerList listeners = new EventListenerList();
 
+  /** span of waves already asked for by RSAM views, by gulper key; guarded by itself. */
+  private final Map<String, double[]> rsamRequested = new HashMap<String, double[]>();
+
   public Gulper createGulper(GulperList gl, String k, String ch, double t1, double t2, int size,
       int delay) {
     return new Gulper(gl, k, this, ch, t1, t2, size, delay);
   }
 
+  /**
+   * Get the number of gulps a gulper may have in flight at once against this source. The default
+   * is one, since unless the source {@link #isShared()} the gulper makes copies of it for any more
+   * and {@link #getCopy()} returns this source by default.
+   * 
+   * @return concurrent gulps per gulper
+   */
+  public int getGulpConcurrency() {
+    return 1;
+  }
+
+  /**
+   * Determine if this one instance may serve several threads at once. Gulpers use such a source
+   * itself rather than copies of it, and leave closing it to its owner.
+   * 
+   * @return true if the source may be shared
+   */
+  public boolean isShared() {
+    return false;
+  }
+
   public abstract List<String> getChannels();
 
   public abstract void parse(String params);
@@ -42,6 +78,112 @@ public abstract class SeismicDataSource {
   public abstract HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl);
 
+  /**
+   * Get RSAM computed from cached waves. This covers only data which has passed through the
+   * cache, for instance from a helicorder or a live stream.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param period seconds per row
+   * @return RSAM or null if none
+   */
+  public RSAMData getRsam(String station, double t1, double t2, int period) {
+    return CachedDataSource.getInstance().getStreamedRsam(station, t1, t2, period);
+  }
+
+  /**
+   * Get RSAM for a view. Waves for any part of the span not asked for before are gulped into the
+   * cache, so RSAM is computed from them, and the listener is told as each gulp arrives. The
+   * gulper skips waves already cached, so holes anywhere in the span are filled, and a span the
+   * source has no data for isn't asked for again on every refresh. Sources which serve RSAM
+   * themselves override this to skip the gulp.
+   * 
+   * @param station channel name
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @param period seconds per row
+   * @param gl listener told of gulps
+   * @return RSAM or null if none yet
+   */
+  public RSAMData getRsam(String station, double t1, double t2, int period, GulperListener gl) {
+    final String key = getRsamGulperKey(station);
+    // nothing after now can have arrived yet, so leave it to be asked for later
+    final double end = Math.min(t2, J2kSec.now());
+    double from = t1;
+    double to = end;
+    synchronized (rsamRequested) {
+      final double[] requested = rsamRequested.get(key);
+      if (requested == null) {
+        rsamRequested.put(key, new double[] {t1, end});
+      } else if (t1 >= requested[0] && end <= requested[1]) {
+        from = to;
+      } else {
+        // one side at most is new while the view's span moves with time
+        if (t1 >= requested[0]) {
+          from = requested[1];
+        } else if (end <= requested[1]) {
+          to = requested[0];
+        }
+        requested[0] = Math.min(requested[0], t1);
+        requested[1] = Math.max(requested[1], end);
+      }
+    }
+
+    if (to > from) {
+      GulperList.INSTANCE.requestGulper(key, gl, this, station, from, to, RSAM_GULP_SIZE,
+          RSAM_GULP_DELAY);
+    }
+    return getRsam(station, t1, t2, period);
+  }
+
+  /**
+   * Stop gulping waves for RSAM on behalf of a listener.
+   * 
+   * @param station channel name
+   * @param gl listener given to {@link #getRsam(String, double, double, int, GulperListener)}
+   */
+  public void notifyRsamNotNeeded(String station, GulperListener gl) {
+    final String key = getRsamGulperKey(station);
+    GulperList.INSTANCE.killGulper(key, gl);
+    // a gulp may have been cut short, so a view opened later asks again
+    synchronized (rsamRequested) {
+      rsamRequested.remove(key);
+    }
+  }
+
+  private String getRsamGulperKey(String station) {
+    return "rsam:" + name + ":" + station;
+  }
+
+  /**
+   * Get waves for several channels over one time span, caching them as {@link #getWave} would.
+   * The default gets each in turn; sources whose protocol can ask for many channels in one
+   * request override this and {@link #canBatchGulps()}.
+   * 
+   * @param stations channel names
+   * @param t1 start time in j2k
+   * @param t2 end time in j2k
+   * @return waves in the same order as the channels, null where there is none
+   */
+  public List<Wave> getWaves(List<String> stations, double t1, double t2) {
+    final List<Wave> waves = new ArrayList<Wave>(stations.size());
+    for (final String station : stations) {
+      waves.add(getWave(station, t1, t2));
+    }
+    return waves;
+  }
+
+  /**
+   * Should gulps for different channels of this source over the same time span be merged into one
+   * call to {@link #getWaves(List, double, double)}?
+   * 
+   * @return true if gulps may be batched
+   */
+  public boolean canBatchGulps() {
+    return false;
+  }
+
   public abstract String toConfigString();
 
   protected SeismicDataSource() {
@@ -115,6 +257,9 @@ public abstract class SeismicDataSource {
    */
   public void close() {}
 
+  /**
+   * Release anything held for the source once it has been removed from the configuration.
+   */
   public void remove() {}
 
   /**
@@ -0,0 +1,221 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+/**
+ * A time-ordered index of the cache entries for a single channel. Entries are keyed on their start
+ * time and are expected not to overlap one another, which the caching data source guarantees by
+ * merging overlapping data on insert. With that invariant end times are sorted too, so lookups,
+ * overlap queries and neighbor searches are all O(log n).
+ *
+ * <p>Entries must be removed and re-added if their start time changes. The index is not thread
+ * safe; callers synchronize on the index itself, which also serves as the channel lock.
+ *
+ * <p>The index keeps a running count of the memory used by its entries and adds every change to
+ * an optional shared counter, so cache size never has to be found by walking the entries. Entry
+ * data must not change size while indexed, unless the change is reported with
+ * {@link #resized(CacheEntry, int)}.
+ *
+ * @author Tom Parker
+ */
+public class TimeIndex<T extends CacheEntry> {
+  private final NavigableMap<Double, T> entries;
+  private final AtomicLong total;
+  private long memorySize;
+
+  /**
+   * Constructor.
+   */
+  public TimeIndex() {
+    this(null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param total counter to adjust as entries come and go, may be null
+   */
+  public TimeIndex(final AtomicLong total) {
+    entries = new TreeMap<Double, T>();
+    this.total = total;
+  }
+
+  /**
+   * Add an entry to the index.
+   *
+   * @param entry entry keyed on its start time
+   */
+  public void put(final T entry) {
+    final T replaced = entries.put(entry.t1, entry);
+    long delta = entry.getMemorySize();
+    if (replaced != null) {
+      delta -= replaced.getMemorySize();
+    }
+    adjustSize(delta);
+  }
+
+  /**
+   * Remove an entry from the index.
+   *
+   * @param entry entry to remove
+   * @return true if the entry was in the index
+   */
+  public boolean remove(final T entry) {
+    final T indexed = entries.get(entry.t1);
+    if (indexed != entry) {
+      return false;
+    }
+    entries.remove(entry.t1);
+    adjustSize(-entry.getMemorySize());
+    return true;
+  }
+
+  /**
+   * Count a change in the memory used by an indexed entry.
+   *
+   * @param entry entry whose data changed size
+   * @param before memory used by the entry before the change
+   */
+  public void resized(final T entry, final int before) {
+    if (entries.get(entry.t1) == entry) {
+      adjustSize(entry.getMemorySize() - before);
+    }
+  }
+
+  /**
+   * Find the entry which completely covers a time span.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return the covering entry or null if none
+   */
+  public T getContaining(final double t1, final double t2) {
+    final Map.Entry<Double, T> floor = entries.floorEntry(t1);
+    if (floor == null) {
+      return null;
+    }
+
+    final T entry = floor.getValue();
+    if (t2 <= entry.t2) {
+      return entry;
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Find all entries which share any time with a time span, in time order.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return overlapping entries, possibly empty
+   */
+  public List<T> getOverlapping(final double t1, final double t2) {
+    final NavigableMap<Double, T> slice = slice(t1, t2);
+    if (slice.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final List<T> overlapping = new ArrayList<T>(slice.size());
+    for (final T entry : slice.values()) {
+      if (entry.t2 >= t1) {
+        overlapping.add(entry);
+      }
+    }
+    return overlapping;
+  }
+
+  /**
+   * Get a view of the index starting with the last entry to start at or before t1 and ending with
+   * the last entry to start at or before t2. Every entry overlapping the span is in the view.
+   *
+   * @param t1 start time
+   * @param t2 end time
+   * @return a live view of the index
+   */
+  public NavigableMap<Double, T> slice(final double t1, final double t2) {
+    if (t2 < t1) {
+      return new TreeMap<Double, T>();
+    }
+    Double from = entries.floorKey(t1);
+    if (from == null) {
+      from = t1;
+    }
+    return entries.subMap(from, true, t2, true);
+  }
+
+  /**
+   * Get the entry starting closest before a time.
+   *
+   * @param t time
+   * @return entry or null if none
+   */
+  public T getFloor(final double t) {
+    final Map.Entry<Double, T> floor = entries.floorEntry(t);
+    return floor == null ? null : floor.getValue();
+  }
+
+  /**
+   * Get the entry starting closest after a time.
+   *
+   * @param t time
+   * @return entry or null if none
+   */
+  public T getCeiling(final double t) {
+    final Map.Entry<Double, T> ceiling = entries.ceilingEntry(t);
+    return ceiling == null ? null : ceiling.getValue();
+  }
+
+  /**
+   * Get all entries in time order.
+   *
+   * @return a live view of all entries
+   */
+  public Collection<T> values() {
+    return entries.values();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Get memory used by all entries.
+   *
+   * @return size in bytes
+   */
+  public long getMemorySize() {
+    return memorySize;
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public void clear() {
+    entries.clear();
+    adjustSize(-memorySize);
+  }
+
+  private void adjustSize(final long delta) {
+    memorySize += delta;
+    if (total != null) {
+      total.addAndGet(delta);
+    }
+  }
+}
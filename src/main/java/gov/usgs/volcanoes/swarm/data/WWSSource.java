@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
+import cern.colt.matrix.DoubleMatrix2D;
 import gov.usgs.volcanoes.core.data.HelicorderData;
 import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.data.Scnl;
@@ -21,14 +22,15 @@ import gov.usgs.volcanoes.wwsclient.WWSClient;
  * An implementation of <code>SeismicDataSource</code> that communicates with a
  * WinstonWaveServer. This is essentially just a copy of WaveServerSource with
  * different helicorder functions. It should probably be made a descendant of
- * WaveServerSource.
+ * WaveServerSource. Requests borrow a client from a pool shared by all sources for the server
+ * with the same timeout, so several may run at once.
  * 
  * 
  * @author Dan Cervelli
  */
 public class WWSSource extends SeismicDataSource implements RsamSource {
   private String params;
-  private WWSClient winstonClient;
+  private ConnectionPool<WWSClient> pool;
   private int timeout = 2000;
   private boolean compress = false;
   private int protocolVersion = 1;
@@ -68,16 +70,44 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
     timeout = Integer.parseInt(ss[2]);
     compress = ss[3].equals("1");
 
-    winstonClient = new WWSClient(server, port, timeout);
+    if (pool != null) {
+      pool.close();
+    }
+    final SwarmConfig config = SwarmConfig.getInstance();
+    final String poolServer = server;
+    final int poolPort = port;
+    final int poolTimeout = timeout;
+    // sources with other timeouts get their own connections
+    pool = ConnectionPool.open("wws:" + server + ":" + port + ":" + timeout,
+        new ConnectionPool.Factory<WWSClient>() {
+          public WWSClient create() {
+            return new WWSClient(poolServer, poolPort, poolTimeout);
+          }
+
+          public void close(WWSClient client) {
+            client.close();
+          }
+        }, config.serverConnections, config.serverIdleTimeout * 1000L,
+        config.serverStaleTimeout * 1000L);
   }
 
   /**
-   * Get copy of data source.  (Deprecated)
+   * Get copy of data source.  (Deprecated) Sources are safe to share, so this is the source
+   * itself.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getCopy()
    */
   @Deprecated
   public SeismicDataSource getCopy() {
-    return new WWSSource(this);
+    return this;
+  }
+
+  /**
+   * Requests borrow their own clients, so one source may serve many threads.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#isShared()
+   */
+  @Override
+  public boolean isShared() {
+    return true;
   }
 
   /**
@@ -86,7 +116,17 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    */
   public void establish() {
     if (!established) {
-      protocolVersion = winstonClient.getProtocolVersion();
+      WWSClient winstonClient = pool.borrow();
+      if (winstonClient == null) {
+        return;
+      }
+      try {
+        protocolVersion = winstonClient.getProtocolVersion();
+      } catch (RuntimeException e) {
+        pool.invalidate(winstonClient);
+        throw e;
+      }
+      pool.release(winstonClient);
       established = true;
     }
   }
@@ -102,12 +142,22 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
   }
 
   /**
-   * Close Winston client connection.
+   * Close Winston client connections not in use. The source may still be used.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#close()
    */
   public void close() {
-    if (winstonClient != null) {
-      winstonClient.close();
+    if (pool != null) {
+      pool.closeIdle();
+    }
+  }
+
+  /**
+   * Give up this source's share of the client pool.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#remove()
+   */
+  public void remove() {
+    if (pool != null) {
+      pool.close();
     }
   }
 
@@ -143,7 +193,7 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getWave(java.lang.String,
    *      double, double)
    */
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(String station, double t1, double t2) {
     Wave wave = null;
     if (useCache) {
       CachedDataSource cache = CachedDataSource.getInstance();
@@ -155,7 +205,17 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
       try {
         scnl = Scnl.parse(station, delimiter);
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        wave = winstonClient.getWave(scnl, timeSpan, compress);
+        WWSClient winstonClient = pool.borrow();
+        if (winstonClient == null) {
+          return null;
+        }
+        try {
+          wave = winstonClient.getWave(scnl, timeSpan, compress);
+        } catch (RuntimeException e) {
+          pool.invalidate(winstonClient);
+          throw e;
+        }
+        pool.release(winstonClient);
       } catch (UtilException e) {
         System.err.println("WWSSource.getWave: Cannot parse station " + station);
       }
@@ -174,40 +234,66 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
   }
 
   /**
-   * Get RSAM data.
+   * Get RSAM data. With the cache in use only rows after those already cached are fetched, along
+   * with the last cached row if it was still filling, so a live view costs one short request per
+   * refresh rather than one for its whole span.
    * @see gov.usgs.volcanoes.swarm.data.RsamSource#getRsam(java.lang.String,
    *      double, double, int)
    */
-  public synchronized RSAMData getRsam(String station, double t1, double t2, int period) {
-    RSAMData rsamData = null;
-    if (useCache) {
-      CachedDataSource cache = CachedDataSource.getInstance();
-      rsamData = cache.getRsam(station, t1, t2, period);
+  public RSAMData getRsam(String station, double t1, double t2, int period) {
+    if (!useCache) {
+      return fetchRsam(station, t1, t2, period);
+    }
+
+    CachedDataSource cache = CachedDataSource.getInstance();
+    double from = cache.getStoredRsamEnd(station, t1, t2, period);
+    if (from < t2) {
+      RSAMData rsamData = fetchRsam(station, from, t2, period);
       if (rsamData != null) {
-        System.out.println("found in cache");
+        cache.putRsam(station, rsamData, period, from, t2);
       }
     }
+    return cache.getStoredRsam(station, t1, t2, period);
+  }
 
-    if (rsamData == null) {
-      String delimiter = station.indexOf("$") == -1 ? " " : "$";
-      try {
-        Scnl scnl = Scnl.parse(station, delimiter);
-        TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        rsamData =
-            winstonClient.getRSAMData(scnl, timeSpan, period, compress);
-      } catch (UtilException e) {
-        System.err.println("WWSSource.getRsam: Cannot parse station " + station);
-      }
-      if (rsamData == null) {
+  /**
+   * Get RSAM data from the server. Its RSAM covers the span without waves, so nothing is gulped.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getRsam(java.lang.String, double,
+   *      double, int, gov.usgs.volcanoes.swarm.data.GulperListener)
+   */
+  @Override
+  public RSAMData getRsam(String station, double t1, double t2, int period, GulperListener gl) {
+    return getRsam(station, t1, t2, period);
+  }
+
+  /**
+   * Fetch RSAM data from the server.
+   * 
+   * @param station channel
+   * @param t1 start time
+   * @param t2 end time
+   * @param period seconds per row
+   * @return RSAM data or null if none
+   */
+  private RSAMData fetchRsam(String station, double t1, double t2, int period) {
+    String delimiter = station.indexOf("$") == -1 ? " " : "$";
+    RSAMData rsamData = null;
+    try {
+      Scnl scnl = Scnl.parse(station, delimiter);
+      TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
+      WWSClient winstonClient = pool.borrow();
+      if (winstonClient == null) {
         return null;
       }
-
-      if (useCache) {
-        CachedDataSource cache = CachedDataSource.getInstance();
-        cache.putRsam(station, rsamData);
+      try {
+        rsamData = winstonClient.getRSAMData(scnl, timeSpan, period, compress);
+      } catch (RuntimeException e) {
+        pool.invalidate(winstonClient);
+        throw e;
       }
-    } else {
-      // System.out.println("cached");
+      pool.release(winstonClient);
+    } catch (UtilException e) {
+      System.err.println("WWSSource.getRsam: Cannot parse station " + station);
     }
     return rsamData;
   }
@@ -217,7 +303,7 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getHelicorder(java.lang.String,
    *      double, double, gov.usgs.volcanoes.swarm.data.GulperListener)
    */
-  public synchronized HelicorderData getHelicorder(final String station, double t1, double t2,
+  public HelicorderData getHelicorder(final String station, double t1, double t2,
       GulperListener gl) {
     CachedDataSource cache = CachedDataSource.getInstance();
 
@@ -235,7 +321,18 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
         // }
         // });
         TimeSpan timeSpan = TimeSpan.fromJ2kSec(t1, t2);
-        hd = winstonClient.getHelicorder(scnl, timeSpan, compress);
+        WWSClient winstonClient = pool.borrow();
+        if (winstonClient == null) {
+          fireHelicorderProgress(station, 1.0);
+          return null;
+        }
+        try {
+          hd = winstonClient.getHelicorder(scnl, timeSpan, compress);
+        } catch (RuntimeException e) {
+          pool.invalidate(winstonClient);
+          throw e;
+        }
+        pool.release(winstonClient);
         // winstonClient.setReadListener(null);
         fireHelicorderProgress(station, 1.0);
       } catch (UtilException e) {
@@ -243,8 +340,12 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
       }
 
       if (hd != null && hd.rows() != 0) {
-        HelicorderData noLatest = hd.subset(hd.getStartTime(), J2kSec.now() - 30);
-        if (noLatest != null && noLatest.rows() > 0) {
+        // the cache copies what it keeps, so a view will do
+        DoubleMatrix2D settled =
+            RowIndex.view(hd.getData(), hd.getStartTime(), J2kSec.now() - 30);
+        if (settled != null) {
+          HelicorderData noLatest = new HelicorderData();
+          noLatest.setData(settled);
           cache.putHelicorder(station, noLatest);
         }
       } else {
@@ -258,8 +359,19 @@ public class WWSSource extends SeismicDataSource implements RsamSource {
    * Get list of channels.
    * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getChannels()
    */
-  public synchronized List<String> getChannels() {
-    List<Channel> channels = winstonClient.getChannels(true);
+  public List<String> getChannels() {
+    WWSClient winstonClient = pool.borrow();
+    if (winstonClient == null) {
+      return new ArrayList<String>();
+    }
+    List<Channel> channels;
+    try {
+      channels = winstonClient.getChannels(true);
+    } catch (RuntimeException e) {
+      pool.invalidate(winstonClient);
+      throw e;
+    }
+    pool.release(winstonClient);
     List<String> channelNames = new ArrayList<String>(channels.size());
     SwarmConfig swarmConfig = SwarmConfig.getInstance();
 
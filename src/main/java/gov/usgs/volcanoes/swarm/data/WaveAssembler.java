@@ -0,0 +1,120 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+/**
+ * Decodes a contiguous run of miniSEED records into one growing buffer, so the run becomes a
+ * single wave with one copy at the end rather than a wave per record joined afterwards. The
+ * buffer grows by doubling and is kept for the next run once a wave is taken. Samples added since
+ * the last part can be copied out while the run goes on, for callers which pass data along as it
+ * arrives.
+ *
+ * <p>Not thread safe.
+ *
+ * @author Tom Parker
+ */
+public final class WaveAssembler {
+  /** samples to allow for at first. */
+  private static final int INITIAL_SAMPLES = 1024;
+
+  private int[] buffer;
+  private int count;
+  private int parted;
+  private double start;
+  private double samplingRate;
+
+  /**
+   * Constructor.
+   */
+  public WaveAssembler() {
+    buffer = new int[INITIAL_SAMPLES];
+  }
+
+  /**
+   * Are any samples held?
+   *
+   * @return true if none are
+   */
+  public boolean isEmpty() {
+    return count == 0;
+  }
+
+  /**
+   * Does a record carry on from the samples held, or are there none?
+   *
+   * @param decoder decoder holding the record
+   * @return true if the record can be added to the run
+   */
+  public boolean continues(final MiniSeedDecoder decoder) {
+    if (count == 0) {
+      return true;
+    }
+    final double expected = start + count / samplingRate;
+    return decoder.getSamplingRate() == samplingRate
+        && Math.abs(decoder.getStartTime() - expected) < 0.5 / samplingRate;
+  }
+
+  /**
+   * Decode a record onto the end of the samples held.
+   *
+   * @param decoder decoder holding the record
+   * @throws IOException if the samples are corrupt
+   */
+  public void add(final MiniSeedDecoder decoder) throws IOException {
+    final int needed = count + decoder.getSampleCount();
+    if (needed > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(needed, buffer.length * 2));
+    }
+    if (count == 0) {
+      start = decoder.getStartTime();
+      samplingRate = decoder.getSamplingRate();
+    }
+    count += decoder.decode(buffer, count);
+  }
+
+  /**
+   * Copy out the samples added since the last part, leaving them in the run.
+   *
+   * @return wave or null if none have been added
+   */
+  public Wave takePart() {
+    if (count == parted) {
+      return null;
+    }
+    final Wave wave = new Wave();
+    wave.buffer = Arrays.copyOfRange(buffer, parted, count);
+    wave.setSamplingRate(samplingRate);
+    wave.setStartTime(start + parted / samplingRate);
+    wave.register();
+    parted = count;
+    return wave;
+  }
+
+  /**
+   * Take the samples held as a wave, leaving the buffer empty.
+   *
+   * @return wave or null if none are held
+   */
+  public Wave take() {
+    if (count == 0) {
+      return null;
+    }
+    final Wave wave = new Wave();
+    wave.buffer = Arrays.copyOf(buffer, count);
+    wave.setSamplingRate(samplingRate);
+    wave.setStartTime(start);
+    wave.register();
+    count = 0;
+    parted = 0;
+    return wave;
+  }
+}
@@ -0,0 +1,284 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import gov.usgs.volcanoes.core.legacy.ew.Menu;
+import gov.usgs.volcanoes.core.legacy.ew.MenuItem;
+import gov.usgs.volcanoes.swarm.Metadata;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+
+/**
+ * The channel menu of one Earthworm wave server, shared by every source for the server. The menu
+ * is fetched once and then served from memory. Once it is older than
+ * {@link SwarmConfig#menuRefresh} seconds it is still served, but a fresh one is fetched in the
+ * background. Each fresh menu is compared with the last, and only channels which were added or
+ * whose time span moved are passed on to their metadata.
+ *
+ * @author Tom Parker
+ */
+public class WaveServerMenu {
+  private static final Logger LOGGER = LoggerFactory.getLogger(WaveServerMenu.class);
+
+  /** how long an idle refresh thread waits before exiting, in seconds. */
+  private static final int KEEP_ALIVE = 30;
+
+  /** menus by server. */
+  private static final Map<String, WaveServerMenu> MENUS = new HashMap<String, WaveServerMenu>();
+
+  /** fetches stale menus for all servers, one at a time. */
+  private static final ThreadPoolExecutor REFRESHER;
+
+  static {
+    REFRESHER = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Menu refresh");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    REFRESHER.allowCoreThreadTimeOut(true);
+  }
+
+  private final String server;
+
+  /** held while the menu is fetched, so callers who find none wait for one fetch. */
+  private final Object fetchLock;
+
+  /** the rest are guarded by this menu. */
+  private Menu menu;
+  private boolean scnl;
+  private List<String> channels;
+  private Map<String, double[]> spans;
+  private long fetched;
+  private boolean refreshing;
+
+  private WaveServerMenu(final String server) {
+    this.server = server;
+    fetchLock = new Object();
+    channels = Collections.emptyList();
+    spans = Collections.emptyMap();
+  }
+
+  /**
+   * Get the menu of a server.
+   *
+   * @param server server host and port
+   * @return menu, which may not have been fetched yet
+   */
+  public static WaveServerMenu getInstance(final String server) {
+    synchronized (MENUS) {
+      WaveServerMenu menu = MENUS.get(server);
+      if (menu == null) {
+        menu = new WaveServerMenu(server);
+        MENUS.put(server, menu);
+      }
+      return menu;
+    }
+  }
+
+  /**
+   * Get the menu, fetching it if there is none yet and starting a background refresh if it is
+   * stale.
+   *
+   * @param source source to fetch with
+   * @return menu or null if the server cannot be reached
+   */
+  public Menu getMenu(final WaveServerSource source) {
+    if (!ensureFetched(source)) {
+      return null;
+    }
+    refreshIfStale(source);
+    synchronized (this) {
+      return menu;
+    }
+  }
+
+  /**
+   * Get the names of the server's channels, in menu order.
+   *
+   * @param source source to fetch with
+   * @return channel names, empty if the server cannot be reached
+   */
+  public List<String> getChannels(final WaveServerSource source) {
+    if (!ensureFetched(source)) {
+      return Collections.emptyList();
+    }
+    refreshIfStale(source);
+    synchronized (this) {
+      return channels;
+    }
+  }
+
+  /**
+   * Determine whether the server's menu is SCNL. The menu is fetched only if it never has been;
+   * this alone does not refresh a stale menu.
+   *
+   * @param source source to fetch with
+   * @return true if SCNL, false if SCN or the server cannot be reached
+   */
+  public boolean isSCNL(final WaveServerSource source) {
+    if (!ensureFetched(source)) {
+      return false;
+    }
+    synchronized (this) {
+      return scnl;
+    }
+  }
+
+  /**
+   * Format a menu item as a channel name.
+   *
+   * @param item menu item
+   * @param scnl true if the menu is SCNL
+   * @return channel name
+   */
+  public static String format(final MenuItem item, final boolean scnl) {
+    return scnl ? item.getSCNL(" ") : item.getSCN(" ");
+  }
+
+  /**
+   * Fetch the menu now if it never has been.
+   *
+   * @return true if there is a menu
+   */
+  private boolean ensureFetched(final WaveServerSource source) {
+    synchronized (this) {
+      if (menu != null) {
+        return true;
+      }
+    }
+    synchronized (fetchLock) {
+      synchronized (this) {
+        if (menu != null) {
+          return true;
+        }
+      }
+      return fetch(source);
+    }
+  }
+
+  /**
+   * Start a background refresh if the menu is stale and none is under way.
+   */
+  private synchronized void refreshIfStale(final WaveServerSource source) {
+    final long maxAge = SwarmConfig.getInstance().menuRefresh * 1000L;
+    if (!refreshing && System.currentTimeMillis() - fetched > maxAge) {
+      refreshing = true;
+      REFRESHER.execute(new Runnable() {
+        public void run() {
+          try {
+            synchronized (fetchLock) {
+              fetch(source);
+            }
+          } finally {
+            synchronized (WaveServerMenu.this) {
+              refreshing = false;
+            }
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Fetch the menu and take in whatever has changed. Call while holding the fetch lock.
+   *
+   * @return true if a menu was fetched
+   */
+  private boolean fetch(final WaveServerSource source) {
+    final Menu fresh;
+    try {
+      fresh = source.fetchMenu();
+    } catch (final RuntimeException e) {
+      LOGGER.warn("Cannot fetch menu from {}: {}", server, e.getMessage());
+      return false;
+    }
+    if (fresh == null) {
+      return false;
+    }
+
+    final boolean freshScnl = fresh.isSCNL();
+    final List<MenuItem> items = fresh.getSortedItems();
+    final List<String> freshChannels = new ArrayList<String>(items.size());
+    final Map<String, double[]> freshSpans = new LinkedHashMap<String, double[]>(items.size());
+    for (final MenuItem item : items) {
+      final String channel = format(item, freshScnl);
+      double[] span = freshSpans.get(channel);
+      if (span == null) {
+        span = new double[] {source.toJ2k(item.getStartTime()), source.toJ2k(item.getEndTime())};
+        freshSpans.put(channel, span);
+        freshChannels.add(channel);
+      } else {
+        span[0] = Math.min(span[0], source.toJ2k(item.getStartTime()));
+        span[1] = Math.max(span[1], source.toJ2k(item.getEndTime()));
+      }
+    }
+
+    final Map<String, double[]> previous;
+    synchronized (this) {
+      previous = spans;
+      menu = fresh;
+      scnl = freshScnl;
+      channels = Collections.unmodifiableList(freshChannels);
+      spans = freshSpans;
+      fetched = System.currentTimeMillis();
+    }
+    update(source, previous, freshSpans);
+    return true;
+  }
+
+  /**
+   * Pass new channels and moved time spans on to metadata.
+   */
+  private void update(final WaveServerSource source, final Map<String, double[]> previous,
+      final Map<String, double[]> fresh) {
+    final SwarmConfig config = SwarmConfig.getInstance();
+    int added = 0;
+    int changed = 0;
+    for (final Map.Entry<String, double[]> entry : fresh.entrySet()) {
+      final double[] span = entry.getValue();
+      final double[] old = previous.get(entry.getKey());
+      if (old != null && old[0] == span[0] && old[1] == span[1]) {
+        continue;
+      }
+
+      final Metadata md = config.getMetadata(entry.getKey(), true);
+      if (old == null) {
+        md.source = source;
+        added++;
+      } else {
+        changed++;
+      }
+      md.updateMinTime(span[0]);
+      md.updateMaxTime(span[1]);
+    }
+
+    int removed = 0;
+    for (final String channel : previous.keySet()) {
+      if (!fresh.containsKey(channel)) {
+        removed++;
+      }
+    }
+    LOGGER.debug("menu from {}: {} channels, {} added, {} removed, {} changed", server,
+        fresh.size(), added, removed, changed);
+  }
+}
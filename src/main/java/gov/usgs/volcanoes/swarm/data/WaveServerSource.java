@@ -4,10 +4,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.TimeZone;
 
 import gov.usgs.volcanoes.core.data.HelicorderData;
@@ -21,7 +19,9 @@ import gov.usgs.volcanoes.swarm.SwarmConfig;
 
 /**
  * An implementation of <code>SeismicDataSource</code> that connects to an Earthworm Wave Server.
- * 
+ * Requests borrow a connection from a pool shared by all sources for the server with the same
+ * timeout, so several may run at once and gulpers can share one source rather than each making
+ * a copy. The server's menu is kept by {@link WaveServerMenu}.
  *
  * @author Dan Cervelli
  */
@@ -29,7 +29,7 @@ public class WaveServerSource extends SeismicDataSource {
   private final static Logger LOGGER = LoggerFactory.getLogger(WaveServerSource.class);
 
   private String params;
-  private WaveServer waveServer;
+  private ConnectionPool<WaveServer> pool;
   private int timeout = 2000;
 
   private String server;
@@ -38,10 +38,11 @@ public class WaveServerSource extends SeismicDataSource {
   private int gulpSize = 30 * 60;
   private int gulpDelay = 1 * 1000;
 
-  private TimeZone timeZone;
+  /** gulps in flight per gulper, or 0 to use {@link SwarmConfig#gulpConcurrency}. */
+  private int gulpConcurrency;
 
+  private TimeZone timeZone;
 
-  private static Map<String, Boolean> scnlSources = new HashMap<String, Boolean>();
 
   // explicit default constructor required for reflection
   public WaveServerSource() {}
@@ -62,53 +63,136 @@ public class WaveServerSource extends SeismicDataSource {
       timeZone = TimeZone.getTimeZone(ss[5]);
     else
       timeZone = TimeZone.getTimeZone("UTC");
+    gulpConcurrency = ss.length >= 7 ? Integer.parseInt(ss[6]) : 0;
+
+    openPool();
+  }
+
+  /**
+   * Take a share of the pool for the server and timeout, giving back any share held before.
+   * Sources with other timeouts get their own connections.
+   */
+  private void openPool() {
+    if (pool != null)
+      pool.close();
+    final SwarmConfig config = SwarmConfig.getInstance();
+    final String poolServer = server;
+    final int poolPort = port;
+    final int poolTimeout = timeout;
+    pool = ConnectionPool.open("ws:" + getServerKey() + ":" + timeout,
+        new ConnectionPool.Factory<WaveServer>() {
+          public WaveServer create() {
+            WaveServer waveServer = new WaveServer(poolServer, poolPort);
+            waveServer.setTimeout(poolTimeout);
+            return waveServer;
+          }
 
-    waveServer = new WaveServer(server, port);
-    setTimeout(timeout);
+          public void close(WaveServer waveServer) {
+            waveServer.close();
+          }
+        }, config.serverConnections, config.serverIdleTimeout * 1000L,
+        config.serverStaleTimeout * 1000L);
   }
 
   public String toConfigString() {
     String typeString = DataSourceType.getShortName(this.getClass());
-    return String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s", name, server, port, timeout,
-        gulpSize, gulpDelay, timeZone.getID());
+    String config = String.format("%s;" + typeString + ":%s:%d:%d:%d:%d:%s", name, server, port,
+        timeout, gulpSize, gulpDelay, timeZone.getID());
+    if (gulpConcurrency > 0)
+      config += ":" + gulpConcurrency;
+    return config;
   }
 
-  public boolean isSCNL(String p) {
-    Boolean b = scnlSources.get(p);
-    if (b == null) {
-      getMenu();
-      b = scnlSources.get(p);
-      if (b == null)
-        return false;
-    }
+  /**
+   * Get the key shared by all sources for this server.
+   * 
+   * @return host and port
+   */
+  private String getServerKey() {
+    return server + ":" + port;
+  }
+
+  /**
+   * Determine if the server's menu is SCNL.
+   * 
+   * @return true if SCNL
+   */
+  public boolean isSCNL() {
+    return WaveServerMenu.getInstance(getServerKey()).isSCNL(this);
+  }
 
-    return b.booleanValue();
+  /**
+   * Set the timeout for connections made from now on. Connections already open keep theirs.
+   * 
+   * @param to timeout in milliseconds
+   */
+  public void setTimeout(int to) {
+    if (to != timeout) {
+      timeout = to;
+      if (pool != null)
+        openPool();
+    }
   }
 
-  public static void setIsSCNL(String p, boolean b) {
-    scnlSources.put(p, b);
+  /**
+   * Close connections to the server which are not in use. The source may still be used.
+   */
+  public void close() {
+    if (pool != null)
+      pool.closeIdle();
   }
 
-  public synchronized void setTimeout(int to) {
-    waveServer.setTimeout(to);
+  /**
+   * Give up this source's share of the connection pool.
+   */
+  public void remove() {
+    if (pool != null)
+      pool.close();
   }
 
-  public synchronized void close() {
-    if (waveServer != null)
-      waveServer.close();
+  /**
+   * Get the server's menu from the menu cache, which fetches it only if it is missing or stale.
+   * 
+   * @return menu or null if the server cannot be reached
+   */
+  public Menu getMenu() {
+    return WaveServerMenu.getInstance(getServerKey()).getMenu(this);
   }
 
-  public synchronized Menu getMenu() {
-    Menu menu = waveServer.getMenuSCNL();
-    setIsSCNL(params, menu.isSCNL());
+  /**
+   * Fetch the server's menu. Called by the menu cache.
+   * 
+   * @return menu or null if the server cannot be reached
+   */
+  Menu fetchMenu() {
+    WaveServer waveServer = pool.borrow();
+    if (waveServer == null)
+      return null;
+
+    Menu menu;
+    try {
+      menu = waveServer.getMenuSCNL();
+    } catch (RuntimeException e) {
+      pool.invalidate(waveServer);
+      throw e;
+    }
+    pool.release(waveServer);
     return menu;
   }
 
+  /**
+   * Convert a time given by the server, in its own time zone, to J2K.
+   * 
+   * @param ew Earthworm time
+   * @return J2K time
+   */
+  double toJ2k(double ew) {
+    long ms = (long) (ew * 1000);
+    return J2kSec.fromEpoch(ms - timeZone.getOffset(ms));
+  }
+
   public String getFormattedSCNL(MenuItem mi) {
-    if (isSCNL(params))
-      return mi.getSCNL(" ");
-    else
-      return mi.getSCN(" ");
+    return WaveServerMenu.format(mi, isSCNL());
   }
 
   public List<String> getMenuList(List<MenuItem> items) {
@@ -120,7 +204,7 @@ public class WaveServerSource extends SeismicDataSource {
     return list;
   }
 
-  public synchronized Wave getWave(String station, double t1, double t2) {
+  public Wave getWave(String station, double t1, double t2) {
     CachedDataSource cache = CachedDataSource.getInstance();
     Wave sw = null;
     if (useCache)
@@ -129,7 +213,7 @@ public class WaveServerSource extends SeismicDataSource {
       String seperator = station.indexOf('$') != -1 ? "\\$" : " ";
       String[] ss = station.split(seperator);
       String loc = null;
-      if (isSCNL(params)) {
+      if (isSCNL()) {
         loc = "--";
         if (ss.length == 4)
           loc = ss[3];
@@ -137,7 +221,16 @@ public class WaveServerSource extends SeismicDataSource {
       double offset = timeZone.getOffset(J2kSec.asEpoch(t1));
       double at1 = Time.j2kToEw(t1) + offset / 1000.0;
       double at2 = Time.j2kToEw(t2) + offset / 1000.0;
-      sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
+      WaveServer waveServer = pool.borrow();
+      if (waveServer == null)
+        return null;
+      try {
+        sw = waveServer.getRawData(ss[0], ss[1], ss[2], loc, at1, at2);
+      } catch (RuntimeException e) {
+        pool.invalidate(waveServer);
+        throw e;
+      }
+      pool.release(waveServer);
       if (sw == null)
         return null;
       sw.convertToJ2K();
@@ -151,14 +244,14 @@ public class WaveServerSource extends SeismicDataSource {
     return sw;
   }
 
-  public synchronized List<String> getChannels() {
-    Menu menu = getMenu();
-    List<String> channels = getMenuList(menu.getSortedItems());
+  public List<String> getChannels() {
+    List<String> channels =
+        new ArrayList<String>(WaveServerMenu.getInstance(getServerKey()).getChannels(this));
     SwarmConfig.getInstance().assignMetadataSource(channels, this);
     return channels;
   }
 
-  public synchronized HelicorderData getHelicorder(String station, double t1, double t2,
+  public HelicorderData getHelicorder(String station, double t1, double t2,
       GulperListener gl) {
     double now = J2kSec.now();
     // if a time later than now has been asked for make sure to get the latest
@@ -170,15 +263,42 @@ public class WaveServerSource extends SeismicDataSource {
     HelicorderData hd = cache.getHelicorder(station, t1, t2, (GulperListener) null);
 
     if (hd == null || hd.rows() == 0 || (hd.getStartTime() - t1 > 10)) {
-      GulperList.INSTANCE.requestGulper("ws:" + station, gl, this.getCopy(), station, t1, t2,
-          gulpSize, gulpDelay);
+      GulperList.INSTANCE.requestGulper("ws:" + station, gl, this, station, t1, t2, gulpSize,
+          gulpDelay);
     }
     return hd;
   }
 
+  /**
+   * Sources are safe to share, so this returns the source itself.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getCopy()
+   */
+  @Deprecated
   public SeismicDataSource getCopy() {
-    return new WaveServerSource(this);
-}
+    return this;
+  }
+
+  /**
+   * Requests borrow their own connections, so one source may serve many threads.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#isShared()
+   */
+  @Override
+  public boolean isShared() {
+    return true;
+  }
+
+  /**
+   * Gulpers run several gulps at once, each on its own pooled connection. The number is set for
+   * the source in its config string, or else taken from {@link SwarmConfig#gulpConcurrency}.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getGulpConcurrency()
+   */
+  @Override
+  public int getGulpConcurrency() {
+    return gulpConcurrency > 0 ? gulpConcurrency : SwarmConfig.getInstance().gulpConcurrency;
+  }
 
   public synchronized void notifyDataNotNeeded(String station, double t1, double t2,
       GulperListener gl) {
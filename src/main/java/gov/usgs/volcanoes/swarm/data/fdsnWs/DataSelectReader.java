@@ -13,16 +13,19 @@ import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.TimeZone;
 
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.Version;
+import gov.usgs.volcanoes.swarm.data.MiniSeedDecoder;
 
 /**
  * The data select reader reads data from the web services. This class a based
@@ -42,6 +45,8 @@ public class DataSelectReader extends StringMSeedQueryReader {
   protected String userAgent = "Swarm/" + Version.POM_VERSION;
   /** The default web services URL. */
   public static final String DEFAULT_WS_URL = "http://service.iris.edu/fdsnws/dataselect/1/query";
+  /** Bytes read before a record's length is known; no record is shorter. */
+  private static final int PEEK_LENGTH = 128;
 
   /**
    * Create the data select reader with the default URL and timeout.
@@ -122,6 +127,29 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return query;
   }
 
+  /**
+   * Create one line of a POST request body. All arguments must be provided.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location or empty for the empty location code.
+   * @param channel the channel.
+   * @param begin the begin date.
+   * @param end the end date.
+   * @return the line, including its line feed.
+   * @see WebServiceUtils.EMPTY_LOC_CODE
+   */
+  public String createPostLine(String network, String station, String location, String channel,
+      Date begin, Date end) {
+    if (location == null || location.trim().length() == 0) {
+      location = WebServiceUtils.EMPTY_LOC_CODE;
+    }
+    SimpleDateFormat longFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+    longFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    return network + " " + station + " " + location + " " + channel + " "
+        + longFormat.format(begin) + " " + longFormat.format(end) + "\n";
+  }
+
   /**
    * Get the timeout in milliseconds.
    * 
@@ -159,6 +187,15 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return true;
   }
 
+  /**
+   * Process a data record decoded in place while streaming. Records the decoder cannot decode
+   * are passed to {@link #processRecord(DataRecord)} instead.
+   * 
+   * @param decoder the decoder holding the record, valid only until this returns.
+   */
+  public void processRecord(MiniSeedDecoder decoder) {
+  }
+
   /*
    * Read the data records.
    * 
@@ -185,6 +222,50 @@ public class DataSelectReader extends StringMSeedQueryReader {
    */
   public List<DataRecord> read(String query, List<DataRecord> records)
       throws IOException, SeisFileException {
+    return read(openQuery(query), records);
+  }
+
+  /**
+   * Stream the data records, decoding each in place and passing it to
+   * {@link #processRecord(MiniSeedDecoder)} as it arrives.
+   * 
+   * @param query the query.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  public void stream(String query) throws IOException, SeisFileException {
+    stream(openQuery(query));
+  }
+
+  /**
+   * Read the data records for many channels with one POST request.
+   * 
+   * @param body the request body, made of lines from
+   *        {@link #createPostLine(String, String, String, String, Date, Date)}.
+   * @param records the data record list or null if none.
+   * @return the data record list.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  public List<DataRecord> readPost(String body, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    return read(openPost(body), records);
+  }
+
+  /**
+   * Stream the data records for many channels with one POST request, decoding each in place and
+   * passing it to {@link #processRecord(MiniSeedDecoder)} as it arrives.
+   * 
+   * @param body the request body, made of lines from
+   *        {@link #createPostLine(String, String, String, String, Date, Date)}.
+   * @throws IOException if an I/O exception occurs.
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  public void streamPost(String body) throws IOException, SeisFileException {
+    stream(openPost(body));
+  }
+
+  private HttpURLConnection openQuery(String query) throws IOException {
     URL requestURL = new URL(urlBase + "?" + query);
     HttpURLConnection conn = (HttpURLConnection) requestURL.openConnection();
     if (timeoutMillis != 0) {
@@ -192,15 +273,52 @@ public class DataSelectReader extends StringMSeedQueryReader {
     }
     conn.setRequestProperty("User-Agent", userAgent);
     conn.connect();
+    return conn;
+  }
+
+  private HttpURLConnection openPost(String body) throws IOException {
+    URL requestURL = new URL(urlBase);
+    HttpURLConnection conn = (HttpURLConnection) requestURL.openConnection();
+    if (timeoutMillis != 0) {
+      conn.setReadTimeout(timeoutMillis);
+    }
+    conn.setRequestProperty("User-Agent", userAgent);
+    conn.setRequestMethod("POST");
+    conn.setRequestProperty("Content-Type", "text/plain");
+    conn.setDoOutput(true);
+    OutputStream out = conn.getOutputStream();
+    try {
+      out.write(body.getBytes("US-ASCII"));
+    } finally {
+      out.close();
+    }
+    return conn;
+  }
+
+  /**
+   * Check the response code.
+   * 
+   * @return true if there is data, false if none was found
+   * @throws SeisFileException if not OK repsonse code.
+   */
+  private static boolean hasData(HttpURLConnection conn) throws IOException, SeisFileException {
     if (conn.getResponseCode() != 200) {
       if (conn.getResponseCode() == 404) {
         LOGGER.info("reponse code 404, no data");
-        return records;
+        return false;
       } else {
         throw new SeisFileException("Did not get an OK repsonse code (code="
-            + conn.getResponseCode() + ", url=" + requestURL + "\"");
+            + conn.getResponseCode() + ", url=" + conn.getURL() + "\"");
       }
     }
+    return true;
+  }
+
+  private List<DataRecord> read(HttpURLConnection conn, List<DataRecord> records)
+      throws IOException, SeisFileException {
+    if (!hasData(conn)) {
+      return records;
+    }
     BufferedInputStream bif = new BufferedInputStream(conn.getInputStream());
     DataInputStream in = new DataInputStream(bif);
     while (true) {
@@ -223,6 +341,51 @@ public class DataSelectReader extends StringMSeedQueryReader {
     return records;
   }
 
+  /**
+   * Read records one at a time into a buffer which is reused, so nothing is allocated per
+   * record unless the decoder cannot decode it.
+   */
+  private void stream(HttpURLConnection conn) throws IOException, SeisFileException {
+    if (!hasData(conn)) {
+      return;
+    }
+    final MiniSeedDecoder decoder = new MiniSeedDecoder();
+    byte[] record = new byte[4096];
+    DataInputStream in = new DataInputStream(new BufferedInputStream(conn.getInputStream()));
+    try {
+      while (true) {
+        try {
+          in.readFully(record, 0, PEEK_LENGTH);
+        } catch (EOFException e) {
+          // end of data
+          break;
+        }
+        final int length = decoder.readRecordLength(record, 0, PEEK_LENGTH);
+        if (length < PEEK_LENGTH) {
+          throw new SeedFormatException("no record length in blockette 1000");
+        }
+        if (length > record.length) {
+          record = Arrays.copyOf(record, length);
+        }
+        in.readFully(record, PEEK_LENGTH, length - PEEK_LENGTH);
+
+        if (decoder.read(record, 0, length)) {
+          processRecord(decoder);
+          continue;
+        }
+        SeedRecord sr = SeedRecord.read(Arrays.copyOf(record, length));
+        if (sr instanceof DataRecord) {
+          processRecord((DataRecord) sr);
+        } else {
+          LOGGER.warn("Not a data record, skipping... {} {}",
+              sr.getControlHeader().getSequenceNum(), sr.getControlHeader().getTypeCode());
+        }
+      }
+    } finally {
+      in.close();
+    }
+  }
+
   /**
    * Set the timeout in milliseconds.
    * 
@@ -1,17 +1,23 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import edu.sc.seis.seisFile.mseed.DataHeader;
 import edu.sc.seis.seisFile.mseed.DataRecord;
 import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.MiniSeedDecoder;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
+import gov.usgs.volcanoes.swarm.data.WaveAssembler;
 
 public class WebServicesClient extends AbstractDataRecordClient {
   private static final Logger LOGGER = LoggerFactory.getLogger(WebServicesClient.class);
@@ -190,34 +196,29 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2) {
-    final Date begin = getDate(t1);
-    final Date end = getDate(t2);
-    final List<Wave> waves = createWaves();
-    final DataSelectReader reader = new DataSelectReader(wsDataSelectUrl) {
-      /**
-       * Process a data record.
-       * 
-       * @param dr the data record.
-       * @return true if data record should be added to the list, false
-       *         otherwise.
-       */
-      public boolean processRecord(DataRecord dr) {
-        try {
-          addWaves(waves, dr);
-        } catch (Exception ex) {
-          LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
-        }
-        return true;
-      }
-    };
+    return getRawData(channelInfo, t1, t2, null);
+  }
+
+  /**
+   * Get the raw data, passing parts of it to a listener as they are read.
+   * 
+   * @param channelInfo the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param listener the listener for parts, with index 0, or null if none.
+   * @return the raw data.
+   */
+  public Wave getRawData(final ChannelInfo channelInfo, final double t1, final double t2,
+      final PartListener listener) {
+    final WaveReader reader = new WaveReader(wsDataSelectUrl, 1, listener);
     try {
       final String query = reader.createQuery(channelInfo.getNetwork(), channelInfo.getStation(),
-          channelInfo.getLocation(), channelInfo.getChannel(), begin, end);
-      reader.read(query, (List<DataRecord>) null);
+          channelInfo.getLocation(), channelInfo.getChannel(), getDate(t1), getDate(t2));
+      reader.stream(query);
     } catch (Exception ex) {
       LOGGER.warn("could not get web service raw data ({}): {}", channelInfo, ex.getMessage());
     }
-    Wave wave = join(waves);
+    Wave wave = reader.getWaves().get(0);
     if (wave != null && WebServiceUtils.isDebug()) {
       LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
           getDateText(wave.getEndTime()) + ")");
@@ -225,6 +226,68 @@ public class WebServicesClient extends AbstractDataRecordClient {
     return wave;
   }
 
+  /**
+   * Get the raw data for many channels with a single POST request.
+   * 
+   * @param channels the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the raw data in the same order as the channels, null where there is none.
+   */
+  public List<Wave> getRawData(final List<ChannelInfo> channels, final double t1,
+      final double t2) {
+    return getRawData(channels, t1, t2, null);
+  }
+
+  /**
+   * Get the raw data for many channels with a single POST request, passing parts of it to a
+   * listener as they are read.
+   * 
+   * @param channels the channel information.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @param listener the listener for parts, indexed as the channels, or null if none.
+   * @return the raw data in the same order as the channels, null where there is none.
+   */
+  public List<Wave> getRawData(final List<ChannelInfo> channels, final double t1,
+      final double t2, final PartListener listener) {
+    final Date begin = getDate(t1);
+    final Date end = getDate(t2);
+    final WaveReader reader = new WaveReader(wsDataSelectUrl, channels.size(), listener);
+    final StringBuilder body = new StringBuilder();
+    for (final ChannelInfo channelInfo : channels) {
+      reader.addKey(getKey(channelInfo.getNetwork(), channelInfo.getStation(),
+          channelInfo.getLocation(), channelInfo.getChannel()));
+      body.append(reader.createPostLine(channelInfo.getNetwork(), channelInfo.getStation(),
+          channelInfo.getLocation(), channelInfo.getChannel(), begin, end));
+    }
+    try {
+      reader.streamPost(body.toString());
+    } catch (Exception ex) {
+      LOGGER.warn("could not get web service raw data ({} channels): {}", channels.size(),
+          ex.getMessage());
+    }
+    return reader.getWaves();
+  }
+
+  /**
+   * Get a key which matches a requested channel to the records returned for it.
+   * 
+   * @param network the network.
+   * @param station the station.
+   * @param location the location, blank or "--" if none.
+   * @param channel the channel.
+   * @return the key.
+   */
+  private static String getKey(final String network, final String station, String location,
+      final String channel) {
+    location = location == null ? "" : location.trim();
+    if (location.equals(WebServiceUtils.EMPTY_LOC_CODE)) {
+      location = "";
+    }
+    return network.trim() + "." + station.trim() + "." + location + "." + channel.trim();
+  }
+
   /**
    * Retrieve a single waveform without providing full SDS functions.
    * 
@@ -236,36 +299,17 @@ public class WebServicesClient extends AbstractDataRecordClient {
    * @return the raw data.
    */
   public static Wave getWave(final String code, final double t1, final double t2) {
-    final Date begin = getDate(t1);
-    final Date end = getDate(t2);
-    final List<Wave> waves = new ArrayList<Wave>();
-    final DataSelectReader reader =
-        new DataSelectReader(SwarmConfig.getInstance().fdsnDataselectURL) {
-          /**
-           * Process a data record.
-           * 
-           * @param dr the data record.
-           * @return true if data record should be added to the list, false
-           *         otherwise.
-           */
-          public boolean processRecord(DataRecord dr) {
-            try {
-              addWaves(waves, dr);
-            } catch (Exception ex) {
-              LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
-            }
-            return true;
-          }
-        };
+    final WaveReader reader =
+        new WaveReader(SwarmConfig.getInstance().fdsnDataselectURL, 1, null);
     try {
       String[] comps = code.split("\\$"); 
       final String query = reader.createQuery(comps[2], comps[0],
-          (comps.length > 3 ? comps[3] : "--"), comps[1], begin, end);
-      reader.read(query, (List<DataRecord>) null);
+          (comps.length > 3 ? comps[3] : "--"), comps[1], getDate(t1), getDate(t2));
+      reader.stream(query);
     } catch (Exception ex) {
       LOGGER.warn("could not get web service raw data ({}): {}", code, ex.getMessage());
     }
-    Wave wave = join(waves);
+    Wave wave = reader.getWaves().get(0);
     if (wave != null && WebServiceUtils.isDebug()) {
       LOGGER.debug("web service raw data ({}, {})", getDateText(wave.getStartTime()),
           getDateText(wave.getEndTime()) + ")");
@@ -277,4 +321,185 @@ public class WebServicesClient extends AbstractDataRecordClient {
     return stationClient;
   }
 
+  /**
+   * Receives parts of the raw data while it is read, so they can be used before the whole
+   * response has arrived. Together the parts hold every sample returned.
+   */
+  public interface PartListener {
+    /**
+     * Receive a part.
+     * 
+     * @param index the index of the channel the part is for.
+     * @param part the part, contiguous samples.
+     */
+    void received(int index, Wave part);
+  }
+
+  /**
+   * Reads a dataselect response, decoding each channel's contiguous records into one growing
+   * buffer which becomes the channel's wave, so a response without gaps is copied once at the end
+   * and never joined. Runs end only at gaps. When there is a listener the samples added to a run
+   * are also passed to it as a part every {@link #PART_INTERVAL} milliseconds and when the run
+   * ends.
+   */
+  private static final class WaveReader extends DataSelectReader {
+    /** how often a listener is passed the samples read for a channel, in milliseconds. */
+    private static final long PART_INTERVAL = 1000;
+
+    private final PartListener listener;
+    private final Map<String, Received> byKey;
+    private final List<Received> received;
+
+    /**
+     * Create the reader. With one channel every record is taken for it, as the server chose them.
+     * 
+     * @param url the web services data select URL text.
+     * @param channels the number of channels.
+     * @param listener the listener for parts or null if none.
+     */
+    private WaveReader(final String url, final int channels, final PartListener listener) {
+      super(url);
+      this.listener = listener;
+      byKey = new HashMap<String, Received>();
+      received = new ArrayList<Received>(channels);
+      for (int i = 0; i < channels; i++) {
+        received.add(new Received(i));
+      }
+    }
+
+    /**
+     * Match records to the next channel by key.
+     */
+    private void addKey(final String key) {
+      byKey.put(key, received.get(byKey.size()));
+    }
+
+    private Received getReceived(final String network, final String station,
+        final String location, final String channel) {
+      if (received.size() == 1) {
+        return received.get(0);
+      }
+      final Received r = byKey.get(getKey(network, station, location, channel));
+      if (r == null) {
+        LOGGER.debug("skipping unrequested channel {}.{}.{}.{}", network, station, location,
+            channel);
+      }
+      return r;
+    }
+
+    @Override
+    public void processRecord(final MiniSeedDecoder decoder) {
+      final Received r = getReceived(decoder.getNetwork(), decoder.getStation(),
+          decoder.getLocation(), decoder.getChannel());
+      if (r == null) {
+        return;
+      }
+      try {
+        if (!r.run.continues(decoder)) {
+          r.endRun();
+        }
+        r.run.add(decoder);
+        if (listener != null && System.currentTimeMillis() - r.lastPart >= PART_INTERVAL) {
+          r.part();
+        }
+      } catch (IOException ex) {
+        LOGGER.warn("could not decode web service raw data: {}", ex.getMessage());
+      }
+    }
+
+    /**
+     * Process a record the decoder cannot decode, keeping it in order with the run.
+     * 
+     * @return false, the records are not kept.
+     */
+    @Override
+    public boolean processRecord(final DataRecord dr) {
+      final DataHeader dh = dr.getHeader();
+      final Received r = getReceived(dh.getNetworkCode(), dh.getStationIdentifier(),
+          dh.getLocationIdentifier(), dh.getChannelIdentifier());
+      if (r == null) {
+        return false;
+      }
+      try {
+        r.endRun();
+        for (final Wave wave : addWaves(createWaves(), dr)) {
+          r.runs.add(wave);
+          r.pass(wave);
+        }
+      } catch (Exception ex) {
+        LOGGER.warn("could not get web service raw data ({}): {}", dh, ex.getMessage());
+      }
+      return false;
+    }
+
+    /**
+     * Get the waves read, ending the last run of each.
+     * 
+     * @return the waves in the same order as the channels, null where there are none.
+     */
+    private List<Wave> getWaves() {
+      final List<Wave> waves = new ArrayList<Wave>(received.size());
+      for (final Received r : received) {
+        r.endRun();
+        if (r.runs.isEmpty()) {
+          waves.add(null);
+        } else if (r.runs.size() == 1) {
+          waves.add(r.runs.get(0));
+        } else {
+          waves.add(join(r.runs));
+        }
+      }
+      return waves;
+    }
+
+    /**
+     * Samples read for one channel.
+     */
+    private final class Received {
+      private final int index;
+      private final WaveAssembler run;
+
+      /** runs ended so far, split only by gaps. */
+      private final List<Wave> runs;
+      private long lastPart;
+
+      private Received(final int index) {
+        this.index = index;
+        run = new WaveAssembler();
+        runs = createWaves();
+        lastPart = System.currentTimeMillis();
+      }
+
+      /**
+       * Pass the samples added to the run since the last part to the listener, if any.
+       */
+      private void part() {
+        if (listener != null) {
+          final Wave part = run.takePart();
+          if (part != null) {
+            pass(part);
+          }
+        }
+      }
+
+      /**
+       * End the run being read, if any.
+       */
+      private void endRun() {
+        part();
+        final Wave wave = run.take();
+        if (wave != null) {
+          runs.add(wave);
+        }
+      }
+
+      private void pass(final Wave part) {
+        lastPart = System.currentTimeMillis();
+        if (listener != null) {
+          listener.received(index, part);
+        }
+      }
+    }
+  }
+
 }
@@ -1,5 +1,6 @@
 package gov.usgs.volcanoes.swarm.data.fdsnWs;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -11,6 +12,7 @@ import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.swarm.ChannelGroupInfo;
 import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.DataSourceType;
 import gov.usgs.volcanoes.swarm.data.GulperList;
@@ -44,6 +46,8 @@ public class WebServicesSource extends SeismicDataSource {
   private int gulpDelay;
   /** The gulp size. */
   private int gulpSize;
+  /** Gulps in flight per gulper, or 0 to use {@link SwarmConfig#gulpConcurrency}. */
+  private int gulpConcurrency;
   // /** The channel. */
   // private String chan;
   // /** The location. */
@@ -116,8 +120,12 @@ public class WebServicesSource extends SeismicDataSource {
     gulpDelay = Integer.parseInt(ss[ssIndex++]);
     String wsDataSelectUrl = ss[ssIndex++];
     String wsStationUrl = ss[ssIndex++];
+    gulpConcurrency = ss.length > ssIndex ? Integer.parseInt(ss[ssIndex++]) : 0;
     configString = String.format("%s;%s:" + PARAM_FMT_TEXT, name, typeString, net, sta, loc, chan,
         gulpSize, gulpDelay, wsDataSelectUrl, wsStationUrl);
+    if (gulpConcurrency > 0) {
+      configString += "|" + gulpConcurrency;
+    }
     client = new WebServicesClient(this, net, sta, loc, chan, wsDataSelectUrl, wsStationUrl);
 /*    try {
       client.getStationClient().fetch();
@@ -165,6 +173,17 @@ public class WebServicesSource extends SeismicDataSource {
     return new WebServicesSource(this);
   }
 
+  /**
+   * Gulpers run several gulps at once, each with its own copy of this source. The number is set
+   * for the source in its config string, or else taken from {@link SwarmConfig#gulpConcurrency}.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getGulpConcurrency()
+   */
+  @Override
+  public int getGulpConcurrency() {
+    return gulpConcurrency > 0 ? gulpConcurrency : SwarmConfig.getInstance().gulpConcurrency;
+  }
+
   /**
    * Get the gulper key for the specified station.
    * 
@@ -231,16 +250,87 @@ public class WebServicesSource extends SeismicDataSource {
     }
     if (sw == null) {
       ChannelInfo channelInfo = new ChannelGroupInfo(station);
-      sw = client.getRawData(channelInfo, t1, t2);
+      // parts are cached as they are read
+      sw = client.getRawData(channelInfo, t1, t2,
+          createCachingListener(Collections.singletonList(station)));
+    }
+    return sw;
+  }
+
+  /**
+   * Get waves for several channels with one dataselect POST request, fetching only those not
+   * already cached.
+   * 
+   * @param stations the stations.
+   * @param t1 the start time.
+   * @param t2 the end time.
+   * @return the waves in the same order as the stations, null where there is none.
+   */
+  @Override
+  public synchronized List<Wave> getWaves(List<String> stations, double t1, double t2) {
+    CachedDataSource cache = CachedDataSource.getInstance();
+
+    List<Wave> waves = new ArrayList<Wave>(stations.size());
+    List<ChannelInfo> missing = new ArrayList<ChannelInfo>();
+    List<String> missingStations = new ArrayList<String>();
+    List<Integer> missingIndex = new ArrayList<Integer>();
+    for (String station : stations) {
+      Wave sw = null;
+      if (useCache) {
+        sw = cache.getWave(station, t1, t2);
+      }
       if (sw == null) {
-        return null;
+        missing.add(new ChannelGroupInfo(station));
+        missingStations.add(station);
+        missingIndex.add(waves.size());
       }
-      if (useCache) {
-        cache.cacheWaveAsHelicorder(station, sw);
-        cache.putWave(station, sw);
+      waves.add(sw);
+    }
+    if (missing.isEmpty()) {
+      return waves;
+    }
+
+    // parts are cached as they are read
+    List<Wave> fetched =
+        client.getRawData(missing, t1, t2, createCachingListener(missingStations));
+    for (int i = 0; i < fetched.size(); i++) {
+      Wave sw = fetched.get(i);
+      if (sw != null) {
+        waves.set(missingIndex.get(i), sw);
       }
     }
-    return sw;
+    return waves;
+  }
+
+  /**
+   * Create a listener which puts parts of waves in the cache as they are read, so helicorders
+   * fill while a request is still streaming.
+   * 
+   * @param stations the stations, indexed as the parts.
+   * @return the listener or null if the cache is not used.
+   */
+  private WebServicesClient.PartListener createCachingListener(final List<String> stations) {
+    if (!useCache) {
+      return null;
+    }
+    final CachedDataSource cache = CachedDataSource.getInstance();
+    return new WebServicesClient.PartListener() {
+      public void received(int index, Wave part) {
+        String station = stations.get(index);
+        cache.cacheWaveAsHelicorder(station, part);
+        cache.putWave(station, part);
+      }
+    };
+  }
+
+  /**
+   * Dataselect accepts many channels in one POST request.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#canBatchGulps()
+   */
+  @Override
+  public boolean canBatchGulps() {
+    return true;
   }
 
   /**
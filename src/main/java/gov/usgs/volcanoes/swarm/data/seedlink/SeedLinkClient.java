@@ -334,11 +334,6 @@ public class SeedLinkClient implements Runnable {
       return true;
     }
 
-    if (count % 10000 == 0) {
-      Runtime.getRuntime().gc();
-      LOGGER.debug("Packet count reached limit of 10000, garbage collection performed.");
-    }
-
     // may not be on AWT-Event Thread, so do not call any GUI methods
 
     // check if not a complete packet
@@ -385,27 +380,14 @@ public class SeedLinkClient implements Runnable {
     // if waveform and FSDH
     if (waveform != null && blockette.getType() == 999
         && Swarm.getApplicationFrame() != null) {
-      // convert waveform to wave (also done in
-      // gov.usgs.swarm.data.FileDataSource)
       try {
-        final Btime bTime = getBtime(blockette, 8);
-        final double factor = getDouble(blockette, 10);
-        final double multiplier = getDouble(blockette, 11);
-        final double startTime = J2kSec.fromDate(btimeToDate(bTime));
-        final double samplingRate = getSampleRate(factor,
-            multiplier);
-        final Wave wave = new Wave();
-        wave.setSamplingRate(samplingRate);
-        wave.setStartTime(startTime);
-        wave.buffer = waveform.getDecodedIntegers();
-        wave.register();
+        final Wave wave = createWave(blockette, waveform);
         cacheWave(scnl, wave);
         if (waveList != null) {
           waveList.add(wave);
         } else {
-          final double endTime = wave.getEndTime();
           synchronized (startEndTime) {
-            startEndTime.update(startTime, endTime);
+            startEndTime.update(wave.getStartTime(), wave.getEndTime());
           }
         }
       } catch (Exception ex) {
@@ -416,10 +398,31 @@ public class SeedLinkClient implements Runnable {
     return false; // do not close the connection
   }
 
+  /**
+   * Convert a data packet's waveform to a wave (also done in
+   * gov.usgs.swarm.data.FileDataSource).
+   * 
+   * @param blockette the fixed section of data header.
+   * @param waveform the waveform.
+   * @return the wave.
+   * @throws Exception if the packet cannot be decoded.
+   */
+  static Wave createWave(Blockette blockette, Waveform waveform) throws Exception {
+    final Btime bTime = getBtime(blockette, 8);
+    final double factor = getDouble(blockette, 10);
+    final double multiplier = getDouble(blockette, 11);
+    final Wave wave = new Wave();
+    wave.setSamplingRate(getSampleRate(factor, multiplier));
+    wave.setStartTime(J2kSec.fromDate(btimeToDate(bTime)));
+    wave.buffer = waveform.getDecodedIntegers();
+    wave.register();
+    return wave;
+  }
+
   /*
    * taken from Robert Casey's PDCC seed code.
    */
-  private float getSampleRate(double factor, double multiplier) {
+  private static float getSampleRate(double factor, double multiplier) {
     float sampleRate = (float) 10000.0; // default (impossible) value;
     if ((factor * multiplier) != 0.0) { // in the case of log records
       sampleRate = (float) (java.lang.Math.pow(java.lang.Math.abs(factor),
@@ -430,7 +433,7 @@ public class SeedLinkClient implements Runnable {
     return sampleRate;
   }
 
-  private Date btimeToDate(Btime btime) {
+  private static Date btimeToDate(Btime btime) {
     Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
     cal.set(Calendar.YEAR, btime.getYear());
     cal.set(Calendar.DAY_OF_YEAR, btime.getDayOfYear());
@@ -9,11 +9,11 @@ import gov.usgs.volcanoes.swarm.data.GulperList;
  * @author Kevin Frechette (ISTI)
  */
 public class SeedLinkGulper extends Gulper {
-  /** The SeedLink client. */
-  private final SeedLinkClient client;
+  /** The SeedLink source. */
+  private final SeedLinkSource source;
 
-  /** The start end time. */
-  private final StartEndTime startEndTime;
+  /** The subscription to the channel on the server's shared connection. */
+  private final SeedLinkServer.Subscription subscription;
 
   /**
    * Constructor.
@@ -30,11 +30,15 @@ public class SeedLinkGulper extends Gulper {
   public SeedLinkGulper(GulperList gl, String k, SeedLinkSource source,
       String ch, double t1, double t2, int size, int delay) {
     super(gl, k, source, ch, t1, t2, size, delay);
-    startEndTime = new StartEndTime();
-    // start client with no end time to keep getting updates
-    client = source.createClient();
-    client.init(ch, t1, Double.NaN);
-    client.start();
+    this.source = source;
+    // subscribe with no end time to keep getting updates, passed along as they reach the cache
+    subscription = source.subscribe(ch, t1, new SeedLinkServer.Listener() {
+      public void received(double start, double end) {
+        if (!isKilled()) {
+          fireGulped(start, end, true);
+        }
+      }
+    });
   }
 
   /**
@@ -43,34 +47,28 @@ public class SeedLinkGulper extends Gulper {
    * @return true if the gulper has been killed or was never started.
    */
   public boolean isKilled() {
-    return super.isKilled() || client.isKilled();
+    return super.isKilled() || subscription.isCancelled();
   }
 
   /**
    * Kill this gulper.
    */
   protected void kill() {
-    client.kill();
+    source.unsubscribe(subscription);
     super.kill();
   }
 
   /**
-   * This is the run loop.
+   * Keep the gulper alive; the subscription passes data along as it arrives.
+   * 
+   * @return true until the subscription is cancelled
    */
-  protected void runLoop() {
-    while (!isKilled()) {
-      client.getStartEndTime(startEndTime);
-      if (!Double.isNaN(startEndTime.getEndTime())) {
-        fireGulped(startEndTime.getStartTime(),
-            startEndTime.getEndTime(), true);
-        startEndTime.clear();
-      }
-      delay();
-    }
+  protected boolean gulp() {
+    return !isKilled();
   }
 
   public void update(double t1, double t2) {
-    // we do not need to do Gulper update since the SeedLink client will
+    // we do not need to do Gulper update since the SeedLink subscription will
     // keep getting updates and fire them to the listeners
   }
 }
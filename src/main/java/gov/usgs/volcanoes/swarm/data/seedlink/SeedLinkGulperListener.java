@@ -42,6 +42,10 @@ public class SeedLinkGulperListener implements GulperListener {
     }
   }
 
+  public boolean isVisible() {
+    return false;
+  }
+
   public void read() {
     lastRead = System.currentTimeMillis();
   }
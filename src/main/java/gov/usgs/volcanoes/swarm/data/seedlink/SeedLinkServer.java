@@ -0,0 +1,819 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import edu.iris.Fissures.seed.container.Blockette;
+import edu.iris.Fissures.seed.container.BlocketteDecoratorFactory;
+import edu.iris.Fissures.seed.container.Waveform;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.core.time.J2kSec;
+import gov.usgs.volcanoes.swarm.ChannelInfo;
+import gov.usgs.volcanoes.swarm.ChannelUtil;
+import gov.usgs.volcanoes.swarm.Swarm;
+import gov.usgs.volcanoes.swarm.SwarmConfig;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
+import gov.usgs.volcanoes.swarm.data.MiniSeedDecoder;
+import gov.usgs.volcanoes.swarm.data.WaveAssembler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import nl.knmi.orfeus.seedlink.SLLog;
+import nl.knmi.orfeus.seedlink.SLPacket;
+import nl.knmi.orfeus.seedlink.SeedLinkException;
+import nl.knmi.orfeus.seedlink.client.SeedLinkConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One multiplexed SeedLink connection to a server, shared by every source and gulper reading
+ * from it. Channels are subscribed to and unsubscribed from as they are needed, and each data
+ * packet is routed by network, station, location and channel to the cache and to the
+ * subscriptions for its channel.
+ *
+ * <p>SeedLink fixes a connection's streams when they are negotiated, so subscribing to a channel
+ * the connection does not carry, or to earlier data than it has carried, reconnects it. The
+ * reconnect waits a moment so that subscriptions made together are taken up together. A station
+ * resumes from the last sequence number received if the cache already holds what its
+ * subscriptions ask for up to the last record received; the rest start from the earliest time
+ * asked for. Sequence numbers are saved in a state file in the disk cache directory, as
+ * slinktool does, so this holds across restarts too. Records already in the cache are dropped.
+ * A channel no longer subscribed to is dropped at the next reconnect and its packets are
+ * discarded until then. Once nothing is subscribed the connection is closed.
+ *
+ * <p>Records are not put in the cache one by one. Each channel's contiguous records are decoded
+ * into a buffer which is reused from batch to batch, and the batch is put in the cache as one
+ * wave every {@link #COMMIT_INTERVAL} milliseconds or when a record does not continue it. Each
+ * subscription's listener is then told the span now in the cache, so listeners hear of new data
+ * well within a second without polling.
+ *
+ * @author Tom Parker
+ */
+public final class SeedLinkServer {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SeedLinkServer.class);
+
+  /** how long to wait for further subscriptions before connecting, in milliseconds. */
+  private static final long SUBSCRIBE_DELAY = 500;
+
+  /** how long to wait after a connection fails before trying again, in milliseconds. */
+  private static final long RETRY_DELAY = 10000;
+
+  /** how often records held for a channel are put in the cache, in milliseconds. */
+  private static final long COMMIT_INTERVAL = 250;
+
+  /** how often sequence numbers are saved while connected, in milliseconds. */
+  private static final long STATE_INTERVAL = 60000;
+
+  /** format of state file times. */
+  private static final String STATE_TIME_FORMAT = "yyyy,MM,dd,HH,mm,ss";
+
+  /** servers by address. */
+  private static final Map<String, SeedLinkServer> SERVERS =
+      new HashMap<String, SeedLinkServer>();
+
+  /** reconnects servers whose subscriptions have changed and commits held records. */
+  private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+  static {
+    SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "SeedLink scheduler");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  private final String address;
+
+  /** where sequence numbers are saved, or null if nowhere. */
+  private final File stateFile;
+
+  /** cache records are put in. */
+  private final AbstractCachingDataSource cache;
+
+  /** records held for the cache by channel key, guarded by itself. */
+  private final Map<String, WaveAssembler> ingests;
+
+  /** the rest are guarded by this server. */
+
+  /** subscriptions by channel key. */
+  private final Map<String, List<Subscription>> subscriptions;
+
+  /** last sequence number received by station key. */
+  private final Map<String, Integer> sequences;
+
+  /** end of the last record received by station key. */
+  private final Map<String, Double> lastTimes;
+
+  /** time from which the connection has carried each channel, by channel key. */
+  private Map<String, Double> streamedFrom;
+
+  private SeedLinkConnection connection;
+  private Thread thread;
+  private boolean reconnectPending;
+
+  private SeedLinkServer(final String host, final int port) {
+    this(host + ":" + port, getStateFile(host, port), CachedDataSource.getInstance());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param address server address, host:port
+   * @param stateFile where sequence numbers are saved, or null if nowhere
+   * @param cache cache records are put in
+   */
+  SeedLinkServer(final String address, final File stateFile,
+      final AbstractCachingDataSource cache) {
+    this.address = address;
+    this.stateFile = stateFile;
+    this.cache = cache;
+    subscriptions = new LinkedHashMap<String, List<Subscription>>();
+    sequences = new HashMap<String, Integer>();
+    lastTimes = new HashMap<String, Double>();
+    streamedFrom = new HashMap<String, Double>();
+    ingests = new HashMap<String, WaveAssembler>();
+    loadState();
+  }
+
+  /**
+   * Get where a server's sequence numbers are saved.
+   *
+   * @return state file in the disk cache directory, or null if there is none
+   */
+  private static File getStateFile(final String host, final int port) {
+    final String dir = SwarmConfig.getInstance().diskCacheDir;
+    return dir == null ? null : new File(dir, "seedlink_" + host + "_" + port + ".state");
+  }
+
+  /**
+   * Get the shared connection to a server.
+   *
+   * @param host server host
+   * @param port server port
+   * @return server
+   */
+  public static SeedLinkServer getInstance(final String host, final int port) {
+    final String address = host + ":" + port;
+    synchronized (SERVERS) {
+      SeedLinkServer server = SERVERS.get(address);
+      if (server == null) {
+        server = new SeedLinkServer(host, port);
+        SERVERS.put(address, server);
+      }
+      return server;
+    }
+  }
+
+  /**
+   * Put every server's held records in the cache and save its sequence numbers. Call at shutdown,
+   * before the cache is persisted.
+   */
+  public static void saveAll() {
+    final List<SeedLinkServer> servers;
+    synchronized (SERVERS) {
+      servers = new ArrayList<SeedLinkServer>(SERVERS.values());
+    }
+    for (final SeedLinkServer server : servers) {
+      server.commitAll();
+      server.saveState();
+    }
+  }
+
+  /**
+   * Subscribe to a channel. Data arriving for it is put in the cache under the given name and
+   * the listener told, until the subscription is cancelled.
+   *
+   * @param scnl channel
+   * @param t1 time to stream from, or NaN for new data only
+   * @param listener listener to tell of data put in the cache
+   * @return subscription
+   */
+  public Subscription subscribe(final String scnl, final double t1, final Listener listener) {
+    final Subscription subscription = new Subscription(scnl, t1, listener);
+    synchronized (this) {
+      List<Subscription> list = subscriptions.get(subscription.key);
+      if (list == null) {
+        list = new ArrayList<Subscription>();
+        subscriptions.put(subscription.key, list);
+      }
+      list.add(subscription);
+
+      if (thread == null) {
+        thread = new Thread(new Runnable() {
+          public void run() {
+            SeedLinkServer.this.run();
+          }
+        }, "SeedLink " + address);
+        thread.setDaemon(true);
+        thread.start();
+      } else if (!isCarried(subscription)) {
+        scheduleReconnect();
+      }
+    }
+    LOGGER.debug("subscribed to {} from {}", scnl, address);
+    return subscription;
+  }
+
+  /**
+   * Cancel a subscription.
+   */
+  private synchronized void unsubscribe(final Subscription subscription) {
+    final List<Subscription> list = subscriptions.get(subscription.key);
+    if (list == null || !list.remove(subscription)) {
+      return;
+    }
+    if (list.isEmpty()) {
+      subscriptions.remove(subscription.key);
+    }
+    if (subscriptions.isEmpty() && connection != null) {
+      connection.terminate();
+    }
+    LOGGER.debug("unsubscribed from {} at {}", subscription.scnl, address);
+  }
+
+  /**
+   * Does the current connection carry the data a subscription asks for? Call while synchronized.
+   */
+  private boolean isCarried(final Subscription subscription) {
+    final Double from = streamedFrom.get(subscription.key);
+    return from != null && !(subscription.getFrom() < from);
+  }
+
+  /**
+   * Can a station be resumed from its sequence number without losing what a channel asks for?
+   * It can if a sequence number is known for the station and the cache holds the channel from
+   * the time asked for up to the last record received, whether from this session or, through
+   * the state file and disk cache, an earlier one.
+   *
+   * @param stationKey network and station, as NET_STA
+   * @param scnl channel as the cache names it
+   * @param from time asked for
+   * @return true if the station can be resumed
+   */
+  synchronized boolean canResume(final String stationKey, final String scnl, final double from) {
+    final Double last = lastTimes.get(stationKey);
+    return sequences.containsKey(stationKey) && last != null && from <= last
+        && cache.inWaveCache(scnl, from, last);
+  }
+
+  /**
+   * Reconnect shortly, unless a reconnect is already pending. Call while synchronized.
+   */
+  private void scheduleReconnect() {
+    if (reconnectPending) {
+      return;
+    }
+    reconnectPending = true;
+    SCHEDULER.schedule(new Runnable() {
+      public void run() {
+        synchronized (SeedLinkServer.this) {
+          if (reconnectPending && connection != null) {
+            connection.terminate();
+          }
+        }
+      }
+    }, SUBSCRIBE_DELAY, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Read from the server until nothing is subscribed, reconnecting whenever the subscriptions
+   * call for it.
+   */
+  private void run() {
+    final ScheduledFuture<?> committer = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        try {
+          commitAll();
+        } catch (final RuntimeException e) {
+          LOGGER.error("Exception while committing SeedLink data", e);
+        }
+      }
+    }, COMMIT_INTERVAL, COMMIT_INTERVAL, TimeUnit.MILLISECONDS);
+    final ScheduledFuture<?> saver = SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        saveState();
+      }
+    }, STATE_INTERVAL, STATE_INTERVAL, TimeUnit.MILLISECONDS);
+
+    sleep(SUBSCRIBE_DELAY);
+    while (true) {
+      final SeedLinkConnection conn;
+      synchronized (this) {
+        if (subscriptions.isEmpty()) {
+          thread = null;
+          connection = null;
+          streamedFrom = new HashMap<String, Double>();
+          committer.cancel(false);
+          saver.cancel(false);
+          synchronized (ingests) {
+            ingests.clear();
+          }
+          saveState();
+          LOGGER.debug("closed connection to {}", address);
+          return;
+        }
+        conn = connect();
+      }
+
+      boolean failed = conn == null;
+      if (conn != null) {
+        try {
+          collect(conn);
+        } catch (final Exception e) {
+          LOGGER.warn("Error reading from SeedLink server {}: {}", address, e.getMessage());
+          failed = true;
+        }
+        conn.close();
+      }
+      if (failed) {
+        sleep(RETRY_DELAY);
+      }
+    }
+  }
+
+  /**
+   * Set up a connection for the current subscriptions. Call while synchronized.
+   *
+   * @return connection or null if it cannot be set up
+   */
+  private SeedLinkConnection connect() {
+    reconnectPending = false;
+
+    // channel keys by station
+    final Map<String, List<String>> stations = new LinkedHashMap<String, List<String>>();
+    for (final Map.Entry<String, List<Subscription>> entry : subscriptions.entrySet()) {
+      final String station = entry.getValue().get(0).getStationKey();
+      List<String> keys = stations.get(station);
+      if (keys == null) {
+        keys = new ArrayList<String>();
+        stations.put(station, keys);
+      }
+      keys.add(entry.getKey());
+    }
+
+    final SeedLinkConnection conn = new SeedLinkConnection(new SLLog());
+    conn.setSLAddress(address);
+    final Map<String, Double> from = new HashMap<String, Double>();
+    double begin = Double.NaN;
+    try {
+      for (final Map.Entry<String, List<String>> entry : stations.entrySet()) {
+        boolean backfill = !sequences.containsKey(entry.getKey());
+        double stationFrom = Double.POSITIVE_INFINITY;
+        final StringBuilder selectors = new StringBuilder();
+        final Map<String, Double> keyFrom = new HashMap<String, Double>();
+        Subscription first = null;
+        for (final String key : entry.getValue()) {
+          double earliest = Double.POSITIVE_INFINITY;
+          for (final Subscription s : subscriptions.get(key)) {
+            backfill |= !isCarried(s) && !canResume(entry.getKey(), s.scnl, s.getFrom());
+            earliest = Math.min(earliest, s.getFrom());
+            first = first == null ? s : first;
+          }
+          keyFrom.put(key, earliest);
+          stationFrom = Math.min(stationFrom, earliest);
+          if (selectors.length() > 0) {
+            selectors.append(' ');
+          }
+          selectors.append(subscriptions.get(key).get(0).getSelector());
+        }
+
+        final int sequence;
+        if (backfill) {
+          sequence = -1;
+          sequences.remove(entry.getKey());
+          begin = Double.isNaN(begin) ? stationFrom : Math.min(begin, stationFrom);
+          for (final String key : entry.getValue()) {
+            from.put(key, stationFrom);
+          }
+        } else {
+          sequence = sequences.get(entry.getKey());
+          for (final String key : entry.getValue()) {
+            final Double streamed = streamedFrom.get(key);
+            final double earliest = keyFrom.get(key);
+            from.put(key, streamed == null ? earliest : Math.min(streamed, earliest));
+          }
+        }
+        conn.addStream(first.network, first.station, selectors.toString(), sequence, null);
+      }
+      if (!Double.isNaN(begin)) {
+        conn.setBeginTime(J2kSec.format("yyyy,MM,dd,HH,mm,ss", begin));
+      }
+    } catch (final SeedLinkException e) {
+      LOGGER.warn("Cannot set up SeedLink streams for {}: {}", address, e.getMessage());
+      return null;
+    }
+
+    LOGGER.debug("connecting to {} for {} channels at {} stations", address, from.size(),
+        stations.size());
+    streamedFrom = from;
+    connection = conn;
+    return conn;
+  }
+
+  /**
+   * Read packets until the connection is terminated.
+   */
+  private void collect(final SeedLinkConnection conn) throws Exception {
+    final MiniSeedDecoder decoder = new MiniSeedDecoder();
+    SLPacket slpack;
+    while ((slpack = conn.collect()) != null && slpack != SLPacket.SLTERMINATE) {
+      if (slpack == SLPacket.SLNOPACKET || slpack == SLPacket.SLERROR) {
+        continue;
+      }
+
+      try {
+        final byte[] record = slpack.msrecord;
+        if (record != null && decoder.read(record, 0, record.length)) {
+          route(slpack, decoder);
+        } else {
+          routeBlockette(slpack);
+        }
+      } catch (final Exception e) {
+        LOGGER.warn("Cannot decode SeedLink packet from {}: {}", address, e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Add a data record read straight from its bytes to its channel's buffer, first committing
+   * the buffer if the record does not continue it.
+   */
+  private void route(final SLPacket slpack, final MiniSeedDecoder decoder) throws Exception {
+    final String network = decoder.getNetwork();
+    final String station = decoder.getStation();
+    final String key = getKey(station, decoder.getChannel(), network, decoder.getLocation());
+    final double start = decoder.getStartTime();
+    final double end = start + decoder.getSampleCount() / decoder.getSamplingRate();
+    final Subscription[] routed = getRouted(slpack, network, station, key, end);
+    if (routed == null
+        || cache.inWaveCache(routed[0].scnl, start, end)) {
+      return;
+    }
+
+    Wave held = null;
+    synchronized (ingests) {
+      WaveAssembler ingest = ingests.get(key);
+      if (ingest == null) {
+        ingest = new WaveAssembler();
+        ingests.put(key, ingest);
+      }
+      if (!ingest.continues(decoder)) {
+        held = ingest.take();
+      }
+      ingest.add(decoder);
+    }
+    if (held != null) {
+      commit(key, held);
+    }
+  }
+
+  /**
+   * Pass a packet the decoder cannot read to the cache and to the subscriptions for its channel,
+   * decoding it through its blockette. This is slower, but copes with any encoding.
+   */
+  private void routeBlockette(final SLPacket slpack) throws Exception {
+    final int type = slpack.getType(); // ensure the blockette is created if needed
+    // reset the volume counter
+    BlocketteDecoratorFactory.reset();
+    if (type == SLPacket.TYPE_SLINF || type == SLPacket.TYPE_SLINFT) {
+      return;
+    }
+
+    final Blockette blockette = slpack.getBlockette();
+    final Waveform waveform = blockette.getWaveform();
+    if (waveform == null || blockette.getType() != 999) {
+      return;
+    }
+
+    final String station = getField(blockette, 4);
+    final String location = getField(blockette, 5);
+    final String channel = getField(blockette, 6);
+    final String network = getField(blockette, 7);
+    final String key = getKey(station, channel, network, location);
+    if (getRouted(slpack, network, station, key, Double.NaN) == null) {
+      return;
+    }
+
+    // keep the channel's records in order
+    final Wave held;
+    synchronized (ingests) {
+      final WaveAssembler ingest = ingests.get(key);
+      held = ingest == null ? null : ingest.take();
+    }
+    if (held != null) {
+      commit(key, held);
+    }
+    commit(key, SeedLinkClient.createWave(blockette, waveform));
+  }
+
+  /**
+   * Commit the records held for every channel.
+   */
+  private void commitAll() {
+    final Map<String, Wave> held = new HashMap<String, Wave>();
+    synchronized (ingests) {
+      for (final Map.Entry<String, WaveAssembler> entry : ingests.entrySet()) {
+        final Wave wave = entry.getValue().take();
+        if (wave != null) {
+          held.put(entry.getKey(), wave);
+        }
+      }
+    }
+    for (final Map.Entry<String, Wave> entry : held.entrySet()) {
+      commit(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Note a packet's sequence number and end time, and get the subscriptions for its channel.
+   *
+   * @return subscriptions or null if the packet is not wanted
+   */
+  private Subscription[] getRouted(final SLPacket slpack, final String network,
+      final String station, final String key, final double end) {
+    synchronized (this) {
+      noteReceived(network + "_" + station, slpack.getSequenceNumber(), end);
+      final List<Subscription> list = subscriptions.get(key);
+      if (list == null) {
+        return null;
+      }
+      if (Swarm.getApplicationFrame() == null) {
+        return null;
+      }
+      return list.toArray(new Subscription[list.size()]);
+    }
+  }
+
+  /**
+   * Note the sequence number and end time of the last record received for a station.
+   *
+   * @param stationKey network and station, as NET_STA
+   * @param sequence sequence number
+   * @param end end of the record, or NaN if unknown
+   */
+  synchronized void noteReceived(final String stationKey, final int sequence, final double end) {
+    sequences.put(stationKey, sequence);
+    if (!Double.isNaN(end)) {
+      lastTimes.put(stationKey, end);
+    }
+  }
+
+  /**
+   * Put a wave in the cache and tell the subscriptions for its channel.
+   */
+  private void commit(final String key, final Wave wave) {
+    final Subscription[] routed;
+    synchronized (this) {
+      final List<Subscription> list = subscriptions.get(key);
+      if (list == null) {
+        synchronized (ingests) {
+          ingests.remove(key);
+        }
+        return;
+      }
+      routed = list.toArray(new Subscription[list.size()]);
+    }
+
+    final Set<String> names = new LinkedHashSet<String>();
+    for (final Subscription s : routed) {
+      names.add(s.scnl);
+    }
+    for (final String name : names) {
+      cache.putWave(name, wave);
+      cache.cacheWaveAsHelicorder(name, wave);
+    }
+    for (final Subscription s : routed) {
+      s.received(wave.getStartTime(), wave.getEndTime());
+    }
+  }
+
+  /**
+   * Read sequence numbers saved by an earlier session. Each line holds a network, station,
+   * sequence number and the time of the last record, as in a slinktool state file.
+   */
+  private void loadState() {
+    if (stateFile == null || !stateFile.canRead()) {
+      return;
+    }
+
+    BufferedReader reader = null;
+    try {
+      reader = new BufferedReader(new FileReader(stateFile));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        final String[] fields = line.trim().split("\\s+");
+        if (fields.length < 3) {
+          continue;
+        }
+        try {
+          final String stationKey = fields[0] + "_" + fields[1];
+          sequences.put(stationKey, Integer.parseInt(fields[2]));
+          if (fields.length > 3) {
+            lastTimes.put(stationKey, parseStateTime(fields[3]));
+          }
+        } catch (final NumberFormatException e) {
+          LOGGER.debug("skipping SeedLink state line {}", line);
+        }
+      }
+      LOGGER.debug("read {} sequence numbers for {}", sequences.size(), address);
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot read SeedLink state file {}: {}", stateFile, e.getMessage());
+    } finally {
+      try {
+        if (reader != null) {
+          reader.close();
+        }
+      } catch (final IOException ignore) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Save sequence numbers so a later session can resume from them.
+   */
+  void saveState() {
+    if (stateFile == null) {
+      return;
+    }
+
+    final StringBuilder state = new StringBuilder();
+    synchronized (this) {
+      if (sequences.isEmpty()) {
+        return;
+      }
+      for (final Map.Entry<String, Integer> entry : sequences.entrySet()) {
+        final String[] names = entry.getKey().split("_", 2);
+        final Double last = lastTimes.get(entry.getKey());
+        state.append(names[0]).append(' ').append(names[1]).append(' ').append(entry.getValue());
+        if (last != null) {
+          state.append(' ').append(J2kSec.format(STATE_TIME_FORMAT, last));
+        }
+        state.append('\n');
+      }
+    }
+
+    final File temp = new File(stateFile.getPath() + ".tmp");
+    FileWriter writer = null;
+    try {
+      writer = new FileWriter(temp);
+      writer.write(state.toString());
+      writer.close();
+      writer = null;
+      if (!temp.renameTo(stateFile) && !(stateFile.delete() && temp.renameTo(stateFile))) {
+        LOGGER.warn("Cannot replace SeedLink state file {}", stateFile);
+      }
+    } catch (final IOException e) {
+      LOGGER.warn("Cannot write SeedLink state file {}: {}", stateFile, e.getMessage());
+    } finally {
+      try {
+        if (writer != null) {
+          writer.close();
+        }
+      } catch (final IOException ignore) {
+        // ignore
+      }
+    }
+  }
+
+  /**
+   * Parse a state file time, "year,month,day,hour,minute,second".
+   */
+  private static double parseStateTime(final String text) {
+    final String[] fields = text.split(",");
+    if (fields.length != 6) {
+      throw new NumberFormatException("bad time " + text);
+    }
+    final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+    cal.clear();
+    cal.set(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]) - 1,
+        Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+        Integer.parseInt(fields[5]));
+    return J2kSec.fromDate(cal.getTime());
+  }
+
+  private static String getField(final Blockette blockette, final int fieldNum)
+      throws Exception {
+    final Object value = blockette.getFieldVal(fieldNum);
+    return value == null ? "" : value.toString().trim();
+  }
+
+  /**
+   * Get the key under which packets for a channel are routed.
+   */
+  private static String getKey(final String station, final String channel, final String network,
+      final String location) {
+    final String loc = "--".equals(location) ? "" : location;
+    return ChannelUtil.getFormattedSCNL(station, channel, network, loc);
+  }
+
+  private static void sleep(final long ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (final InterruptedException ignore) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Told of data put in the cache for a subscription.
+   */
+  public interface Listener {
+    /**
+     * Data has been put in the cache. Called on a SeedLink thread.
+     *
+     * @param t1 start of the new data
+     * @param t2 end of the new data
+     */
+    void received(double t1, double t2);
+  }
+
+  /**
+   * A subscription to one channel.
+   */
+  public final class Subscription {
+    private final String scnl;
+    private final String key;
+    private final String network;
+    private final String station;
+    private final String selector;
+    private final double t1;
+    private final Listener listener;
+    private volatile boolean cancelled;
+
+    private Subscription(final String scnl, final double t1, final Listener listener) {
+      this.scnl = scnl;
+      this.t1 = t1;
+      this.listener = listener;
+      final ChannelInfo info = new ChannelInfo(scnl);
+      network = info.getNetwork();
+      station = info.getStation();
+      final String location = "--".equals(info.getLocation()) ? "" : info.getLocation();
+      key = getKey(station, info.getChannel(), network, location);
+      selector = location + info.getChannel() + "." + SeedLinkChannelInfo.DATA_TYPE;
+    }
+
+    /**
+     * Is this subscription cancelled?
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Stop routing data to this subscription.
+     */
+    public void cancel() {
+      cancelled = true;
+      unsubscribe(this);
+    }
+
+    private void received(final double start, final double end) {
+      if (!cancelled) {
+        listener.received(start, end);
+      }
+    }
+
+    /**
+     * Get the time to stream from.
+     */
+    private double getFrom() {
+      return Double.isNaN(t1) ? J2kSec.now() : t1;
+    }
+
+    private String getStationKey() {
+      return network + "_" + station;
+    }
+
+    private String getSelector() {
+      return selector;
+    }
+  }
+}
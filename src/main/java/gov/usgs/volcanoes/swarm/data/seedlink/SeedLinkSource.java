@@ -21,8 +21,10 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +65,9 @@ public class SeedLinkSource extends SeismicDataSource {
   /** SeedLink client list. */
   private final List<SeedLinkClient> seedLinkClientList;
 
+  /** Subscriptions on the server's shared connection. */
+  private final Set<SeedLinkServer.Subscription> subscriptions;
+
   /** time of last gulped data access. */
   private Map<String, SeedLinkGulperListener> gulperListeners;
 
@@ -72,6 +77,7 @@ public class SeedLinkSource extends SeismicDataSource {
   public SeedLinkSource() {
     LOGGER.debug("Constructing new seedlink source");
     seedLinkClientList = new ArrayList<SeedLinkClient>();
+    subscriptions = new HashSet<SeedLinkServer.Subscription>();
     gulperListeners = new HashMap<String, SeedLinkGulperListener>();
 
   }
@@ -117,6 +123,16 @@ public class SeedLinkSource extends SeismicDataSource {
         seedLinkClientList.clear();
       }
     }
+
+    // cancel subscriptions
+    final List<SeedLinkServer.Subscription> cancelled;
+    synchronized (subscriptions) {
+      cancelled = new ArrayList<SeedLinkServer.Subscription>(subscriptions);
+      subscriptions.clear();
+    }
+    for (SeedLinkServer.Subscription subscription : cancelled) {
+      subscription.cancel();
+    }
   }
 
 
@@ -207,12 +223,24 @@ public class SeedLinkSource extends SeismicDataSource {
   }
 
   /**
-   * Get a copy of this data source.
+   * A copy would read from the same shared connection, so this returns the source itself.
    * 
-   * @return a copy of this data source.
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#getCopy()
    */
+  @Deprecated
   public SeismicDataSource getCopy() {
-    return new SeedLinkSource(name, params);
+    return this;
+  }
+
+  /**
+   * Every source for a server reads from the server's one shared connection, so one source may
+   * serve many gulpers.
+   * 
+   * @see gov.usgs.volcanoes.swarm.data.SeismicDataSource#isShared()
+   */
+  @Override
+  public boolean isShared() {
+    return true;
   }
 
   /**
@@ -275,7 +303,7 @@ public class SeedLinkSource extends SeismicDataSource {
       gulperListener = new SeedLinkGulperListener();
       gulperListeners.put(scnl, gulperListener);
       Gulper gulper = GulperList.INSTANCE.requestGulper(getGulperKey(scnl), gulperListener,
-          this.getCopy(), scnl, t1, t2, 0, 1000);
+          this, scnl, t1, t2, 0, 1000);
       gulperListener.setGulper(gulper);
     }
 
@@ -331,6 +359,38 @@ public class SeedLinkSource extends SeismicDataSource {
   }
 
 
+  /**
+   * Subscribe to a channel on the server's shared connection.
+   * 
+   * @param scnl the scnl.
+   * @param t1 the time to stream from or NaN for new data only.
+   * @param listener the listener to tell of data put in the cache.
+   * @return the subscription.
+   */
+  protected SeedLinkServer.Subscription subscribe(String scnl, double t1,
+      SeedLinkServer.Listener listener) {
+    final SeedLinkServer.Subscription subscription =
+        SeedLinkServer.getInstance(host, port).subscribe(scnl, t1, listener);
+    synchronized (subscriptions) {
+      subscriptions.add(subscription);
+    }
+    return subscription;
+  }
+
+
+  /**
+   * Cancel a subscription.
+   * 
+   * @param subscription the subscription.
+   */
+  protected void unsubscribe(SeedLinkServer.Subscription subscription) {
+    synchronized (subscriptions) {
+      subscriptions.remove(subscription);
+    }
+    subscription.cancel();
+  }
+
+
   /**
    * Remove the client.
    * 
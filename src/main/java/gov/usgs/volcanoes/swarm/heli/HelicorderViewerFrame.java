@@ -13,13 +13,17 @@ import gov.usgs.volcanoes.core.ui.GridBagHelper;
 import gov.usgs.volcanoes.core.util.UiUtils;
 import gov.usgs.volcanoes.swarm.Icons;
 import gov.usgs.volcanoes.swarm.Kioskable;
+import gov.usgs.volcanoes.swarm.RefreshScheduler;
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.SwingWorker;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource;
+import gov.usgs.volcanoes.swarm.data.CachedDataSource;
 import gov.usgs.volcanoes.swarm.data.GulperListener;
+import gov.usgs.volcanoes.swarm.data.HelicorderStore;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSourceListener;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
@@ -100,7 +104,10 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
   public static final int[] zoomValues = new int[] {1, 2, 5, 10, 20, 30, 
       MINUTE, 2 * MINUTE, 5 * MINUTE, 10 * MINUTE, 20 * MINUTE, 40 * MINUTE, 1 * HOUR, 90 * MINUTE};
 
-  private final RefreshThread refreshThread;
+  /** how often to check for a return to live data when not refreshing, in milliseconds. */
+  private static final long IDLE_REFRESH = 30 * 1000;
+
+  private final RefreshScheduler.Registration refreshTask;
   private final SeismicDataSource dataSource;
   private JPanel mainPanel;
   private JToolBar toolBar;
@@ -171,7 +178,12 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     processStandardLayout(cf);
     setVisible(true);
     getHelicorder();
-    refreshThread = new RefreshThread();
+    refreshTask = RefreshScheduler.getInstance().register(this, dataSource, IDLE_REFRESH,
+        new RefreshScheduler.Refreshable() {
+          public void refresh() {
+            HelicorderViewerFrame.this.refresh();
+          }
+        });
   }
 
   /**
@@ -191,7 +203,12 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
     createUi();
     setVisible(true);
     getHelicorder();
-    refreshThread = new RefreshThread();
+    refreshTask = RefreshScheduler.getInstance().register(this, dataSource, IDLE_REFRESH,
+        new RefreshScheduler.Refreshable() {
+          public void refresh() {
+            HelicorderViewerFrame.this.refresh();
+          }
+        });
   }
 
   /**
@@ -506,7 +523,7 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       public void internalFrameClosing(final InternalFrameEvent e) {
         dispose();
         throbber.close();
-        refreshThread.kill();
+        refreshTask.cancel();
         SwarmInternalFrames.remove(HelicorderViewerFrame.this);
         WaveViewTime.removeTimeListener(timeListener);
         dataSource.notifyDataNotNeeded(settings.channel, helicorderViewPanel.getStartTime(),
@@ -562,6 +579,10 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           getHelicorder();
         }
       }
+
+      public boolean isVisible() {
+        return HelicorderViewerFrame.this.isVisible() && !HelicorderViewerFrame.this.isIcon();
+      }
     };
 
     dataListener = new SeismicDataSourceListener() {
@@ -779,8 +800,17 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
    * Get and draw helicorder. 
    */
   public void getHelicorder() {
+    startHelicorder();
+  }
+
+  /**
+   * Start getting the helicorder in the background and draw it when it arrives.
+   * 
+   * @return worker getting the helicorder, or null if there is no data to get
+   */
+  private SwingWorker startHelicorder() {
     if (noData) {
-      return;
+      return null;
     }
     final SwingWorker worker = new SwingWorker() {
       private double end;
@@ -806,8 +836,13 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
           }
 
           if (!HelicorderViewerFrame.this.isClosed) {
-            hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc, end + tc,
-                gulperListener);
+            // coarse rows the cache already holds spare the source a one second fetch
+            hd = getCachedCoarseHelicorder(before - tc, end + tc, tc);
+            if (hd == null) {
+              hd = dataSource.getHelicorder(settings.channel.replace(' ', '$'), before - tc,
+                  end + tc, gulperListener);
+              hd = getCoarseHelicorder(hd, before - tc, end + tc, tc);
+            }
             success = true;
           } else {
             success = false;
@@ -842,82 +877,182 @@ public class HelicorderViewerFrame extends SwarmFrame implements Kioskable {
       }
     };
     worker.start();
+    return worker;
   }
 
-  public Wave getWave(final double t1, final double t2) {
-    return dataSource.getWave(settings.channel.replace(' ', '$'), t1, t2);
+  /**
+   * Get coarse helicorder rows from the cache, if the plot is too narrow to show one second rows
+   * and the cache holds the span without gaps. A live span's newest rows are still fetched from
+   * the data source, which puts them in the cache, so the view keeps up with now.
+   * 
+   * @param t1 start time
+   * @param t2 end time
+   * @param timeChunk seconds per helicorder row
+   * @return coarse helicorder data, or null if the data source must be asked for the span
+   */
+  private HelicorderData getCachedCoarseHelicorder(final double t1, final double t2,
+      final int timeChunk) {
+    final double resolution = getCoarseResolution(timeChunk);
+    if (Double.isNaN(resolution)) {
+      return null;
+    }
+
+    final int level = HelicorderStore.RESOLUTIONS[HelicorderStore.getLevel(resolution)];
+    final AbstractCachingDataSource cache = getHelicorderCache();
+    HelicorderData coarse = cache.getHelicorderAtResolution(settings.channel, t1, t2, resolution);
+    if (!isContiguous(coarse, level) || coarse.getStartTime() > t1 + level) {
+      return null;
+    }
+
+    final double now = J2kSec.now();
+    if (t2 > now - level) {
+      // the last cached row may be up to a row old
+      dataSource.getHelicorder(settings.channel.replace(' ', '$'), coarse.getEndTime(), t2,
+          gulperListener);
+      coarse = cache.getHelicorderAtResolution(settings.channel, t1, t2, resolution);
+      if (!isContiguous(coarse, level)) {
+        return null;
+      }
+    }
+
+    if (coarse.getEndTime() < Math.min(t2, now) - level) {
+      return null;
+    }
+    return coarse;
   }
 
-  public SeismicDataSource getDataSource() {
-    return dataSource;
+  /**
+   * Are there helicorder rows, none more than a row apart?
+   * 
+   * @param hd helicorder data, may be null
+   * @param level seconds per row
+   * @return true if there are rows without gaps
+   */
+  private static boolean isContiguous(final HelicorderData hd, final int level) {
+    if (hd == null || hd.getData() == null || hd.rows() == 0) {
+      return false;
+    }
+    final double maxStep = level * 1.5;
+    for (int i = 1; i < hd.rows(); i++) {
+      if (hd.getData().getQuick(i, 0) - hd.getData().getQuick(i - 1, 0) > maxStep) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Swap helicorder data for coarser rows from the cache, if the plot is too narrow to show one
+   * second rows.
+   * 
+   * @param hd helicorder data from the data source
+   * @param t1 start time
+   * @param t2 end time
+   * @param timeChunk seconds per helicorder row
+   * @return coarser helicorder data, or hd if the cache cannot stand in for it
+   */
+  private HelicorderData getCoarseHelicorder(final HelicorderData hd, final double t1,
+      final double t2, final int timeChunk) {
+    if (hd == null || hd.getData() == null) {
+      return hd;
+    }
+
+    final double resolution = getCoarseResolution(timeChunk);
+    if (Double.isNaN(resolution)) {
+      return hd;
+    }
+
+    final int level = HelicorderStore.RESOLUTIONS[HelicorderStore.getLevel(resolution)];
+    final HelicorderData coarse =
+        getHelicorderCache().getHelicorderAtResolution(settings.channel, t1, t2, resolution);
+
+    // the source may have returned data the cache doesn't hold
+    if (coarse == null || coarse.getStartTime() > hd.getStartTime() + level
+        || coarse.getEndTime() < hd.getEndTime() - level) {
+      return hd;
+    }
+    return coarse;
   }
 
-  private class RefreshThread extends Thread {
-    private boolean kill = false;
+  /**
+   * Get the longest helicorder row which still gives at least one row per pixel column.
+   * 
+   * @param timeChunk seconds per helicorder row
+   * @return row length in seconds, or NaN if the plot needs one second rows
+   */
+  private double getCoarseResolution(final int timeChunk) {
+    if (helicorderViewPanel == null) {
+      return Double.NaN;
+    }
 
-    public RefreshThread() {
-      super("HeliRefresh-" + settings.channel);
-      this.setPriority(Thread.MIN_PRIORITY);
-      start();
+    final int width = helicorderViewPanel.getWidth() - HelicorderViewPanel.X_OFFSET
+        - HelicorderViewPanel.RIGHT_WIDTH;
+    if (width <= 0) {
+      return Double.NaN;
     }
 
-    public void kill() {
-      kill = true;
-      this.interrupt();
+    final double resolution = (double) timeChunk / width;
+    if (HelicorderStore.RESOLUTIONS[HelicorderStore.getLevel(resolution)] == 1) {
+      return Double.NaN;
     }
+    return resolution;
+  }
 
-    @Override
-    public void run() {
-      while (!kill) {
-        // enforce a dataSource-specific minimum refresh interval
-        int refreshInterval;
-        if (settings.refreshInterval == 0 || dataSource.getMinimumRefreshInterval() == 0) {
-          refreshInterval = 0;
-        } else {
-          refreshInterval =
-              Math.max(settings.refreshInterval, dataSource.getMinimumRefreshInterval());
-        }
+  private AbstractCachingDataSource getHelicorderCache() {
+    if (dataSource instanceof AbstractCachingDataSource) {
+      return (AbstractCachingDataSource) dataSource;
+    } else {
+      return CachedDataSource.getInstance();
+    }
+  }
 
-        final long lastUi = System.currentTimeMillis() - UiTime.getTime();
-        final boolean reset = swarmConfig.isKiosk() && lastUi > 10 * 60 * 1000;
-        // TODO: extract magic number
-        if (reset || !Double.isNaN(settings.getBottomTime())
-            && settings.getLastBottomTimeSet() > 10 * 60 * 1000) {
-          helicorderViewPanel.removeWaveInset();
-          helicorderViewPanel.clearMarks();
-          settings.setBottomTime(Double.NaN);
-          if (swarmConfig.isKiosk() && !Swarm.isFullScreenMode()) {
-            ((Swarm)Swarm.getApplicationFrame()).toggleFullScreenMode();
-          }
-        }
+  public Wave getWave(final double t1, final double t2) {
+    return dataSource.getWave(settings.channel.replace(' ', '$'), t1, t2);
+  }
 
-        try {
-          final long now = System.currentTimeMillis();
-          final long sleepTime = Math.min(now - lastRefreshTime, refreshInterval * 1000);
+  public SeismicDataSource getDataSource() {
+    return dataSource;
+  }
 
-          if (refreshInterval > 0) {
-            Thread.sleep(sleepTime);
-          } else {
-            Thread.sleep(30 * 1000);
-          }
-        } catch (final Exception e) {
-          //
-        }
+  /**
+   * Refresh a live helicorder, and return to live data after a spell without input. Runs on a
+   * refresh scheduler thread and waits for the helicorder to arrive.
+   */
+  private void refresh() {
+    // enforce a dataSource-specific minimum refresh interval
+    int refreshInterval;
+    if (settings.refreshInterval == 0 || dataSource.getMinimumRefreshInterval() == 0) {
+      refreshInterval = 0;
+    } else {
+      refreshInterval =
+          Math.max(settings.refreshInterval, dataSource.getMinimumRefreshInterval());
+    }
+    // null only if the first refresh comes before the constructor finishes
+    if (refreshTask != null) {
+      refreshTask.setInterval(refreshInterval > 0 ? refreshInterval * 1000 : IDLE_REFRESH);
+    }
 
-        final long now = System.currentTimeMillis();
+    final long lastUi = System.currentTimeMillis() - UiTime.getTime();
+    final boolean reset = swarmConfig.isKiosk() && lastUi > 10 * 60 * 1000;
+    // TODO: extract magic number
+    if (reset || !Double.isNaN(settings.getBottomTime())
+        && settings.getLastBottomTimeSet() > 10 * 60 * 1000) {
+      helicorderViewPanel.removeWaveInset();
+      helicorderViewPanel.clearMarks();
+      settings.setBottomTime(Double.NaN);
+      if (swarmConfig.isKiosk() && !Swarm.isFullScreenMode()) {
+        ((Swarm)Swarm.getApplicationFrame()).toggleFullScreenMode();
+      }
+    }
 
-        if (!kill && refreshInterval > 0 && (now - lastRefreshTime) > refreshInterval * 1000) {
-          try {
-            final double bt = settings.getBottomTime();
-            if (dataSource.isActiveSource() && Double.isNaN(bt)) {
-              if (!working) {
-                getHelicorder();
-              }
-            }
-          } catch (final Exception e) {
-            System.err.println("Exception during refresh:");
-            e.printStackTrace();
-          }
+    // skip if something else refreshed the helicorder lately
+    final long now = System.currentTimeMillis();
+    if (refreshInterval > 0 && (now - lastRefreshTime) > refreshInterval * 1000 / 2) {
+      final double bt = settings.getBottomTime();
+      if (dataSource.isActiveSource() && Double.isNaN(bt) && !working) {
+        final SwingWorker worker = startHelicorder();
+        if (worker != null) {
+          worker.get();
         }
       }
     }
@@ -19,15 +19,16 @@ import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.UiUtils;
 import gov.usgs.volcanoes.swarm.Icons;
+import gov.usgs.volcanoes.swarm.RefreshScheduler;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
-import gov.usgs.volcanoes.swarm.data.RsamSource;
+import gov.usgs.volcanoes.swarm.data.GulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
 import gov.usgs.volcanoes.swarm.rsam.RsamViewSettings.ViewType;
 
-public class RsamRatioFrame extends JInternalFrame implements Runnable, SettingsListener {
+public class RsamRatioFrame extends JInternalFrame implements SettingsListener {
 
   private static final long serialVersionUID = 6845450797054744223L;
 
@@ -42,9 +43,9 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
   private JPanel rsamPanel;
   private RsamRatioPanel viewPanel;
   private int spanIndex;
-  private Thread updateThread;
-  private boolean run;
+  private RefreshScheduler.Registration refresh;
   private Throbber throbber;
+  private GulperListener gulperListener;
   
   private RsamViewSettings settings;
   
@@ -78,9 +79,6 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
   }
   
   private void init() {
-    run = true;
-    updateThread =
-        new Thread(this, "RsamRatioFrame-" + channel1 + "-" + ds1 + "-" + channel2 + "-" + ds2);
     settings = new RsamViewSettings();
     settings.addListener(this);
   }
@@ -148,17 +146,44 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
         throbber.close();
         pause();
         SwarmInternalFrames.remove(RsamRatioFrame.this);
+        ds1.notifyRsamNotNeeded(channel1, gulperListener);
+        ds2.notifyRsamNotNeeded(channel2, gulperListener);
         ds1.close();
         ds2.close();
       }
     });
 
+    gulperListener = new GulperListener() {
+      public void gulperStarted() {
+        throbber.increment();
+      }
+
+      public void gulperStopped(boolean killed) {
+        throbber.decrement();
+      }
+
+      public void gulperGulped(double t1, double t2, boolean success) {
+        if (success) {
+          getRsamRatio();
+        }
+      }
+
+      public boolean isVisible() {
+        return RsamRatioFrame.this.isVisible() && !RsamRatioFrame.this.isIcon();
+      }
+    };
+
     this.setDefaultCloseOperation(JInternalFrame.DISPOSE_ON_CLOSE);
     this.setContentPane(mainPanel);
     this.setSize(750, 280);
     this.setVisible(true);
 
-    updateThread.start();
+    refresh = RefreshScheduler.getInstance().register(this, ds1, intervalMs,
+        new RefreshScheduler.Refreshable() {
+          public void refresh() {
+            getRsamRatio();
+          }
+        });
   }
 
   /**
@@ -181,9 +206,13 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
 
     double et = now;
     et += period - (et % period);
-    RSAMData data1 = ((RsamSource) ds1).getRsam(channel1, st, et, period);
-    RSAMData data2 = ((RsamSource) ds2).getRsam(channel2, st, et, period);
-    RSAMData ratData = data1.getRatSAM(data2);
+    RSAMData data1 = ds1.getRsam(channel1, st, et, period, gulperListener);
+    RSAMData data2 = ds2.getRsam(channel2, st, et, period, gulperListener);
+    // either may be missing until its waves are gulped; the panel shows no data meanwhile
+    RSAMData ratData = null;
+    if (data1 != null && data2 != null) {
+      ratData = data1.getRatSAM(data2);
+    }
     viewPanel.setData(ratData, now - settings.getSpanLength(), now);
     viewPanel.setChannel(channel1);
     viewPanel.setWorking(false);
@@ -192,8 +221,7 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
   }
   
   public void pause() {
-    run = false;
-    updateThread.interrupt();
+    refresh.cancel();
   }
   
   /**
@@ -211,18 +239,4 @@ public class RsamRatioFrame extends JInternalFrame implements Runnable, Settings
     getRsamRatio();
   }
 
-  /**
-   * @see java.lang.Runnable#run()
-   */
-  public void run() {
-    while (run) {
-      try {
-        getRsamRatio();
-        Thread.sleep(intervalMs);
-      } catch (InterruptedException e) {
-        //
-      }
-    }
-  }
-
 }
@@ -7,13 +7,14 @@ import gov.usgs.volcanoes.core.data.RSAMData;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.UiUtils;
 import gov.usgs.volcanoes.swarm.Icons;
+import gov.usgs.volcanoes.swarm.RefreshScheduler;
 import gov.usgs.volcanoes.swarm.Swarm;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
 import gov.usgs.volcanoes.swarm.chooser.DataChooser;
-import gov.usgs.volcanoes.swarm.data.RsamSource;
+import gov.usgs.volcanoes.swarm.data.GulperListener;
 import gov.usgs.volcanoes.swarm.data.SeismicDataSource;
 import gov.usgs.volcanoes.swarm.internalFrame.SwarmInternalFrames;
 import gov.usgs.volcanoes.swarm.rsam.RsamViewSettings.ViewType;
@@ -45,7 +46,7 @@ import javax.swing.event.InternalFrameEvent;
  * RSAM Viewer Frame.
  * @author Tom Parker
  */
-public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsListener {
+public class RsamViewerFrame extends SwarmFrame implements SettingsListener {
   public static final long serialVersionUID = -1;
   private static final int H_TO_S = 60 * 60;
   private static final int D_TO_S = 24 * H_TO_S;
@@ -57,8 +58,7 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
   private int spanIndex;
   private SeismicDataSource dataSource;
   private String channel;
-  private Thread updateThread;
-  private boolean run;
+  private RefreshScheduler.Registration refresh;
   private JToolBar toolBar;
   private JButton captureButton;
 
@@ -70,6 +70,8 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
 
   private Throbber throbber;
 
+  private GulperListener gulperListener;
+
   /**
    * RSAM viewer frame constructor.
    * @param sds seismic data source
@@ -95,8 +97,6 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
       this.settings = settings;
     }
     this.settings.addListener(this);
-    run = true;
-    updateThread = new Thread(this, "RsamViewerFrame-" + sds + "-" + ch);
     createUi();
     this.settings.setSpanLength(2 * D_TO_S);
   }
@@ -176,16 +176,42 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
         throbber.close();
         pause();
         SwarmInternalFrames.remove(RsamViewerFrame.this);
+        dataSource.notifyRsamNotNeeded(channel, gulperListener);
         dataSource.close();
       }
     });
 
+    gulperListener = new GulperListener() {
+      public void gulperStarted() {
+        throbber.increment();
+      }
+
+      public void gulperStopped(boolean killed) {
+        throbber.decrement();
+      }
+
+      public void gulperGulped(double t1, double t2, boolean success) {
+        if (success) {
+          getRsam();
+        }
+      }
+
+      public boolean isVisible() {
+        return RsamViewerFrame.this.isVisible() && !RsamViewerFrame.this.isIcon();
+      }
+    };
+
     this.setDefaultCloseOperation(JInternalFrame.DISPOSE_ON_CLOSE);
     this.setContentPane(mainPanel);
     this.setSize(750, 280);
     this.setVisible(true);
 
-    updateThread.start();
+    refresh = RefreshScheduler.getInstance().register(this, dataSource, intervalMs,
+        new RefreshScheduler.Refreshable() {
+          public void refresh() {
+            getRsam();
+          }
+        });
   }
   
   /**
@@ -244,7 +270,7 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
 
     double et = now;
     et += period - (et % period);
-    RSAMData data = ((RsamSource) dataSource).getRsam(channel, st, et, period);
+    RSAMData data = dataSource.getRsam(channel, st, et, period, gulperListener);
     viewPanel.setData(data, now - settings.getSpanLength(), now);
     viewPanel.setChannel(channel);
     viewPanel.setWorking(false);
@@ -253,24 +279,7 @@ public class RsamViewerFrame extends SwarmFrame implements Runnable, SettingsLis
   }
 
   public void pause() {
-    run = false;
-    updateThread.interrupt();
-  }
-
-  /**
-   * Run thread.
-   * @see java.lang.Runnable#run()
-   */
-  public void run() {
-    while (run) {
-      try {
-        getRsam();
-        Thread.sleep(intervalMs);
-      } catch (InterruptedException e) {
-        //
-      }
-    }
-    dataSource.close();
+    refresh.cancel();
   }
 
   /**
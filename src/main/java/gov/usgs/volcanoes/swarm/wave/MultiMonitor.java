@@ -25,8 +25,6 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import javax.swing.AbstractAction;
 import javax.swing.BorderFactory;
@@ -53,6 +51,7 @@ import gov.usgs.volcanoes.core.util.UiUtils;
 import gov.usgs.volcanoes.swarm.Icons;
 import gov.usgs.volcanoes.swarm.Kioskable;
 import gov.usgs.volcanoes.swarm.Metadata;
+import gov.usgs.volcanoes.swarm.RefreshScheduler;
 import gov.usgs.volcanoes.swarm.SwarmConfig;
 import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
@@ -97,11 +96,10 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
 
   private final Map<String, Wave> waveMap;
 
-  private final Timer timer;
   private long slideInterval = 500;
   private long refreshInterval = 1000;
-  private SlideTask slideTask;
-  private RefreshTask refreshTask;
+  private RefreshScheduler.Registration slideTask;
+  private RefreshScheduler.Registration refreshTask;
 
   private int labelFontSize;
   private Font font;
@@ -122,7 +120,6 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     dataSource.setUseCache(false);
     panels = new ArrayList<WaveViewPanel>();
     createUi();
-    timer = new Timer("Monitor Timer [" + sds.getName() + "]");
     setIntervals();
   }
 
@@ -182,17 +179,28 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
   }
 
   private void setIntervals() {
-    if (slideTask != null) {
-      slideTask.cancel();
-    }
-    if (refreshTask != null) {
-      refreshTask.cancel();
+    if (slideTask == null) {
+      // sliding only redraws, so it isn't batched with the source
+      slideTask = RefreshScheduler.getInstance().register(this, null, slideInterval,
+          new RefreshScheduler.Refreshable() {
+            public void refresh() {
+              if (panels.size() > 0) {
+                slide();
+              }
+            }
+          });
+      refreshTask = RefreshScheduler.getInstance().register(this, dataSource, refreshInterval,
+          new RefreshScheduler.Refreshable() {
+            public void refresh() throws Exception {
+              if (panels.size() > 0) {
+                refresh();
+              }
+            }
+          });
+    } else {
+      slideTask.setInterval(slideInterval);
+      refreshTask.setInterval(refreshInterval);
     }
-    timer.purge();
-    slideTask = new SlideTask();
-    refreshTask = new RefreshTask();
-    timer.schedule(slideTask, 0, slideInterval);
-    timer.schedule(refreshTask, 0, refreshInterval);
   }
 
   public void setDataSource(final SeismicDataSource sds) {
@@ -487,7 +495,8 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
       public void internalFrameClosing(final InternalFrameEvent e) {
         throbber.close();
         selectedIndex = -1;
-        timer.cancel();
+        slideTask.cancel();
+        refreshTask.cancel();
         dataSource.close();
         panels.clear();
         wavePanel.removeAll();
@@ -726,31 +735,16 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     return times;
   }
 
-  private boolean sliding = false;
-
-  private synchronized void slide() {
-    if (sliding) {
-      return;
+  private void slide() {
+    final double[] times = getTimeWindow();
+    final double now = times[1];
+    final double start = times[0];
+    for (int i = 0; i < panels.size(); i++) {
+      final WaveViewPanel waveViewPanel = panels.get(i);
+      final Wave wave = waveMap.get(waveViewPanel.getChannel());
+      waveViewPanel.setWave(wave, start, now);
     }
-
-    final Runnable r = new Runnable() {
-      public void run() {
-        sliding = true;
-        final double[] times = getTimeWindow();
-        final double now = times[1];
-        final double start = times[0];
-        for (int i = 0; i < panels.size(); i++) {
-          final WaveViewPanel waveViewPanel = panels.get(i);
-          final Wave wave = waveMap.get(waveViewPanel.getChannel());
-          waveViewPanel.setWave(wave, start, now);
-        }
-        wavePanel.repaint();
-        sliding = false;
-      }
-    };
-
-    final Thread worker = new Thread(r);
-    worker.start();
+    wavePanel.repaint();
   }
 
   /**
@@ -768,64 +762,69 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
     return pauseStartTime;
   }
 
-  private void refresh() {
-    if (throbber.getCount() >= 1) {
-      return;
-    }
-
-    final Runnable r = new Runnable() {
-      public void run() {
-        throbber.increment();
-        String channel = null;
-
-        final double[] times = getTimeWindow();
-        final double now = times[1];
-        final double start = times[0];
-        for (int i = 0; i < panels.size(); i++) {
-          final WaveViewPanel wvp = panels.get(i);
-          wvp.setWorking(true);
-          channel = wvp.getChannel();
-          try {
-            Wave sw = waveMap.get(channel);
-            if (sw != null) {
-              if (sw.overlaps(start, now)) { // runaway monitor bug fix
-                if (sw.getEndTime() < now) {
-                  final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
-                  if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
-                    sw = sw.combine(w2);
-                  }
+  /**
+   * Get new data for every channel. A channel which fails doesn't stop the rest; the first
+   * failure is thrown afterwards, so the refresh scheduler backs off.
+   *
+   * @throws Exception the first failure getting a channel's data
+   */
+  private void refresh() throws Exception {
+    throbber.increment();
+    String channel = null;
+    Exception failure = null;
+
+    final double[] times = getTimeWindow();
+    final double now = times[1];
+    final double start = times[0];
+    try {
+      for (int i = 0; i < panels.size(); i++) {
+        final WaveViewPanel wvp = panels.get(i);
+        wvp.setWorking(true);
+        channel = wvp.getChannel();
+        try {
+          Wave sw = waveMap.get(channel);
+          if (sw != null) {
+            if (sw.overlaps(start, now)) { // runaway monitor bug fix
+              if (sw.getEndTime() < now) {
+                final Wave w2 = dataSource.getWave(channel, sw.getEndTime() - 10, now);
+                if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
+                  sw = sw.combine(w2);
                 }
-                if (sw.getStartTime() > start) {
-                  final Wave w2 = dataSource.getWave(channel, start, sw.getStartTime() + 10);
-                  if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
-                    sw = sw.combine(w2);
-                  }
+              }
+              if (sw.getStartTime() > start) {
+                final Wave w2 = dataSource.getWave(channel, start, sw.getStartTime() + 10);
+                if (w2 != null && (sw.overlaps(w2) || sw.adjacent(w2))) {
+                  sw = sw.combine(w2);
                 }
-                sw = sw.subset(start, sw.getEndTime());
-              } else {
-                sw = null;
               }
+              sw = sw.subset(start, sw.getEndTime());
+            } else {
+              sw = null;
             }
+          }
 
-            // something bad happened above, just get the whole wave
-            if (sw == null) {
-              sw = dataSource.getWave(channel, start, now);
-            }
-            if (sw != null) {
-              waveMap.put(channel, sw);
-            }
-          } catch (final Throwable t) {
-            System.out.println(channel);
-            t.printStackTrace();
+          // something bad happened above, just get the whole wave
+          if (sw == null) {
+            sw = dataSource.getWave(channel, start, now);
+          }
+          if (sw != null) {
+            waveMap.put(channel, sw);
           }
+        } catch (final Exception e) {
+          if (failure == null) {
+            failure = new Exception("Cannot refresh " + channel + ": " + e, e);
+          }
+        } finally {
           wvp.setWorking(false);
         }
-        throbber.decrement();
       }
-    };
+    } finally {
+      throbber.decrement();
+    }
 
-    final Thread worker = new Thread(r);
-    worker.start();
+    if (failure != null) {
+      throw failure;
+    }
   }
 
   /**
@@ -842,22 +841,4 @@ public class MultiMonitor extends SwarmFrame implements Kioskable {
       wavePanel.setBorder(border);
     }
   }
-
-  private class SlideTask extends TimerTask {
-    @Override
-    public void run() {
-      if (panels.size() > 0) {
-        slide();
-      }
-    }
-  }
-
-  private class RefreshTask extends TimerTask {
-    @Override
-    public void run() {
-      if (panels.size() > 0) {
-        refresh();
-      }
-    }
-  }
 }
@@ -1427,6 +1427,8 @@ public class WaveViewPanel extends JComponent {
         Wave w = source.getWave(newStation, startTime, endTime);
         if (w != null) {
           if (settings.filterOn) {
+            // the source may share samples with its cache
+            w = new Wave(w);
             filter(w);
           }
           try {
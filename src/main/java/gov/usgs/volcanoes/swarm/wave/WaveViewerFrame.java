@@ -5,6 +5,7 @@ import gov.usgs.volcanoes.core.data.Wave;
 import gov.usgs.volcanoes.core.time.J2kSec;
 import gov.usgs.volcanoes.core.util.UiUtils;
 import gov.usgs.volcanoes.swarm.Icons;
+import gov.usgs.volcanoes.swarm.RefreshScheduler;
 import gov.usgs.volcanoes.swarm.SwarmFrame;
 import gov.usgs.volcanoes.swarm.SwarmUtil;
 import gov.usgs.volcanoes.swarm.Throbber;
@@ -31,7 +32,7 @@ import javax.swing.event.InternalFrameEvent;
  * Wave Viewer Frame.
  * @author Dan Cervelli
  */
-public class WaveViewerFrame extends SwarmFrame implements Runnable {
+public class WaveViewerFrame extends SwarmFrame {
   public static final long serialVersionUID = -1;
 
   private final long interval = 2000;
@@ -39,8 +40,7 @@ public class WaveViewerFrame extends SwarmFrame implements Runnable {
   private int spanIndex;
   private final SeismicDataSource dataSource;
   private final String channel;
-  private final Thread updateThread;
-  private boolean kill;
+  private final RefreshScheduler.Registration refresh;
   private JToolBar toolBar;
 
   private final WaveViewSettings settings;
@@ -76,10 +76,13 @@ public class WaveViewerFrame extends SwarmFrame implements Runnable {
       this.settings = settings;
     }
     spanIndex = 3;
-    kill = false;
-    updateThread = new Thread(this, "WaveViewerFrame-" + sds + "-" + ch);
     createUi();
-    updateThread.start();
+    refresh = RefreshScheduler.getInstance().register(this, sds, interval,
+        new RefreshScheduler.Refreshable() {
+          public void refresh() {
+            getWave();
+          }
+        });
   }
 
   /**
@@ -189,24 +192,7 @@ public class WaveViewerFrame extends SwarmFrame implements Runnable {
   }
 
   public void kill() {
-    kill = true;
-    updateThread.interrupt();
-  }
-
-  /**
-   * Run thread.
-   * @see java.lang.Runnable#run()
-   */
-  public void run() {
-    while (!kill) {
-      try {
-        getWave();
-        Thread.sleep(interval);
-      } catch (final InterruptedException e) {
-        //
-      }
-    }
-    dataSource.close();
+    refresh.cancel();
   }
   
   /**
@@ -0,0 +1,250 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.RSAMData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Stress the cache with writers, readers and eviction running at once on shared channels.
+ *
+ * <p>Every sample written is its own index on a channel-wide time grid, so a reader can tell a
+ * torn or misplaced read from a good one whatever the cache has merged, split or evicted.
+ *
+ * @author Tom Parker
+ */
+public class AbstractCachingDataSourceTest {
+  private static final double SAMPLING_RATE = 100;
+  private static final int CHANNELS = 6;
+  private static final int WRITERS = 4;
+  private static final int READERS = 4;
+  private static final long RUN_TIME = 3000;
+
+  /** span writers and readers work within, in seconds. */
+  private static final double SPAN = 4 * 3600;
+
+  private AbstractCachingDataSource cache;
+
+  @Before
+  public void setUp() {
+    cache = new AbstractCachingDataSource() {
+      @Override
+      public String toConfigString() {
+        return "test:";
+      }
+    };
+    // small enough that eviction runs throughout
+    cache.maxSize = 8 * 1024 * 1024;
+  }
+
+  @Test
+  public void concurrentReadersWritersAndEviction() throws InterruptedException {
+    final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+    final AtomicBoolean done = new AtomicBoolean();
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> threads = new ArrayList<Thread>();
+
+    for (int i = 0; i < WRITERS; i++) {
+      threads.add(new Worker(i, start, done, failures) {
+        @Override
+        void step(final Random random) {
+          final String channel = getChannel(random);
+          final Wave wave = createWave(random.nextInt((int) (SPAN * SAMPLING_RATE)),
+              1 + random.nextInt(60000));
+          cache.putWave(channel, wave);
+          cache.cacheWaveAsHelicorder(channel, wave);
+        }
+      });
+    }
+
+    for (int i = 0; i < READERS; i++) {
+      threads.add(new Worker(WRITERS + i, start, done, failures) {
+        @Override
+        void step(final Random random) {
+          final String channel = getChannel(random);
+          final double t1 = random.nextDouble() * SPAN;
+          final double t2 = t1 + random.nextDouble() * 1200;
+          switch (random.nextInt(3)) {
+            case 0:
+              checkWave(cache.getWave(channel, t1, t2));
+              break;
+            case 1:
+              checkWave(cache.getBestWave(channel, t1, t2));
+              break;
+            default:
+              checkHelicorder(cache.getHelicorder(channel, t1, t2, (GulperListener) null));
+              break;
+          }
+        }
+      });
+    }
+
+    threads.add(new Worker(WRITERS + READERS, start, done, failures) {
+      @Override
+      void step(final Random random) {
+        cache.enforceSize();
+        Thread.yield();
+      }
+    });
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    start.countDown();
+    Thread.sleep(RUN_TIME);
+    done.set(true);
+    for (final Thread thread : threads) {
+      thread.join(10000);
+      assertTrue("worker did not finish: " + thread.getName(), !thread.isAlive());
+    }
+
+    if (!failures.isEmpty()) {
+      final AssertionError error = new AssertionError(failures.size() + " workers failed");
+      error.initCause(failures.peek());
+      throw error;
+    }
+
+    // the running counters agree with the entries once everything has settled
+    cache.enforceSize();
+    final CacheMetrics metrics = cache.getMetrics();
+    long waveSize = 0;
+    long helicorderSize = 0;
+    for (final CacheMetrics.ChannelMetrics cm : metrics.getChannels().values()) {
+      waveSize += cm.getWaveSize();
+      helicorderSize += cm.getHelicorderSize();
+    }
+    assertEquals(metrics.getWaveSize(), waveSize);
+    assertEquals(metrics.getHelicorderSize(), helicorderSize);
+    assertTrue("cache over its limit", cache.getSize() <= cache.maxSize);
+  }
+
+  @Test
+  public void rsamIsKeptSeparatelyForEachPeriod() {
+    final String channel = "STA0$HHZ$XX";
+    cache.putRsam(channel, createRsam(60, 100, 1), 60, 0, 6000);
+    cache.putRsam(channel, createRsam(600, 10, 2), 600, 0, 6000);
+
+    assertNull(cache.getStoredRsam(channel, 0, 6000, 10));
+    final DoubleMatrix2D minutes = cache.getStoredRsam(channel, 0, 6000, 60).getData();
+    assertEquals(100, minutes.rows());
+    assertEquals(1, minutes.getQuick(0, 1), 0);
+    final DoubleMatrix2D tenMinutes = cache.getStoredRsam(channel, 0, 6000, 600).getData();
+    assertEquals(10, tenMinutes.rows());
+    assertEquals(2, tenMinutes.getQuick(0, 1), 0);
+  }
+
+  private static String getChannel(final Random random) {
+    return "STA" + random.nextInt(CHANNELS) + "$HHZ$XX";
+  }
+
+  /**
+   * Create a wave whose samples are their index on the time grid.
+   */
+  private static Wave createWave(final int first, final int count) {
+    final int[] buffer = new int[count];
+    for (int i = 0; i < count; i++) {
+      buffer[i] = first + i;
+    }
+    final Wave wave = new Wave(buffer, first / SAMPLING_RATE, SAMPLING_RATE);
+    wave.register();
+    return wave;
+  }
+
+  /**
+   * Create RSAM rows from time 0 at a period.
+   */
+  private static RSAMData createRsam(final int period, final int count, final double value) {
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(count, 2);
+    for (int i = 0; i < count; i++) {
+      data.setQuick(i, 0, i * period);
+      data.setQuick(i, 1, value);
+    }
+    final RSAMData rsam = new RSAMData();
+    rsam.setData(data);
+    return rsam;
+  }
+
+  private static void checkWave(final Wave wave) {
+    if (wave == null) {
+      return;
+    }
+    assertEquals(SAMPLING_RATE, wave.getSamplingRate(), 0);
+    final int first = (int) Math.round(wave.getStartTime() * SAMPLING_RATE);
+    for (int i = 0; i < wave.numSamples(); i++) {
+      final int sample = wave.buffer[i];
+      if (sample != Wave.NO_DATA) {
+        assertEquals("sample " + i + " of wave at " + wave.getStartTime(), first + i, sample);
+      }
+    }
+  }
+
+  private static void checkHelicorder(final HelicorderData hd) {
+    if (hd == null || hd.rows() == 0) {
+      return;
+    }
+    final DoubleMatrix2D data = hd.getData();
+    for (int i = 0; i < data.rows(); i++) {
+      assertTrue("min over max at " + data.getQuick(i, 0),
+          data.getQuick(i, 1) <= data.getQuick(i, 2));
+      if (i > 0) {
+        assertTrue("rows out of order at " + i, data.getQuick(i - 1, 0) < data.getQuick(i, 0));
+      }
+    }
+  }
+
+  /**
+   * A thread which repeats a step until told to stop, recording any failure.
+   */
+  private abstract static class Worker extends Thread {
+    private final int seed;
+    private final CountDownLatch start;
+    private final AtomicBoolean done;
+    private final Queue<Throwable> failures;
+
+    Worker(final int seed, final CountDownLatch start, final AtomicBoolean done,
+        final Queue<Throwable> failures) {
+      super("cache-test-" + seed);
+      this.seed = seed;
+      this.start = start;
+      this.done = done;
+      this.failures = failures;
+    }
+
+    abstract void step(Random random);
+
+    @Override
+    public void run() {
+      final Random random = new Random(seed);
+      try {
+        start.await();
+        while (!done.get()) {
+          step(random);
+        }
+      } catch (final Throwable e) {
+        failures.add(e);
+      }
+    }
+  }
+}
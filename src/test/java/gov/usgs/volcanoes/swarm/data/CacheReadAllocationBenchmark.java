@@ -0,0 +1,152 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CachedWave;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bytes allocated per cache read on the paths monitors and helicorder insets hit every second,
+ * reading as the cache did before reads could share samples against the cache itself. Not run
+ * as part of the build.
+ *
+ * <p>Usage: CacheReadAllocationBenchmark [calls]
+ *
+ * @author Tom Parker
+ */
+public class CacheReadAllocationBenchmark {
+  private static final String CHANNEL = "STA$HHZ$XX";
+  private static final double SAMPLING_RATE = 100;
+
+  /** seconds per cached segment. */
+  private static final int SEGMENT = 10 * 60;
+
+  private static final int WARMUP = 1000;
+
+  /**
+   * Main.
+   *
+   * @param args number of calls to measure on each path
+   */
+  public static void main(final String[] args) {
+    final int calls = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+
+    final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+      @Override
+      public String toConfigString() {
+        return "benchmark:";
+      }
+    };
+    cache.setCompressWaves(false);
+    // two segments a second apart, so they are cached separately
+    cache.putWave(CHANNEL, createWave(0));
+    cache.putWave(CHANNEL, createWave(SEGMENT + 1));
+
+    // a whole segment, and a span across the gap between the two
+    final double w1 = 0;
+    final double w2 = SEGMENT;
+    final double b1 = SEGMENT / 2;
+    final double b2 = SEGMENT + SEGMENT / 2;
+
+    System.out.printf("%-22s %14s %14s%n", "read", "before B/call", "after B/call");
+    long checksum = 0;
+
+    long before = 0;
+    long after = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      final int count = pass == 0 ? WARMUP : calls;
+      long start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < count; i++) {
+        checksum += getWaveBefore(cache, w1, w2).numSamples();
+      }
+      before = threads.getThreadAllocatedBytes(thread) - start;
+
+      start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < count; i++) {
+        checksum += cache.getWave(CHANNEL, w1, w2).numSamples();
+      }
+      after = threads.getThreadAllocatedBytes(thread) - start;
+    }
+    report("getWave whole segment", calls, before, after);
+
+    for (int pass = 0; pass < 2; pass++) {
+      final int count = pass == 0 ? WARMUP : calls;
+      long start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < count; i++) {
+        checksum += getBestWaveBefore(cache, b1, b2).numSamples();
+      }
+      before = threads.getThreadAllocatedBytes(thread) - start;
+
+      start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < count; i++) {
+        checksum += cache.getBestWave(CHANNEL, b1, b2).numSamples();
+      }
+      after = threads.getThreadAllocatedBytes(thread) - start;
+    }
+    report("getBestWave two parts", calls, before, after);
+
+    System.out.println("checksum " + checksum);
+  }
+
+  /**
+   * Read as getWave did before: copy the samples asked for, even all of them.
+   */
+  private static Wave getWaveBefore(final AbstractCachingDataSource cache, final double t1,
+      final double t2) {
+    final TimeIndex<CachedWave> waves = cache.waveCache.get(CHANNEL);
+    final CachedWave cw;
+    synchronized (waves) {
+      cw = waves.getContaining(t1, t2);
+    }
+    final double samplingRate = cw.getSamplingRate();
+    final int[] samples =
+        cw.getSamples((int) ((t1 - cw.t1) * samplingRate), (int) ((t2 - t1) * samplingRate));
+    return new Wave(samples, t1, samplingRate);
+  }
+
+  /**
+   * Read as getBestWave did before: join the parts, then take a subset of the join.
+   */
+  private static Wave getBestWaveBefore(final AbstractCachingDataSource cache, final double t1,
+      final double t2) {
+    final TimeIndex<CachedWave> waves = cache.waveCache.get(CHANNEL);
+    final List<Wave> parts = new ArrayList<Wave>();
+    double minT = 1E300;
+    double maxT = -1E300;
+    synchronized (waves) {
+      for (final CachedWave cw : waves.getOverlapping(t1, t2)) {
+        final Wave part = cw.getWave(t1, t2);
+        if (part != null) {
+          parts.add(part);
+          minT = Math.min(minT, part.getStartTime());
+          maxT = Math.max(maxT, part.getEndTime());
+        }
+      }
+    }
+    return Wave.join(parts, minT, maxT).subset(t1, t2);
+  }
+
+  private static Wave createWave(final double start) {
+    final int[] buffer = new int[(int) (SEGMENT * SAMPLING_RATE)];
+    for (int i = 0; i < buffer.length; i++) {
+      buffer[i] = i % 1000;
+    }
+    return new Wave(buffer, start, SAMPLING_RATE);
+  }
+
+  private static void report(final String name, final int calls, final long before,
+      final long after) {
+    System.out.printf("%-22s %14d %14d%n", name, before / calls, after / calls);
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compression ratio and decoding throughput of {@link CompressedWave}, on captured miniSEED or
+ * on an hour of synthetic 100 sps noise. Not run as part of the build.
+ *
+ * <p>Usage: CompressedWaveBenchmark [file [record length]] [passes]
+ *
+ * @author Tom Parker
+ */
+public class CompressedWaveBenchmark {
+  private static final double SAMPLING_RATE = 100;
+
+  /** seconds of synthetic samples. */
+  private static final int SYNTHETIC_SECONDS = 60 * 60;
+
+  /** seconds asked for by each ranged decode, as a wave panel asks for a minute. */
+  private static final double RANGE = 60;
+
+  /**
+   * Main.
+   *
+   * @param args miniSEED file of fixed length records of one channel, record length (default
+   *        512), passes (default 20)
+   * @throws IOException if the file cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+    final Wave wave;
+    int passes = 20;
+    if (args.length > 0 && new File(args[0]).isFile()) {
+      final int recordLength = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+      passes = args.length > 2 ? Integer.parseInt(args[2]) : passes;
+      wave = readWave(new File(args[0]), recordLength);
+    } else {
+      passes = args.length > 0 ? Integer.parseInt(args[0]) : passes;
+      wave = createWave();
+    }
+    final int samples = wave.numSamples();
+
+    final CompressedWave cw = CompressedWave.compress(wave);
+    final long raw = samples * 4L;
+    System.out.printf("%d samples: int[] %d bytes, compressed %d bytes, ratio %.2f, %.2f bytes"
+        + " per sample%n", samples, raw, cw.getMemorySize(), (double) raw / cw.getMemorySize(),
+        (double) cw.getMemorySize() / samples);
+
+    long checksum = 0;
+    long start = 0;
+    for (int pass = -1; pass < passes; pass++) {
+      if (pass == 0) {
+        // the first pass warms up
+        start = System.nanoTime();
+      }
+      checksum += cw.decode().numSamples();
+    }
+    report("full decode", (long) samples * passes, start);
+
+    final double span = samples / SAMPLING_RATE - RANGE;
+    final int ranges = (int) (samples / (RANGE * SAMPLING_RATE)) * passes;
+    final Random random = new Random(0);
+    long decoded = 0;
+    for (int pass = -1; pass < 1; pass++) {
+      if (pass == 0) {
+        start = System.nanoTime();
+        decoded = 0;
+      }
+      for (int i = 0; i < ranges; i++) {
+        final double t1 = cw.getStartTime() + random.nextDouble() * span;
+        decoded += cw.decode(t1, t1 + RANGE).numSamples();
+      }
+    }
+    report("ranged decode", decoded, start);
+    System.out.println("checksum " + checksum);
+  }
+
+  /**
+   * Create an hour of noise which wanders like a quiet seismic trace, with a burst in the middle.
+   */
+  private static Wave createWave() {
+    final int samples = (int) (SYNTHETIC_SECONDS * SAMPLING_RATE);
+    final int[] buffer = new int[samples];
+    final Random random = new Random(0);
+    double value = 0;
+    for (int i = 0; i < samples; i++) {
+      final double amplitude = Math.abs(i - samples / 2) < 60 * SAMPLING_RATE ? 2000 : 40;
+      value = value * 0.9 + random.nextGaussian() * amplitude;
+      buffer[i] = 1500 + (int) value;
+    }
+    return new Wave(buffer, 0, SAMPLING_RATE);
+  }
+
+  /**
+   * Decode every record of a miniSEED file into one wave, ignoring gaps.
+   */
+  private static Wave readWave(final File file, final int recordLength) throws IOException {
+    final byte[] bytes = new byte[(int) file.length()];
+    final DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+
+    final MiniSeedDecoder decoder = new MiniSeedDecoder();
+    final int[] buffer = new int[bytes.length * 2];
+    int samples = 0;
+    for (int off = 0; off + recordLength <= bytes.length; off += recordLength) {
+      if (decoder.read(bytes, off, recordLength)
+          && samples + decoder.getSampleCount() <= buffer.length) {
+        samples += decoder.decode(buffer, samples);
+      }
+    }
+    final int[] trimmed = new int[samples];
+    System.arraycopy(buffer, 0, trimmed, 0, samples);
+    return new Wave(trimmed, 0, SAMPLING_RATE);
+  }
+
+  private static void report(final String name, final long samples, final long start) {
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%-14s %d samples in %.3f s: %.0f samples/s%n", name, samples, seconds,
+        samples / seconds);
+  }
+}
@@ -0,0 +1,233 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check pooled connections against a local server which answers each request line and can drop
+ * its connections, as a wave server does when they sit idle.
+ *
+ * @author Tom Parker
+ */
+public class ConnectionPoolTest {
+  /** idle time after which the pool under test replaces a connection, in milliseconds. */
+  private static final long STALE_AGE = 200;
+
+  private FakeServer server;
+  private ConnectionPool<Socket> pool;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new FakeServer();
+    pool = createPool(STALE_AGE);
+  }
+
+  @After
+  public void tearDown() {
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void reusesFreshConnection() throws IOException {
+    final Socket first = pool.borrow();
+    assertEquals("MENU", request(first, "MENU"));
+    pool.release(first);
+
+    final Socket second = pool.borrow();
+    assertSame(first, second);
+    assertEquals("MENU", request(second, "MENU"));
+    pool.release(second);
+    assertEquals(1, server.getAccepted());
+  }
+
+  @Test
+  public void replacesStaleConnection() throws Exception {
+    final Socket first = pool.borrow();
+    assertEquals("MENU", request(first, "MENU"));
+    pool.release(first);
+
+    // the server drops the idle connection; nothing on the client side notices
+    server.dropAll();
+    Thread.sleep(STALE_AGE * 2);
+
+    final Socket second = pool.borrow();
+    assertNotNull("stale connection counted as a failure", second);
+    assertNotSame(first, second);
+    assertTrue(first.isClosed());
+    assertEquals("MENU", request(second, "MENU"));
+    pool.release(second);
+    assertEquals(2, server.getAccepted());
+  }
+
+  @Test
+  public void keepsIdleConnectionWithoutStaleAge() throws Exception {
+    pool.close();
+    pool = createPool(0);
+    final Socket first = pool.borrow();
+    assertEquals("MENU", request(first, "MENU"));
+    pool.release(first);
+
+    Thread.sleep(STALE_AGE * 2);
+
+    final Socket second = pool.borrow();
+    assertSame(first, second);
+    assertEquals("MENU", request(second, "MENU"));
+    pool.release(second);
+    assertEquals(1, server.getAccepted());
+  }
+
+  @Test
+  public void failedConnectionBacksOff() throws IOException {
+    final Socket first = pool.borrow();
+    pool.invalidate(first);
+
+    assertTrue(first.isClosed());
+    assertNull(pool.borrow());
+    assertEquals(1, server.getAccepted());
+  }
+
+  private ConnectionPool<Socket> createPool(final long staleAge) {
+    return new ConnectionPool<Socket>("test", new ConnectionPool.Factory<Socket>() {
+      public Socket create() {
+        try {
+          final Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+          socket.setSoTimeout(2000);
+          return socket;
+        } catch (final IOException e) {
+          return null;
+        }
+      }
+
+      public void close(final Socket socket) {
+        try {
+          socket.close();
+        } catch (final IOException ignore) {
+          // nothing to do
+        }
+      }
+    }, 2, 60000, staleAge);
+  }
+
+  /**
+   * Send a request line and read the reply line.
+   */
+  private static String request(final Socket socket, final String line) throws IOException {
+    final OutputStream out = socket.getOutputStream();
+    out.write((line + "\n").getBytes("US-ASCII"));
+    out.flush();
+    return new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"))
+        .readLine();
+  }
+
+  /**
+   * A server which echoes each line it is sent.
+   */
+  private static class FakeServer {
+    private final ServerSocket serverSocket;
+    private final List<Socket> open;
+    private int accepted;
+
+    FakeServer() throws IOException {
+      serverSocket = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+      open = new ArrayList<Socket>();
+      final Thread acceptor = new Thread(new Runnable() {
+        public void run() {
+          accept();
+        }
+      }, "fake server");
+      acceptor.setDaemon(true);
+      acceptor.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    synchronized int getAccepted() {
+      return accepted;
+    }
+
+    /**
+     * Close every connection from the server end.
+     */
+    synchronized void dropAll() throws IOException {
+      for (final Socket socket : open) {
+        socket.close();
+      }
+      open.clear();
+    }
+
+    void close() {
+      try {
+        serverSocket.close();
+        dropAll();
+      } catch (final IOException ignore) {
+        // nothing to do
+      }
+    }
+
+    private void accept() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          synchronized (this) {
+            accepted++;
+            open.add(socket);
+          }
+          final Thread handler = new Thread(new Runnable() {
+            public void run() {
+              echo(socket);
+            }
+          }, "fake server connection");
+          handler.setDaemon(true);
+          handler.start();
+        }
+      } catch (final SocketException e) {
+        // closed
+      } catch (final IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private static void echo(final Socket socket) {
+      try {
+        final BufferedReader in =
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+        final OutputStream out = socket.getOutputStream();
+        String line;
+        while ((line = in.readLine()) != null) {
+          out.write((line + "\n").getBytes("US-ASCII"));
+          out.flush();
+        }
+      } catch (final IOException e) {
+        // dropped
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check a restarted Swarm serves helicorders from the disk cache left by its last session
+ * without asking the data source.
+ *
+ * @author Tom Parker
+ */
+public class DiskCacheTest {
+  private static final String CHANNEL = "STA$HHZ$XX";
+
+  /** one second rows in a day. */
+  private static final int DAY = 24 * 60 * 60;
+
+  private static final double START = 800000000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File cacheDir;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = folder.newFolder("cache");
+  }
+
+  @Test
+  public void coldRestartServesDayWithoutSource() {
+    final AbstractCachingDataSource session = createCache();
+    session.putHelicorder(CHANNEL, createHelicorder(START, DAY));
+    session.persist();
+
+    // a fresh cache over the same directory, as after a restart
+    final AbstractCachingDataSource restarted = createCache();
+    final HelicorderData hd =
+        restarted.getHelicorder(CHANNEL, START, START + DAY - 1, new FailingSource());
+
+    assertNotNull(hd);
+    assertEquals(DAY, hd.rows());
+    assertEquals(START, hd.getStartTime(), 0);
+    assertEquals(START + DAY - 1, hd.getEndTime(), 0);
+    for (int i = 0; i < DAY; i += 997) {
+      assertEquals(-(i % 1000), hd.getData().getQuick(i, 1), 0);
+      assertEquals(i % 1000, hd.getData().getQuick(i, 2), 0);
+    }
+  }
+
+  @Test
+  public void corruptSegmentIsNotServed() {
+    final AbstractCachingDataSource session = createCache();
+    session.putHelicorder(CHANNEL, createHelicorder(START, DAY));
+    session.persist();
+
+    corruptSegments(cacheDir);
+
+    final AbstractCachingDataSource restarted = createCache();
+    assertNull(restarted.getHelicorder(CHANNEL, START, START + DAY - 1, new FailingSource()));
+  }
+
+  private AbstractCachingDataSource createCache() {
+    final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+      @Override
+      public String toConfigString() {
+        return "test:";
+      }
+    };
+    cache.setDiskCache(new DiskCache(cacheDir, 100L * 1024 * 1024));
+    return cache;
+  }
+
+  private static HelicorderData createHelicorder(final double start, final int rows) {
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(rows, 3);
+    for (int i = 0; i < rows; i++) {
+      data.setQuick(i, 0, start + i);
+      data.setQuick(i, 1, -(i % 1000));
+      data.setQuick(i, 2, i % 1000);
+    }
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(data);
+    return hd;
+  }
+
+  /**
+   * Flip a byte in the middle of every segment file under a directory.
+   */
+  private static void corruptSegments(final File dir) {
+    for (final File file : dir.listFiles()) {
+      if (file.isDirectory()) {
+        corruptSegments(file);
+      } else if (file.getName().endsWith(".seg")) {
+        corrupt(file);
+      }
+    }
+  }
+
+  private static void corrupt(final File file) {
+    try {
+      final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        final long pos = raf.length() / 2;
+        raf.seek(pos);
+        final int b = raf.read();
+        raf.seek(pos);
+        raf.write(b ^ 0xff);
+      } finally {
+        raf.close();
+      }
+    } catch (final IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * A source which fails the test if anything is fetched from it.
+   */
+  private static class FailingSource extends SeismicDataSource {
+    FailingSource() {
+      name = "failing";
+    }
+
+    @Override
+    public List<String> getChannels() {
+      return new ArrayList<String>();
+    }
+
+    @Override
+    public void parse(final String params) {}
+
+    @Override
+    public Wave getWave(final String station, final double t1, final double t2) {
+      throw new AssertionError("wave fetched from source");
+    }
+
+    @Override
+    public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+        final GulperListener gl) {
+      throw new AssertionError("helicorder fetched from source");
+    }
+
+    @Override
+    public String toConfigString() {
+      return "failing:";
+    }
+  }
+}
@@ -0,0 +1,346 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.HelicorderData;
+import gov.usgs.volcanoes.core.data.Wave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Check that gulps keep to the global and per-source thread limits, and that slow fetches and
+ * updates made on behalf of one gulper request hold up neither other requests nor running gulps.
+ *
+ * @author Tom Parker
+ */
+public class GulperListTest {
+  private static final int GULP_SIZE = 600;
+  private static final long TIMEOUT = 5;
+  private static final int MAX_THREADS = 3;
+  private static final int MAX_SOURCE_THREADS = 2;
+
+  private GulperList gulperList;
+  private FakeSource source;
+
+  /** released to let blocked fetches and updates go on. */
+  private CountDownLatch release;
+
+  /** gulp fetches under way against every source, and the most seen at once. */
+  private AtomicInteger fetches;
+  private AtomicInteger peakFetches;
+
+  @Before
+  public void setUp() {
+    gulperList = new GulperList(MAX_THREADS, MAX_SOURCE_THREADS);
+    fetches = new AtomicInteger();
+    peakFetches = new AtomicInteger();
+    source = new FakeSource("fake");
+    release = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    release.countDown();
+  }
+
+  @Test
+  public void concurrencyLimitsHold() throws InterruptedException {
+    release.countDown();
+    final FakeSource other = new FakeSource("other");
+    final List<Listener> listeners = new ArrayList<Listener>();
+    for (final FakeSource s : new FakeSource[] {source, other}) {
+      // more gulpers, each allowed more gulps at once, than the source may run
+      s.gulps = 6;
+      s.concurrency = 3;
+      s.fetchInGulps = true;
+      for (int i = 0; i < MAX_SOURCE_THREADS * 2; i++) {
+        final Listener listener = new Listener();
+        listeners.add(listener);
+        assertNotNull(gulperList.requestGulper(s.getName() + i, listener, s, "STA" + i, 0,
+            GULP_SIZE * 10, GULP_SIZE, 0));
+      }
+    }
+    for (final Listener listener : listeners) {
+      assertTrue(listener.stopped.await(TIMEOUT * 2, TimeUnit.SECONDS));
+    }
+
+    assertEquals(MAX_SOURCE_THREADS, source.peak.get());
+    assertEquals(MAX_SOURCE_THREADS, other.peak.get());
+    assertEquals(MAX_THREADS, peakFetches.get());
+  }
+
+  @Test
+  public void directFetchDoesNotBlockOtherRequests() throws InterruptedException {
+    source.blockFetches = true;
+    final Thread fetcher = new Thread(new Runnable() {
+      public void run() {
+        // shorter than a gulp, so fetched directly
+        gulperList.requestGulper("short", new Listener(), source, "STA", 0, 60, GULP_SIZE, 0);
+      }
+    });
+    fetcher.start();
+    assertTrue(source.fetching.await(TIMEOUT, TimeUnit.SECONDS));
+
+    final Listener listener = new Listener();
+    final Gulper gulper = request("long", listener);
+    assertNotNull(gulper);
+    assertTrue("gulper did not run while a fetch was blocked",
+        listener.stopped.await(TIMEOUT, TimeUnit.SECONDS));
+
+    release.countDown();
+    fetcher.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+    assertFalse(fetcher.isAlive());
+  }
+
+  @Test
+  public void updateDoesNotBlockRunningGulps() throws InterruptedException {
+    final Listener first = new Listener();
+    source.gulps = 1000;
+    source.delayGulps = true;
+    final Gulper blocked = request("blocked", first);
+    assertTrue(first.started.await(TIMEOUT, TimeUnit.SECONDS));
+
+    // a second listener's update blocks inside the gulper
+    source.blockUpdates = true;
+    final Thread updater = new Thread(new Runnable() {
+      public void run() {
+        request("blocked", new Listener());
+      }
+    });
+    updater.start();
+    assertTrue(source.updating.await(TIMEOUT, TimeUnit.SECONDS));
+
+    // meanwhile another gulper is made, dispatched and retired
+    source.blockUpdates = false;
+    source.gulps = 3;
+    final Listener other = new Listener();
+    assertNotNull(request("other", other));
+    assertTrue("gulps were held up by an update",
+        other.stopped.await(TIMEOUT, TimeUnit.SECONDS));
+    assertEquals(3, other.gulped.get());
+
+    release.countDown();
+    updater.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+    assertFalse(updater.isAlive());
+    gulperList.killGulper("blocked", first);
+    blocked.kill();
+  }
+
+  @Test
+  public void concurrentRequestsAndKills() throws InterruptedException {
+    release.countDown();
+    source.gulps = 5;
+    final Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+    final Queue<Listener> attached = new ConcurrentLinkedQueue<Listener>();
+    final List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      final Random random = new Random(i);
+      final List<Listener> own = new ArrayList<Listener>();
+      for (int j = 0; j < 50; j++) {
+        own.add(new Listener());
+      }
+      threads.add(new Thread(new Runnable() {
+        public void run() {
+          try {
+            for (final Listener listener : own) {
+              final String key = "key" + random.nextInt(4);
+              if (request(key, listener) == null) {
+                continue;
+              }
+              if (random.nextBoolean()) {
+                gulperList.killGulper(key, listener);
+              } else {
+                attached.add(listener);
+              }
+            }
+          } catch (final Throwable e) {
+            failures.add(e);
+          }
+        }
+      }));
+    }
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+    for (final Thread thread : threads) {
+      thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT));
+      assertFalse(thread.isAlive());
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+
+    // every listener left on a gulper hears it stop
+    for (final Listener listener : attached) {
+      assertTrue(listener.stopped.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+  }
+
+  private Gulper request(final String key, final Listener listener) {
+    return gulperList.requestGulper(key, listener, source, "STA", 0, GULP_SIZE * 10, GULP_SIZE,
+        0);
+  }
+
+  /**
+   * A listener which counts what it hears.
+   */
+  private static class Listener implements GulperListener {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final AtomicInteger gulped = new AtomicInteger();
+
+    public void gulperStarted() {
+      started.countDown();
+    }
+
+    public void gulperStopped(final boolean killed) {
+      stopped.countDown();
+    }
+
+    public void gulperGulped(final double t1, final double t2, final boolean success) {
+      gulped.incrementAndGet();
+    }
+
+    public boolean isVisible() {
+      return true;
+    }
+  }
+
+  /**
+   * A source whose fetches and gulper updates can be made to block until released.
+   */
+  private class FakeSource extends SeismicDataSource {
+    private volatile boolean blockFetches;
+    private volatile boolean blockUpdates;
+    private volatile boolean delayGulps;
+    private volatile boolean fetchInGulps;
+    private volatile int gulps = 1;
+    private volatile int concurrency = 1;
+    private final CountDownLatch fetching = new CountDownLatch(1);
+    private final CountDownLatch updating = new CountDownLatch(1);
+
+    /** gulp fetches under way against this source, and the most seen at once. */
+    private final AtomicInteger current = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    FakeSource(final String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Gulper createGulper(final GulperList gl, final String k, final String ch,
+        final double t1, final double t2, final int size, final int delay) {
+      final int count = gulps;
+      return new Gulper(gl, k, this, ch, t1, t2, size, delay) {
+        private int done;
+
+        @Override
+        public void update(final double t1, final double t2) {
+          if (blockUpdates) {
+            updating.countDown();
+            await(release);
+          }
+        }
+
+        @Override
+        protected boolean gulp() {
+          if (fetchInGulps) {
+            getWave(ch, t1, t2);
+          } else if (delayGulps) {
+            sleep();
+          }
+          fireGulped(t1, t2, true);
+          synchronized (this) {
+            return ++done < count && !isKilled();
+          }
+        }
+      };
+    }
+
+    @Override
+    public int getGulpConcurrency() {
+      return concurrency;
+    }
+
+    @Override
+    public boolean isShared() {
+      return true;
+    }
+
+    @Override
+    public List<String> getChannels() {
+      return new ArrayList<String>();
+    }
+
+    @Override
+    public void parse(final String params) {}
+
+    @Override
+    public Wave getWave(final String station, final double t1, final double t2) {
+      if (blockFetches) {
+        fetching.countDown();
+        await(release);
+      }
+      if (fetchInGulps) {
+        raise(peak, current.incrementAndGet());
+        raise(peakFetches, fetches.incrementAndGet());
+        sleep();
+        fetches.decrementAndGet();
+        current.decrementAndGet();
+      }
+      return null;
+    }
+
+    @Override
+    public HelicorderData getHelicorder(final String station, final double t1, final double t2,
+        final GulperListener gl) {
+      return null;
+    }
+
+    @Override
+    public String toConfigString() {
+      return "fake:";
+    }
+  }
+
+  private static void raise(final AtomicInteger peak, final int value) {
+    int seen = peak.get();
+    while (value > seen && !peak.compareAndSet(seen, value)) {
+      seen = peak.get();
+    }
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(TIMEOUT * 2, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(10);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
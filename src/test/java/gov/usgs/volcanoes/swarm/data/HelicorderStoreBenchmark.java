@@ -0,0 +1,116 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.HelicorderData;
+
+/**
+ * Time slicing a week of one second helicorder rows as a live display does, by binary search and
+ * view against copying the rows in the span. Not run as part of the build.
+ *
+ * <p>Usage: HelicorderStoreBenchmark [refreshes]
+ *
+ * @author Tom Parker
+ */
+public class HelicorderStoreBenchmark {
+  /** one second rows in seven days. */
+  private static final int ROWS = 7 * 24 * 60 * 60;
+
+  /** span a refresh asks for, in seconds. */
+  private static final int SPAN = 24 * 60 * 60;
+
+  private static final int WARMUP = 20;
+
+  /**
+   * Main.
+   *
+   * @param args number of refreshes to time
+   */
+  public static void main(final String[] args) {
+    final int refreshes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+    final DoubleMatrix2D rows = DoubleFactory2D.dense.make(ROWS, 3);
+    for (int i = 0; i < ROWS; i++) {
+      rows.setQuick(i, 0, i);
+      rows.setQuick(i, 1, -(i % 1000));
+      rows.setQuick(i, 2, i % 1000);
+    }
+
+    final HelicorderStore store = new HelicorderStore();
+    long start = System.nanoTime();
+    store.add(createHelicorder(rows));
+    System.out.printf("load %d rows: %.1f ms%n", ROWS, (System.nanoTime() - start) / 1e6);
+
+    double checksum = 0;
+    for (int i = 0; i < WARMUP; i++) {
+      checksum += refresh(store, ROWS + i);
+      checksum += copy(rows, ROWS - SPAN, ROWS);
+      checksum += RowIndex.view(rows, ROWS - SPAN, ROWS).rows();
+    }
+
+    // each refresh adds a second then asks for the last day, as a live helicorder redraw does
+    start = System.nanoTime();
+    for (int i = 0; i < refreshes; i++) {
+      checksum += refresh(store, ROWS + WARMUP + i);
+    }
+    report("store refresh", refreshes, start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < refreshes; i++) {
+      checksum += RowIndex.view(rows, ROWS - SPAN + i, ROWS + i).rows();
+    }
+    report("RowIndex.view", refreshes, start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < refreshes; i++) {
+      checksum += copy(rows, ROWS - SPAN + i, ROWS + i);
+    }
+    report("scan and copy", refreshes, start);
+
+    System.out.println("checksum " + checksum);
+  }
+
+  /**
+   * Add a second to a store and read the last day from it.
+   */
+  private static double refresh(final HelicorderStore store, final int second) {
+    final DoubleMatrix2D row = DoubleFactory2D.dense.make(1, 3);
+    row.setQuick(0, 0, second);
+    row.setQuick(0, 1, -1);
+    row.setQuick(0, 2, 1);
+    store.add(createHelicorder(row));
+    return store.getHelicorder(second - SPAN, second + 1).rows();
+  }
+
+  private static HelicorderData createHelicorder(final DoubleMatrix2D rows) {
+    final HelicorderData hd = new HelicorderData();
+    hd.setData(rows);
+    return hd;
+  }
+
+  /**
+   * Find rows in a span by scanning and copy them, as the cache did before views.
+   */
+  private static double copy(final DoubleMatrix2D rows, final double t1, final double t2) {
+    int from = 0;
+    while (from < rows.rows() && rows.getQuick(from, 0) < t1) {
+      from++;
+    }
+    int to = from;
+    while (to < rows.rows() && rows.getQuick(to, 0) <= t2) {
+      to++;
+    }
+    return rows.viewPart(from, 0, to - from, 3).copy().rows();
+  }
+
+  private static void report(final String name, final int count, final long start) {
+    final double ms = (System.nanoTime() - start) / 1e6;
+    System.out.printf("%-14s %d in %.1f ms, %.3f ms each%n", name, count, ms, ms / count);
+  }
+}
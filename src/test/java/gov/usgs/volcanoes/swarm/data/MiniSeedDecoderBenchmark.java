@@ -0,0 +1,71 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Decoding throughput of {@link MiniSeedDecoder} on captured miniSEED. Not run as part of the
+ * build.
+ *
+ * <p>Usage: MiniSeedDecoderBenchmark file [record length] [passes]
+ *
+ * @author Tom Parker
+ */
+public class MiniSeedDecoderBenchmark {
+  /**
+   * Main.
+   *
+   * @param args miniSEED file of fixed length records, record length (default 512), passes
+   *        (default 20)
+   * @throws IOException if the file cannot be read
+   */
+  public static void main(final String[] args) throws IOException {
+    if (args.length < 1) {
+      System.out.println("usage: MiniSeedDecoderBenchmark file [record length] [passes]");
+      return;
+    }
+    final File file = new File(args[0]);
+    final int recordLength = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+    final int passes = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+    final byte[] bytes = new byte[(int) file.length()];
+    final DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+
+    final MiniSeedDecoder decoder = new MiniSeedDecoder();
+    // Steim2 packs up to seven samples in four bytes
+    final int[] samples = new int[recordLength * 2];
+    long records = 0;
+    long total = 0;
+    long start = 0;
+    for (int pass = -1; pass < passes; pass++) {
+      if (pass == 0) {
+        // the first pass warms up
+        start = System.nanoTime();
+        records = 0;
+        total = 0;
+      }
+      for (int off = 0; off + recordLength <= bytes.length; off += recordLength) {
+        if (decoder.read(bytes, off, recordLength) && decoder.getSampleCount() <= samples.length) {
+          total += decoder.decode(samples, 0);
+          records++;
+        }
+      }
+    }
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%d records, %d samples in %.3f s: %.0f records/s, %.0f samples/s%n",
+        records, total, seconds, records / seconds, total / seconds);
+  }
+}
@@ -0,0 +1,163 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import cern.colt.matrix.DoubleFactory2D;
+import cern.colt.matrix.DoubleMatrix2D;
+import gov.usgs.volcanoes.core.data.RSAMData;
+
+import org.junit.Test;
+
+/**
+ * Check RSAM series keep one row per time in order however rows arrive.
+ *
+ * @author Tom Parker
+ */
+public class RsamSeriesTest {
+  private static final int PERIOD = 60;
+
+  @Test
+  public void appendsRowsWhichContinueTheSeries() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 100, 1));
+    series.put(createRsam(100, 100, 1));
+
+    assertEquals(200, series.size());
+    assertRows(series.getRsam(0, 200 * PERIOD), 0, 200, 1);
+  }
+
+  @Test
+  public void overlapReplacesRowsAtTheSameTimes() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 100, 1));
+    series.put(createRsam(90, 20, 2));
+
+    assertEquals(110, series.size());
+    assertRows(series.getRsam(0, 90 * PERIOD), 0, 90, 1);
+    assertRows(series.getRsam(90 * PERIOD, 110 * PERIOD), 90, 20, 2);
+  }
+
+  @Test
+  public void overlapInsideTheSeriesIsSplicedIn() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 100, 1));
+    series.put(createRsam(40, 10, 2));
+
+    assertEquals(100, series.size());
+    assertRows(series.getRsam(0, 40 * PERIOD), 0, 40, 1);
+    assertRows(series.getRsam(40 * PERIOD, 50 * PERIOD), 40, 10, 2);
+    assertRows(series.getRsam(50 * PERIOD, 100 * PERIOD), 50, 50, 1);
+  }
+
+  @Test
+  public void gapIsKeptWithoutFill() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 10, 1));
+    series.put(createRsam(20, 10, 1));
+
+    assertEquals(20, series.size());
+    assertNull(series.getRsam(10 * PERIOD, 20 * PERIOD));
+    final DoubleMatrix2D data = series.getRsam(0, 30 * PERIOD).getData();
+    assertEquals(20, data.rows());
+    assertEquals(9 * PERIOD, data.getQuick(9, 0), 0);
+    assertEquals(20 * PERIOD, data.getQuick(10, 0), 0);
+  }
+
+  @Test
+  public void gapIsFilledLater() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 10, 1));
+    series.put(createRsam(20, 10, 1));
+    series.put(createRsam(10, 10, 1));
+
+    assertEquals(30, series.size());
+    assertRows(series.getRsam(0, 30 * PERIOD), 0, 30, 1);
+  }
+
+  @Test
+  public void rowsBeforeTheSeriesArePrepended() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(50, 50, 1));
+    series.put(createRsam(0, 50, 1));
+
+    assertEquals(100, series.size());
+    assertEquals(0, series.getFirstTime(), 0);
+    assertEquals(99 * PERIOD, series.getLastTime(), 0);
+    assertRows(series.getRsam(0, 100 * PERIOD), 0, 100, 1);
+  }
+
+  @Test
+  public void rowsOffThePeriodGridAreKeptInOrder() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 10, 1));
+
+    // rows at another period interleave rather than replace
+    final RSAMData other = new RSAMData();
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(3, 2);
+    for (int i = 0; i < 3; i++) {
+      data.setQuick(i, 0, PERIOD / 2 + i * PERIOD * 2);
+      data.setQuick(i, 1, 2);
+    }
+    other.setData(data);
+    series.put(other);
+
+    final DoubleMatrix2D rows = series.getRsam(0, 10 * PERIOD).getData();
+    for (int i = 1; i < rows.rows(); i++) {
+      assertEquals(true, rows.getQuick(i - 1, 0) < rows.getQuick(i, 0));
+    }
+  }
+
+  @Test
+  public void absorbMergesSeries() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 10, 1));
+    final RsamSeries other = new RsamSeries(PERIOD);
+    other.put(createRsam(5, 10, 2));
+    series.absorb(other);
+
+    assertEquals(15, series.size());
+    assertRows(series.getRsam(0, 5 * PERIOD), 0, 5, 1);
+    assertRows(series.getRsam(5 * PERIOD, 15 * PERIOD), 5, 10, 2);
+  }
+
+  @Test
+  public void viewsSurviveGrowth() {
+    final RsamSeries series = new RsamSeries(PERIOD);
+    series.put(createRsam(0, 10, 1));
+    final RSAMData view = series.getRsam(0, 10 * PERIOD);
+    series.put(createRsam(10, 1000, 1));
+
+    assertRows(view, 0, 10, 1);
+  }
+
+  /**
+   * Create RSAM rows on the period grid.
+   */
+  private static RSAMData createRsam(final int firstRow, final int count, final double value) {
+    final DoubleMatrix2D data = DoubleFactory2D.dense.make(count, 2);
+    for (int i = 0; i < count; i++) {
+      data.setQuick(i, 0, (firstRow + i) * PERIOD);
+      data.setQuick(i, 1, value);
+    }
+    final RSAMData rsam = new RSAMData();
+    rsam.setData(data);
+    return rsam;
+  }
+
+  private static void assertRows(final RSAMData rsam, final int firstRow, final int count,
+      final double value) {
+    final DoubleMatrix2D data = rsam.getData();
+    assertEquals(count, data.rows());
+    for (int i = 0; i < count; i++) {
+      assertEquals((firstRow + i) * PERIOD, data.getQuick(i, 0), 0);
+      assertEquals(value, data.getQuick(i, 1), 0);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data;
+
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource.CacheEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Lookups in a channel's cached segments at 10, 100 and 1000 segments, scanning a list as the
+ * cache did before {@link TimeIndex} against the index itself. Not run as part of the build.
+ *
+ * <p>Usage: TimeIndexBenchmark [lookups]
+ *
+ * @author Tom Parker
+ */
+public class TimeIndexBenchmark {
+  private static final int[] SEGMENTS = new int[] {10, 100, 1000};
+
+  /** seconds per segment. */
+  private static final double SEGMENT = 600;
+
+  /** seconds asked for by a wave lookup and by an overlap query. */
+  private static final double WAVE_SPAN = 30;
+  private static final double OVERLAP_SPAN = 1800;
+
+  private static final int WARMUP = 3;
+
+  /**
+   * Main.
+   *
+   * @param args number of lookups of each kind at each size
+   */
+  public static void main(final String[] args) {
+    final int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+      @Override
+      public String toConfigString() {
+        return "benchmark:";
+      }
+    };
+
+    System.out.printf("%-9s %-12s %12s %12s%n", "segments", "lookup", "list ns", "index ns");
+    double checksum = 0;
+    for (final int count : SEGMENTS) {
+      final List<CacheEntry> list = new ArrayList<CacheEntry>(count);
+      final TimeIndex<CacheEntry> index = new TimeIndex<CacheEntry>();
+      for (int i = 0; i < count; i++) {
+        // a small gap after each segment, as fragmented caches have
+        final CacheEntry entry = createEntry(cache, i * SEGMENT, (i + 1) * SEGMENT - 1);
+        list.add(entry);
+        index.put(entry);
+      }
+
+      final double[] times = new double[lookups];
+      final Random random = new Random(count);
+      for (int i = 0; i < lookups; i++) {
+        times[i] = random.nextDouble() * (count * SEGMENT - OVERLAP_SPAN);
+      }
+
+      long listNs = 0;
+      long indexNs = 0;
+      for (int pass = 0; pass <= WARMUP; pass++) {
+        long start = System.nanoTime();
+        for (final double t : times) {
+          checksum += scanContaining(list, t, t + WAVE_SPAN) == null ? 0 : 1;
+        }
+        listNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (final double t : times) {
+          checksum += index.getContaining(t, t + WAVE_SPAN) == null ? 0 : 1;
+        }
+        indexNs = System.nanoTime() - start;
+      }
+      report(count, "containing", lookups, listNs, indexNs);
+
+      for (int pass = 0; pass <= WARMUP; pass++) {
+        long start = System.nanoTime();
+        for (final double t : times) {
+          checksum += scanOverlapping(list, t, t + OVERLAP_SPAN).size();
+        }
+        listNs = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (final double t : times) {
+          checksum += index.getOverlapping(t, t + OVERLAP_SPAN).size();
+        }
+        indexNs = System.nanoTime() - start;
+      }
+      report(count, "overlapping", lookups, listNs, indexNs);
+    }
+    System.out.println("checksum " + checksum);
+  }
+
+  /**
+   * Find the segment covering a span as the cache did before the index.
+   */
+  private static CacheEntry scanContaining(final List<CacheEntry> list, final double t1,
+      final double t2) {
+    for (final CacheEntry entry : list) {
+      if (entry.t1 <= t1 && entry.t2 >= t2) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Find the segments sharing time with a span as the cache did before the index.
+   */
+  private static List<CacheEntry> scanOverlapping(final List<CacheEntry> list, final double t1,
+      final double t2) {
+    final List<CacheEntry> overlapping = new ArrayList<CacheEntry>();
+    for (final CacheEntry entry : list) {
+      if (entry.t1 <= t2 && entry.t2 >= t1) {
+        overlapping.add(entry);
+      }
+    }
+    return overlapping;
+  }
+
+  private static CacheEntry createEntry(final AbstractCachingDataSource cache, final double t1,
+      final double t2) {
+    final CacheEntry entry = cache.new CacheEntry() {
+      @Override
+      public String getInfoString() {
+        return "";
+      }
+
+      @Override
+      public int getMemorySize() {
+        return 0;
+      }
+
+      @Override
+      protected boolean removeFromCache() {
+        return false;
+      }
+    };
+    entry.t1 = t1;
+    entry.t2 = t2;
+    return entry;
+  }
+
+  private static void report(final int count, final String name, final int lookups,
+      final long listNs, final long indexNs) {
+    System.out.printf("%-9d %-12s %12.1f %12.1f%n", count, name, (double) listNs / lookups,
+        (double) indexNs / lookups);
+  }
+}
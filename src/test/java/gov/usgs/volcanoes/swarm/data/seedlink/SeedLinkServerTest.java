@@ -0,0 +1,136 @@
+/**
+ * I waive copyright and related rights in the this work worldwide through the CC0 1.0
+ * Universal public domain dedication.
+ * https://creativecommons.org/publicdomain/zero/1.0/legalcode
+ */
+
+package gov.usgs.volcanoes.swarm.data.seedlink;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import gov.usgs.volcanoes.core.data.Wave;
+import gov.usgs.volcanoes.swarm.data.AbstractCachingDataSource;
+import gov.usgs.volcanoes.swarm.data.DiskCache;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check a restarted Swarm resumes SeedLink stations from saved sequence numbers when its
+ * persisted disk cache holds what is asked for.
+ *
+ * @author Tom Parker
+ */
+public class SeedLinkServerTest {
+  private static final String ADDRESS = "localhost:18000";
+  private static final String STATION = "XX_STA";
+  private static final String CHANNEL = "STA HHZ XX";
+  private static final double SAMPLING_RATE = 100;
+
+  /** ten minutes of samples, so two hours of them span several cached waves. */
+  private static final int SAMPLES = 60000;
+
+  /** a whole second, as state files keep no fractions. */
+  private static final double START = 800000000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File cacheDir;
+  private File stateFile;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheDir = folder.newFolder("cache");
+    stateFile = new File(cacheDir, "seedlink_localhost_18000.state");
+  }
+
+  @Test
+  public void resumesAfterRestart() {
+    final double end = runSession(12, -1);
+
+    final SeedLinkServer server = new SeedLinkServer(ADDRESS, stateFile, createCache());
+    assertTrue(server.canResume(STATION, CHANNEL, START));
+    assertTrue(server.canResume(STATION, CHANNEL, end - 60));
+  }
+
+  @Test
+  public void backfillsEarlierThanCached() {
+    runSession(12, -1);
+
+    final SeedLinkServer server = new SeedLinkServer(ADDRESS, stateFile, createCache());
+    assertFalse(server.canResume(STATION, CHANNEL, START - 60));
+  }
+
+  @Test
+  public void backfillsAcrossGap() {
+    runSession(12, 5);
+
+    final SeedLinkServer server = new SeedLinkServer(ADDRESS, stateFile, createCache());
+    assertFalse(server.canResume(STATION, CHANNEL, START));
+  }
+
+  @Test
+  public void backfillsWithoutState() {
+    runSession(12, -1);
+    assertTrue(stateFile.delete());
+
+    final SeedLinkServer server = new SeedLinkServer(ADDRESS, stateFile, createCache());
+    assertFalse(server.canResume(STATION, CHANNEL, START));
+  }
+
+  /**
+   * Receive ten minute waves from START, then shut down as Swarm does.
+   *
+   * @param count waves to receive
+   * @param missing index of a wave never received, or -1
+   * @return end of the last wave
+   */
+  private double runSession(final int count, final int missing) {
+    final AbstractCachingDataSource cache = createCache();
+    final SeedLinkServer server = new SeedLinkServer(ADDRESS, stateFile, cache);
+    double end = START;
+    for (int i = 0; i < count; i++) {
+      final Wave wave = createWave(START + i * SAMPLES / SAMPLING_RATE);
+      if (i != missing) {
+        cache.putWave(CHANNEL, wave);
+      }
+      end = wave.getEndTime();
+      server.noteReceived(STATION, 1000 + i, end);
+    }
+
+    server.saveState();
+    cache.persist();
+    return end;
+  }
+
+  /**
+   * Create a cache over the disk cache left by any earlier session.
+   */
+  private AbstractCachingDataSource createCache() {
+    final AbstractCachingDataSource cache = new AbstractCachingDataSource() {
+      @Override
+      public String toConfigString() {
+        return "test:";
+      }
+    };
+    cache.setDiskCache(new DiskCache(cacheDir, 100L * 1024 * 1024));
+    return cache;
+  }
+
+  private static Wave createWave(final double start) {
+    final int[] buffer = new int[SAMPLES];
+    for (int i = 0; i < SAMPLES; i++) {
+      buffer[i] = i;
+    }
+    final Wave wave = new Wave(buffer, start, SAMPLING_RATE);
+    wave.register();
+    return wave;
+  }
+}